@@ -0,0 +1,390 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeFile is a B+ tree index over one field of a table, so that lookups
+ * and range queries on that field read a few pages instead of the whole
+ * table (see {@link IndexScan}). The tree's nodes are {@link BTreePage}s.
+ * <p>
+ * The root is always page 0; when it fills up, its contents move to two new
+ * pages and it becomes their parent. Leaves are linked left to right, so a
+ * range is read by finding its first leaf and following the links. Deleting
+ * an entry never merges pages, so pages emptied by deletes are only reused
+ * by later inserts into the same key range.
+ * <p>
+ * A field of a table in the catalog file gets a B+ tree index by annotating
+ * it with <tt>index</tt> (see {@link Catalog#loadSchema}).
+ *
+ * @see BTreePage
+ */
+public class BTreeFile extends IndexFile {
+
+    /** The page number of the root. */
+    static final int ROOT = 0;
+
+    /**
+     * Opens the index on one field of a table kept in the given file. A new
+     * index is empty until it is built (see {@link #build}).
+     *
+     * @param f the file the index is kept in
+     * @param table the indexed table
+     * @param keyField the index of the indexed field in the table's tuples
+     */
+    public BTreeFile(File f, DbFile table, int keyField) {
+        this(f, table, keyField, new int[0]);
+    }
+
+    /**
+     * Opens the index on one field of a table kept in the given file, whose
+     * entries also hold the values of other fields, so that it covers them
+     * (see {@link IndexFile#covers}).
+     *
+     * @param f the file the index is kept in
+     * @param table the indexed table
+     * @param keyField the index of the indexed field in the table's tuples
+     * @param included the indexes of the other fields to keep in the entries
+     */
+    public BTreeFile(File f, DbFile table, int keyField, int[] included) {
+        super(f, table, keyField, included, 1);
+        TupleDesc td = getTupleDesc();
+        if (BTreePage.internalCapacity(td.getFieldType(0)) < 2 || BTreePage.leafCapacity(td) < 2)
+            throw new IllegalArgumentException("page size too small for a B+ tree");
+    }
+
+    /** Compares two keys, returning a negative number, zero or a positive
+     * number as a is less than, equal to or greater than b. */
+    static int compare(Field a, Field b) {
+        if (a.compare(Predicate.Op.LESS_THAN, b))
+            return -1;
+        return a.compare(Predicate.Op.EQUALS, b) ? 0 : 1;
+    }
+
+    /** Returns true for equality and range comparisons. */
+    public boolean supports(Predicate.Op op) {
+        return op != Predicate.Op.LIKE && op != Predicate.Op.NOT_EQUALS;
+    }
+
+    /** Returns the height of the tree, assuming its nodes are full. */
+    public double estimateProbePages() {
+        int fanout = BTreePage.internalCapacity(getTupleDesc().getFieldType(0)) + 1;
+        return Math.max(1, Math.ceil(Math.log(numPages()) / Math.log(fanout)) + 1);
+    }
+
+    protected BTreePageId pageId(int pageNo) {
+        return new BTreePageId(getId(), pageNo);
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (pid.getTableId() != getId() || pid.getPageNumber() < 0 || pid.getPageNumber() >= numPages())
+            return null;
+        try {
+            byte[] data = BTreePage.createEmptyPageData();
+            readPageData(pid.getPageNumber(), data);
+            return new BTreePage(pageId(pid.getPageNumber()), data);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private BTreePage getPage(TransactionId tid, int pageNo, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        return (BTreePage) Database.getBufferPool().getPage(tid, pageId(pageNo), perm);
+    }
+
+    /**
+     * Returns the leftmost leaf that may hold key, or the leftmost leaf of
+     * the tree if key is null. The pages on the way are locked for reading.
+     */
+    private BTreePage findLeaf(TransactionId tid, Field key)
+            throws TransactionAbortedException, DbException {
+        BTreePage page = getPage(tid, ROOT, Permissions.READ_ONLY);
+        while (!page.isLeaf()) {
+            int child = key == null ? 0 : page.childIndex(key, true);
+            page = getPage(tid, page.children.get(child), Permissions.READ_ONLY);
+        }
+        return page;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        TupleDesc td = getTupleDesc();
+        if (!td.equals(t.getTupleDesc())) throw new DbException("TupleDesc does not match.");
+        Field key = t.getField(0);
+        // the internal nodes on the way down, for splits to go back up
+        ArrayList<Integer> path = new ArrayList<Integer>();
+        BTreePage page = getPage(tid, ROOT, Permissions.READ_ONLY);
+        while (!page.isLeaf()) {
+            path.add(page.getId().getPageNumber());
+            page = getPage(tid, page.children.get(page.childIndex(key, false)), Permissions.READ_ONLY);
+        }
+        page = getPage(tid, page.getId().getPageNumber(), Permissions.READ_WRITE);
+        Map<PageId, Page> dirtied = new LinkedHashMap<PageId, Page>();
+        dirtied.put(page.getId(), page);
+
+        Tuple e = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++)
+            e.setField(i, t.getField(i));
+        page.entries.add(page.entryIndex(key, false), e);
+        while (page.overflows())
+            page = split(tid, page, path, dirtied);
+        return new ArrayList<Page>(dirtied.values());
+    }
+
+    /**
+     * Splits a page that is too full, moving the upper half of its contents
+     * to a new page and adding the new page to its parent. The root is split
+     * into two new pages instead, and becomes their parent.
+     *
+     * @param path the internal nodes above page, from the root down
+     * @param dirtied the pages changed so far, to which the pages changed by
+     *                the split are added
+     * @return the parent of page, which may now be too full itself
+     */
+    private BTreePage split(TransactionId tid, BTreePage page, List<Integer> path,
+                            Map<PageId, Page> dirtied) throws DbException, TransactionAbortedException {
+        BTreePage right = newPage(tid, dirtied);
+        Field separator = moveUpperHalf(page, right);
+        if (page.getId().getPageNumber() == ROOT) {
+            BTreePage left = newPage(tid, dirtied);
+            if (page.isLeaf()) {
+                left.entries.addAll(page.entries);
+                left.rightSibling = right.getId().getPageNumber();
+            } else {
+                left.makeInternal();
+                left.keys.addAll(page.keys);
+                left.children.addAll(page.children);
+            }
+            page.makeInternal();
+            page.keys.clear();
+            page.children.clear();
+            page.children.add(left.getId().getPageNumber());
+            page.keys.add(separator);
+            page.children.add(right.getId().getPageNumber());
+            return page;
+        }
+        BTreePage parent = getPage(tid, path.remove(path.size() - 1), Permissions.READ_WRITE);
+        dirtied.put(parent.getId(), parent);
+        int i = parent.children.indexOf(page.getId().getPageNumber());
+        parent.keys.add(i, separator);
+        parent.children.add(i + 1, right.getId().getPageNumber());
+        return parent;
+    }
+
+    /**
+     * Moves the upper half of a page's contents to an empty page, and
+     * returns the key that separates them in their parent.
+     */
+    private static Field moveUpperHalf(BTreePage page, BTreePage right) {
+        if (page.isLeaf()) {
+            List<Tuple> upper = page.entries.subList(page.entries.size() / 2, page.entries.size());
+            right.entries.addAll(upper);
+            upper.clear();
+            right.rightSibling = page.rightSibling;
+            page.rightSibling = right.getId().getPageNumber();
+            return right.entries.get(0).getField(0);
+        }
+        // the middle key moves up to the parent
+        int m = page.keys.size() / 2;
+        Field separator = page.keys.get(m);
+        right.makeInternal();
+        right.keys.addAll(page.keys.subList(m + 1, page.keys.size()));
+        right.children.addAll(page.children.subList(m + 1, page.children.size()));
+        page.keys.subList(m, page.keys.size()).clear();
+        page.children.subList(m + 1, page.children.size()).clear();
+        return separator;
+    }
+
+    /** Adds a new, empty page to the tree, locked for writing by tid. */
+    private BTreePage newPage(TransactionId tid, Map<PageId, Page> dirtied)
+            throws DbException, TransactionAbortedException {
+        BTreePage page = getPage(tid, allocated.getAndIncrement(), Permissions.READ_WRITE);
+        dirtied.put(page.getId(), page);
+        return page;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        TupleDesc td = getTupleDesc();
+        if (!td.equals(t.getTupleDesc())) throw new DbException("TupleDesc does not match.");
+        Field key = t.getField(0);
+        BTreePage page = findLeaf(tid, key);
+        while (true) {
+            for (int i = page.entryIndex(key, true); i < page.entries.size(); i++) {
+                Tuple e = page.entries.get(i);
+                if (compare(e.getField(0), key) > 0)
+                    throw new DbException("entry is not in the index");
+                if (sameRecord(e, t)) {
+                    page = getPage(tid, page.getId().getPageNumber(), Permissions.READ_WRITE);
+                    page.entries.remove(i);
+                    ArrayList<Page> pList = new ArrayList<Page>();
+                    pList.add(page);
+                    return pList;
+                }
+            }
+            if (page.rightSibling == 0)
+                throw new DbException("entry is not in the index");
+            page = getPage(tid, page.rightSibling, Permissions.READ_ONLY);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new EntryIterator(tid, null, null);
+    }
+
+    /**
+     * Returns an iterator over the entries whose key satisfies
+     * <tt>key op value</tt>, in key order. Equality and range predicates only
+     * read the leaves holding the matching entries; other predicates read
+     * every leaf.
+     */
+    public DbFileIterator indexIterator(TransactionId tid, Predicate.Op op, Field value) {
+        return new EntryIterator(tid, op, value);
+    }
+
+    /**
+     * Replaces the contents of this index with entries for all tuples of its
+     * table, filling the leaves and building the tree bottom up.
+     */
+    public void build(TransactionId tid) throws DbException, TransactionAbortedException, IOException {
+        ArrayList<Tuple> entries = new ArrayList<Tuple>();
+        DbFileIterator it = Database.getCatalog().getDatabaseFile(getTableId()).iterator(tid);
+        it.open();
+        while (it.hasNext())
+            entries.add(entry(it.next()));
+        it.close();
+        Collections.sort(entries, new Comparator<Tuple>() {
+            public int compare(Tuple a, Tuple b) {
+                return BTreeFile.compare(a.getField(0), b.getField(0));
+            }
+        });
+
+        truncate();
+
+        TupleDesc td = getTupleDesc();
+        int leafCapacity = BTreePage.leafCapacity(td);
+        if (entries.size() <= leafCapacity) {
+            BTreePage root = new BTreePage(pageId(ROOT), BTreePage.createEmptyPageData());
+            root.entries.addAll(entries);
+            writePage(root);
+            allocated.set(1);
+            return;
+        }
+        // the leaves, then each level of internal nodes, follow the root
+        int next = 1;
+        ArrayList<Integer> level = new ArrayList<Integer>();
+        ArrayList<Field> minKeys = new ArrayList<Field>();
+        int leaves = (entries.size() + leafCapacity - 1) / leafCapacity;
+        for (int i = 0; i < leaves; i++) {
+            BTreePage leaf = new BTreePage(pageId(next), BTreePage.createEmptyPageData());
+            leaf.entries.addAll(entries.subList(i * leafCapacity, Math.min(entries.size(), (i + 1) * leafCapacity)));
+            leaf.rightSibling = i + 1 < leaves ? next + 1 : 0;
+            writePage(leaf);
+            level.add(next++);
+            minKeys.add(leaf.entries.get(0).getField(0));
+        }
+        int fanout = BTreePage.internalCapacity(td.getFieldType(0)) + 1;
+        while (true) {
+            boolean top = level.size() <= fanout;
+            int nodes = top ? 1 : (level.size() + fanout - 1) / fanout;
+            ArrayList<Integer> parents = new ArrayList<Integer>();
+            ArrayList<Field> parentKeys = new ArrayList<Field>();
+            for (int n = 0, start = 0; n < nodes; n++) {
+                // spread the children evenly, so no node is left with one
+                int end = (int) ((long) level.size() * (n + 1) / nodes);
+                int pageNo = top ? ROOT : next++;
+                BTreePage node = new BTreePage(pageId(pageNo), BTreePage.createEmptyPageData());
+                node.makeInternal();
+                for (int i = start; i < end; i++) {
+                    if (i > start)
+                        node.keys.add(minKeys.get(i));
+                    node.children.add(level.get(i));
+                }
+                writePage(node);
+                parents.add(pageNo);
+                parentKeys.add(minKeys.get(start));
+                start = end;
+            }
+            if (top)
+                break;
+            level = parents;
+            minKeys = parentKeys;
+        }
+        allocated.set(next);
+    }
+
+    /**
+     * Iterates over the entries of the index, in key order, whose key
+     * satisfies a predicate, following the links between leaves.
+     */
+    private class EntryIterator extends AbstractDbFileIterator {
+        private final TransactionId tid;
+        private final Predicate.Op op;
+        private final Field value;
+        private List<Tuple> leaf;
+        private int pos;
+        private int nextLeaf;
+        private boolean done = true;
+
+        EntryIterator(TransactionId tid, Predicate.Op op, Field value) {
+            this.tid = tid;
+            this.op = op;
+            this.value = value;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            boolean seek = value != null && (op == Predicate.Op.EQUALS
+                    || op == Predicate.Op.GREATER_THAN || op == Predicate.Op.GREATER_THAN_OR_EQ);
+            BTreePage page = findLeaf(tid, seek ? value : null);
+            load(page);
+            if (seek)
+                pos = page.entryIndex(value, true);
+            done = false;
+        }
+
+        /** Reads the entries of a leaf; they are copied, so changes to the
+         * leaf made by the reading transaction do not disturb the scan. */
+        private void load(BTreePage page) {
+            leaf = new ArrayList<Tuple>(page.entries);
+            pos = 0;
+            nextLeaf = page.rightSibling;
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            while (!done) {
+                while (pos >= leaf.size()) {
+                    if (nextLeaf == 0) {
+                        done = true;
+                        return null;
+                    }
+                    load(getPage(tid, nextLeaf, Permissions.READ_ONLY));
+                }
+                Tuple e = leaf.get(pos++);
+                if (value == null || e.getField(0).compare(op, value))
+                    return e;
+                // entries are sorted, so past the end of an equality or
+                // less-than range nothing more can match
+                if ((op == Predicate.Op.EQUALS || op == Predicate.Op.LESS_THAN
+                        || op == Predicate.Op.LESS_THAN_OR_EQ) && compare(e.getField(0), value) >= 0)
+                    done = true;
+            }
+            return null;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            done = true;
+        }
+    }
+}
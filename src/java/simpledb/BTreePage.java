@@ -0,0 +1,241 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * Each instance of BTreePage stores one node of a {@link BTreeFile}: either
+ * a leaf, holding index entries sorted by key, or an internal node, holding
+ * separator keys and the page numbers of its children. The page is laid out
+ * as:
+ * <ul>
+ * <li>1 byte: 0 for a leaf, 1 for an internal node</li>
+ * <li>4 bytes: the number of entries (leaf) or keys (internal node)</li>
+ * <li>4 bytes: the page number of the next leaf to the right, or 0 if
+ * there is none (leaf only)</li>
+ * <li>a leaf's entries, each in the format of the file's TupleDesc; or an
+ * internal node's first child as 4 bytes, followed by each key and the child
+ * to its right</li>
+ * </ul>
+ * Child i of an internal node holds the keys between key i-1 and key i,
+ * inclusive: an equal key may be on either side of a separator. An all-zero
+ * page is an empty leaf.
+ * <p>
+ * The page is decoded when it is read, and encoded again by
+ * {@link #getPageData}.
+ *
+ * @see BTreeFile
+ */
+public class BTreePage implements Page {
+
+    static final int HEADER_SIZE = 9;
+    private static final byte LEAF = 0;
+    private static final byte INTERNAL = 1;
+
+    final BTreePageId pid;
+    final TupleDesc td;
+    private boolean leaf;
+    // leaf contents
+    final ArrayList<Tuple> entries = new ArrayList<Tuple>();
+    int rightSibling;
+    // internal node contents; children has one more element than keys
+    final ArrayList<Field> keys = new ArrayList<Field>();
+    final ArrayList<Integer> children = new ArrayList<Integer>();
+
+    private TransactionId dirtier;
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a BTreePage from a set of bytes of data read from disk, in the
+     * format described above. The TupleDesc of the entries is that of the
+     * BTreeFile the page belongs to.
+     */
+    public BTreePage(BTreePageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        this.leaf = buf.get() == LEAF;
+        int n = buf.getInt();
+        this.rightSibling = buf.getInt();
+        try {
+            if (leaf) {
+                for (int i = 0; i < n; i++) {
+                    Tuple t = new Tuple(td);
+                    for (int j = 0; j < td.numFields(); j++) {
+                        Type type = td.getFieldType(j);
+                        t.setField(j, type.parse(data, buf.position()));
+                        buf.position(buf.position() + type.getLen());
+                    }
+                    entries.add(t);
+                }
+            } else {
+                Type keyType = td.getFieldType(0);
+                children.add(buf.getInt());
+                for (int i = 0; i < n; i++) {
+                    keys.add(keyType.parse(data, buf.position()));
+                    buf.position(buf.position() + keyType.getLen());
+                    children.add(buf.getInt());
+                }
+            }
+        } catch (ParseException e) {
+            throw new IOException("corrupt B+ tree page " + id.getPageNumber(), e);
+        }
+    }
+
+    /** Returns the bytes of an empty leaf. */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /** Returns the number of entries that fit on a leaf. */
+    static int leafCapacity(TupleDesc td) {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / td.getSize();
+    }
+
+    /** Returns the number of keys that fit on an internal node. */
+    static int internalCapacity(Type keyType) {
+        return (BufferPool.getPageSize() - HEADER_SIZE - 4) / (keyType.getLen() + 4);
+    }
+
+    /** Returns true if this page is a leaf. */
+    public boolean isLeaf() {
+        return leaf;
+    }
+
+    /** Turns this page into an internal node with no keys or children. */
+    void makeInternal() {
+        leaf = false;
+        entries.clear();
+        rightSibling = 0;
+    }
+
+    /** Returns true if this page holds more than fits on disk. */
+    boolean overflows() {
+        return leaf ? entries.size() > leafCapacity(td)
+                : keys.size() > internalCapacity(td.getFieldType(0));
+    }
+
+    /**
+     * Returns the index of the child of this internal node to descend to for
+     * key: the leftmost child that may hold it if leftmost is set, and
+     * otherwise the rightmost.
+     */
+    int childIndex(Field key, boolean leftmost) {
+        int lo = 0, hi = keys.size();
+        // the first key greater than or equal to (leftmost) or greater than
+        // (rightmost) key
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = BTreeFile.compare(keys.get(mid), key);
+            if (c < 0 || (c == 0 && !leftmost))
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Returns the position of the first entry of this leaf whose key is
+     * greater than or equal to (leftmost) or greater than (rightmost) key.
+     */
+    int entryIndex(Field key, boolean leftmost) {
+        int lo = 0, hi = entries.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = BTreeFile.compare(entries.get(mid).getField(0), key);
+            if (c < 0 || (c == 0 && !leftmost))
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public BTreePageId getId() {
+        return pid;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Passing it to the BTreePage constructor produces an identical page.
+     */
+    public byte[] getPageData() {
+        byte[] data = createEmptyPageData();
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        buf.put(leaf ? LEAF : INTERNAL);
+        if (leaf) {
+            buf.putInt(entries.size());
+            buf.putInt(rightSibling);
+            for (Tuple t : entries) {
+                for (int j = 0; j < td.numFields(); j++) {
+                    t.getField(j).serialize(buf, buf.position());
+                    buf.position(buf.position() + td.getFieldType(j).getLen());
+                }
+            }
+        } else {
+            buf.putInt(keys.size());
+            buf.putInt(0);
+            buf.putInt(children.get(0));
+            for (int i = 0; i < keys.size(); i++) {
+                keys.get(i).serialize(buf, buf.position());
+                buf.position(buf.position() + keys.get(i).getType().getLen());
+                buf.putInt(children.get(i + 1));
+            }
+        }
+        return data;
+    }
+
+    /** Return a view of this page before it was modified, or null if no
+        before image has been captured -- used by recovery */
+    public BTreePage getBeforeImage() {
+        byte[] old;
+        synchronized (oldDataLock) {
+            old = oldData;
+        }
+        if (old == null)
+            return null;
+        try {
+            return new BTreePage(pid, old);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        byte[] data = getPageData();
+        synchronized (oldDataLock) {
+            oldData = data;
+        }
+    }
+
+    public void clearBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = null;
+        }
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtier = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+}
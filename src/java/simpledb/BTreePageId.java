@@ -0,0 +1,65 @@
+package simpledb;
+
+/** Unique identifier for BTreePage objects. */
+public class BTreePageId implements PageId {
+
+    private final int tableId;
+    private final int pageNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific B+ tree file.
+     *
+     * @param tableId The id of the BTreeFile the page belongs to
+     * @param pgNo The page number in that file.
+     */
+    public BTreePageId(int tableId, int pgNo) {
+        this.tableId = tableId;
+        this.pageNo = pgNo;
+    }
+
+    /** @return the BTreeFile associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the page number in the file getTableId() associated with
+     *   this PageId
+     */
+    public int getPageNumber() {
+        return pageNo;
+    }
+
+    public int hashCode() {
+        return java.util.Objects.hash(tableId, pageNo, 1);
+    }
+
+    /**
+     * Compares one PageId to another.
+     *
+     * @param o The object to compare against (must be a PageId)
+     * @return true if the objects are equal (e.g., page numbers and table
+     *   ids are the same)
+     */
+    public boolean equals(Object o) {
+        if (!(o instanceof BTreePageId))
+            return false;
+        BTreePageId other = (BTreePageId) o;
+        return other.tableId == tableId && other.pageNo == pageNo;
+    }
+
+    public String toString() {
+        return "BTreePageId(" + tableId + ", " + pageNo + ")";
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk.  Size of returned array must contain
+     *  number of integers that corresponds to number of args to one of the
+     *  constructors.
+     */
+    public int[] serialize() {
+        return new int[] { tableId, pageNo };
+    }
+}
@@ -0,0 +1,334 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * BloomFilter keeps a Bloom filter over the values of some fields of a
+ * HeapFile, so that a search for a value that the table does not hold can
+ * be answered without reading the table (see {@link Filter}). It is stored
+ * in a small file next to the table's data file, so it survives restarts.
+ * <p>
+ * The filter may say a value is present when it is not, but never the
+ * reverse: every tuple inserted into the table adds its values at once, and
+ * the filter is written to its file before any page holding them is. Values
+ * of deleted tuples are never removed; {@link TableStats} rebuilds the
+ * filter from a scan of the table, sized for the number of tuples it finds.
+ * <p>
+ * A table that is not empty when its filter is first opened, or whose data
+ * file has changed since the filter was last written, has no usable filter
+ * until it is rebuilt; until then every value may be present.
+ * <p>
+ * The file holds the {@link FileStamp} of the data file when it was last
+ * written, the number of filtered fields, then for each the index of the
+ * field and the number of 8-byte words of its bits, followed by the words
+ * of each field in turn.
+ *
+ * @Threadsafe
+ * @see HeapFile#getBloomFilter
+ */
+public class BloomFilter {
+
+    /** The bits kept for each value the filter is sized for. */
+    static final int BITS_PER_VALUE = 10;
+    /** The number of bits each value sets, which suits BITS_PER_VALUE. */
+    static final int HASHES = 7;
+    /** The number of bits kept for each field of an empty table. */
+    static final int MIN_BITS = 1024;
+    /** The most 8-byte words of bits kept for a field (128MB). */
+    static final int MAX_WORDS = 1 << 24;
+
+    private final File file;
+    private final File dataFile;
+    private final int[] fields;
+    // the bits of each field, or null if the filter has not been built
+    private long[][] bits;
+    // the bits of each field being rebuilt by a scan, or null
+    private long[][] rebuilt;
+    // the words of each field set since the file was last written
+    private BitSet[] dirty;
+    // true if the whole file must be written, not just the dirty words
+    private boolean rewrite;
+    // the stamp of the data file when the file was last written
+    private FileStamp stamp;
+
+    /**
+     * Opens the Bloom filter stored in the given file. A missing or
+     * unreadable file, or one over other fields, gives a filter that has not
+     * been built unless the table is empty.
+     *
+     * @param file the file the filter is kept in
+     * @param dataFile the table's data file
+     * @param fields the indexes of the fields to filter
+     */
+    public BloomFilter(File file, File dataFile, int[] fields) {
+        this.file = file;
+        this.dataFile = dataFile;
+        this.fields = fields.clone();
+        Arrays.sort(this.fields);
+        if (file.exists()) {
+            try {
+                read(ByteBuffer.wrap(Files.readAllBytes(file.toPath())));
+            } catch (IOException | BufferUnderflowException e) {
+                e.printStackTrace();
+                bits = null;
+            }
+        }
+        if (bits == null && dataFile.length() == 0)
+            reset(MIN_BITS);
+    }
+
+    /** Sets the filter from the contents of its file, if they are usable. */
+    private void read(ByteBuffer b) {
+        FileStamp stored = FileStamp.read(b);
+        if (stored == null || !stored.equals(FileStamp.of(dataFile)))
+            return;
+        int n = b.getInt();
+        if (n != fields.length)
+            return;
+        int[] words = new int[n];
+        for (int k = 0; k < n; k++) {
+            if (b.getInt() != fields[k])
+                return;
+            words[k] = b.getInt();
+        }
+        long[][] read = new long[n][];
+        for (int k = 0; k < n; k++) {
+            read[k] = new long[words[k]];
+            for (int i = 0; i < words[k]; i++)
+                read[k][i] = b.getLong();
+        }
+        bits = read;
+        dirty = newDirty();
+        stamp = stored;
+    }
+
+    /** Returns the indexes of the fields this filter holds the values of. */
+    public int[] getFields() {
+        return fields.clone();
+    }
+
+    /**
+     * Returns true if the filter has been built, so that it can tell values
+     * that are not in the table.
+     */
+    public synchronized boolean isBuilt() {
+        return bits != null;
+    }
+
+    /**
+     * Returns false if no tuple of the table has the given value in the
+     * given field. Fields the filter does not hold may have any value.
+     *
+     * @param field the index of the field
+     * @param value the value
+     */
+    public synchronized boolean mightContain(int field, Field value) {
+        int k = Arrays.binarySearch(fields, field);
+        if (bits == null || k < 0)
+            return true;
+        long[] b = bits[k];
+        long nbits = (long) b.length * 64;
+        int h1 = mix(value.hashCode());
+        int h2 = mix(h1) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            long bit = ((h1 + i * h2) & 0x7fffffffL) % nbits;
+            if ((b[(int) (bit >>> 6)] & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Adds the values of a tuple inserted into the table. The change is not
+     * written to the filter's file until a page of the table is written.
+     */
+    public synchronized void add(Tuple t) {
+        if (bits != null) {
+            for (int k = 0; k < fields.length; k++) {
+                int h1 = mix(t.getField(fields[k]).hashCode());
+                set(bits[k], h1, mix(h1) | 1, dirty[k]);
+            }
+        }
+        rebuildAdd(t);
+    }
+
+    /** Sets the bits of one value, noting the words that changed. */
+    private static void set(long[] b, int h1, int h2, BitSet changed) {
+        long nbits = (long) b.length * 64;
+        for (int i = 0; i < HASHES; i++) {
+            long bit = ((h1 + i * h2) & 0x7fffffffL) % nbits;
+            int word = (int) (bit >>> 6);
+            if ((b[word] & (1L << bit)) == 0) {
+                b[word] |= 1L << bit;
+                if (changed != null)
+                    changed.set(word);
+            }
+        }
+    }
+
+    /** Spreads the bits of a hash code (the finalizer of MurmurHash3). */
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * Starts building a new filter, sized for the given number of values,
+     * from a scan of the table. Tuples inserted while the scan runs are
+     * added to the new filter as well as to the current one.
+     *
+     * @param expected the number of tuples the scan is expected to find
+     * @see #rebuildAdd
+     * @see #finishRebuild
+     */
+    public synchronized void startRebuild(int expected) {
+        rebuilt = newBits(Math.max(MIN_BITS, (long) expected * BITS_PER_VALUE));
+    }
+
+    /** Adds the values of a tuple found by the scan rebuilding the filter. */
+    public synchronized void rebuildAdd(Tuple t) {
+        if (rebuilt == null)
+            return;
+        for (int k = 0; k < fields.length; k++) {
+            int h1 = mix(t.getField(fields[k]).hashCode());
+            set(rebuilt[k], h1, mix(h1) | 1, null);
+        }
+    }
+
+    /**
+     * Replaces the filter with the one built by the scan, once the scan has
+     * read every tuple of the table, and writes it to the filter's file.
+     */
+    public synchronized void finishRebuild() {
+        if (rebuilt == null)
+            return;
+        bits = rebuilt;
+        rebuilt = null;
+        dirty = newDirty();
+        rewrite = true;
+        flush();
+    }
+
+    /** Replaces the filter with an empty one of the given size. */
+    private void reset(long nbits) {
+        bits = newBits(nbits);
+        dirty = newDirty();
+        rewrite = true;
+    }
+
+    /** Returns empty bits for each field, of at least the given size. */
+    private long[][] newBits(long nbits) {
+        int words = (int) Math.min(MAX_WORDS, (nbits + 63) / 64);
+        return new long[fields.length][words];
+    }
+
+    private BitSet[] newDirty() {
+        BitSet[] d = new BitSet[fields.length];
+        for (int k = 0; k < d.length; k++)
+            d[k] = new BitSet();
+        return d;
+    }
+
+    /**
+     * Called before a page of the table is written: writes the values added
+     * since the file was last written, so the file holds every value of the
+     * page on disk whether or not the write completes.
+     */
+    public synchronized void flush() {
+        if (bits == null)
+            return;
+        boolean changed = rewrite;
+        for (BitSet d : dirty)
+            changed |= !d.isEmpty();
+        if (!changed)
+            return;
+        FileHandleCache handles = Database.getFileHandleCache();
+        try {
+            FileChannel ch = handles.acquire(file);
+            try {
+                if (rewrite) {
+                    FileStamp now = FileStamp.of(dataFile);
+                    ByteBuffer b = ByteBuffer.allocate(headerSize() - FileStamp.SIZE + 8 * totalWords());
+                    b.putInt(fields.length);
+                    for (int k = 0; k < fields.length; k++)
+                        b.putInt(fields[k]).putInt(bits[k].length);
+                    for (long[] words : bits)
+                        for (long w : words)
+                            b.putLong(w);
+                    b.flip();
+                    write(ch, b, FileStamp.SIZE);
+                    ch.truncate(FileStamp.SIZE + b.limit());
+                    now.write(ch);
+                    stamp = now;
+                    rewrite = false;
+                } else {
+                    long offset = headerSize();
+                    for (int k = 0; k < fields.length; k++) {
+                        for (int i = dirty[k].nextSetBit(0); i >= 0; i = dirty[k].nextSetBit(i + 1)) {
+                            ByteBuffer b = ByteBuffer.allocate(8);
+                            b.putLong(bits[k][i]).flip();
+                            write(ch, b, offset + 8L * i);
+                        }
+                        offset += 8L * bits[k].length;
+                    }
+                }
+            } finally {
+                handles.release(file);
+            }
+            for (BitSet d : dirty)
+                d.clear();
+        } catch (IOException e) {
+            // the file may be missing values; make sure it is not used
+            e.printStackTrace();
+            file.delete();
+            rewrite = true;
+        }
+    }
+
+    /**
+     * Called after the data file has been written or truncated: records its
+     * new stamp. A file whose stamp is not that of the data file, e.g. after
+     * a crash between the two, is not used when the filter is next opened.
+     */
+    synchronized void stamp(FileStamp now) {
+        if (bits == null || rewrite || now.equals(stamp))
+            return;
+        FileHandleCache handles = Database.getFileHandleCache();
+        try {
+            FileChannel ch = handles.acquire(file);
+            try {
+                now.write(ch);
+                stamp = now;
+            } finally {
+                handles.release(file);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private int headerSize() {
+        return FileStamp.SIZE + 4 + 8 * fields.length;
+    }
+
+    private int totalWords() {
+        int n = 0;
+        for (long[] words : bits)
+            n += words.length;
+        return n;
+    }
+
+    private static void write(FileChannel ch, ByteBuffer b, long pos) throws IOException {
+        while (b.hasRemaining())
+            ch.write(b, pos + b.position());
+    }
+}
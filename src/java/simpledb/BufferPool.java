@@ -1,11 +1,14 @@
 package simpledb;
 
-import org.omg.CORBA.TIMEOUT;
-
 import java.io.*;
 
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.*;
 
 /**
@@ -16,6 +19,21 @@ import java.util.*;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * Locks are taken on records, pages and tables (see {@link LockManager}).
+ * A transaction locking a page locks its table in an intention mode first,
+ * unless it holds a lock on the table that covers the page already. A
+ * HeapFile may instead lock the records it reads and changes, with
+ * intention locks on their page and table (see {@link #getPageForRows}),
+ * so that transactions changing different records of a page need not wait
+ * for each other. A transaction holding many locks under one page or table
+ * has them replaced by a single lock on it, if that can be had without
+ * waiting.
+ * <p>
+ * The records each transaction changed on pages that others are changing
+ * too are remembered, so that when it completes only its records are
+ * written or rolled back: committing writes the page as it was last clean
+ * with just its records changed, which becomes the page's before image.
  * 
  * @Threadsafe, all fields are final
  */
@@ -27,26 +45,108 @@ public class BufferPool {
 
     private static int TIMEOUT_THRESHOLD = 1000;
     static boolean DEBUG_ON = false;
-    static boolean DETECT_DEADLOCK = false;
+    /** How the lock manager handles deadlocks, unless a constructor is given
+     * another policy; set at startup by the simpledb.DeadlockPolicy system
+     * property (see {@link DeadlockPolicy}). */
+    static final DeadlockPolicy DEADLOCK_POLICY = DeadlockPolicy.fromProperty();
 
     /** Default number of pages passed to the constructor. This is used by
      other classes. BufferPool should use the numPages argument to the
      constructor instead. */
     public static final int DEFAULT_PAGES = 100;
 
+    /**
+     * The number of record locks a transaction may hold on one page before
+     * they are replaced with a lock on the page.
+     */
+    static final int ROW_LOCK_ESCALATION = 32;
+
+    /**
+     * The number of page locks a transaction may hold on one table before
+     * they are replaced with a lock on the table.
+     */
+    static final int PAGE_LOCK_ESCALATION = 128;
+
+    /** Default number of pages a sequential scan prefetches at a time. */
+    public static final int DEFAULT_READ_AHEAD = 8;
+
+    /** Background thread shared by all pools that performs read-ahead I/O. */
+    private static final ExecutorService readAheadIO = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "simpledb-read-ahead");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
     private int numPages;
     public ConcurrentHashMap<PageId, Page> pageMap;
     private LockManager lm;
+    private final ReplacementPolicy policy;
+
+    private volatile int readAheadWindow = DEFAULT_READ_AHEAD;
+    // pages asked for by read-ahead that have not arrived yet
+    private final Set<PageId> readAheadPending = ConcurrentHashMap.newKeySet();
+    // pages brought in by read-ahead that nobody has asked for yet
+    private final Set<PageId> readAheadUnused = ConcurrentHashMap.newKeySet();
+    // pages brought in for a ring scan that nobody else has asked for since
+    private final Set<PageId> ringOnly = ConcurrentHashMap.newKeySet();
+    private final AtomicLong readAheadHits = new AtomicLong();
+    private final AtomicLong readAheadMisses = new AtomicLong();
+    /** Before images of the pages each transaction wrote through to disk. */
+    private final Map<TransactionId, List<Page>> writtenThrough = new HashMap<TransactionId, List<Page>>();
+    /**
+     * The slots each transaction changed on the pages changed a record at a
+     * time, guarded by this pool's monitor.
+     */
+    private final Map<PageId, Map<TransactionId, Set<Integer>>> rowWrites = new HashMap<PageId, Map<TransactionId, Set<Integer>>>();
+    /**
+     * The pages changed a record at a time whose changes by each transaction
+     * were flushed before it completed, and must be taken off disk if it
+     * aborts.
+     */
+    private final Map<TransactionId, Set<PageId>> rowsFlushed = new HashMap<TransactionId, Set<PageId>>();
+    // files written since the maps kept next to them were last stamped
+    private final Set<HeapFile> unstamped = ConcurrentHashMap.newKeySet();
+    private final AtomicLong escalations = new AtomicLong();
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, using CLOCK
+     * replacement.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, new ClockPolicy(numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and evicts pages
+     * according to the given replacement policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the policy used to pick pages to evict; it should be
+     *               sized for numPages frames.
+     */
+    public BufferPool(int numPages, ReplacementPolicy policy) {
+        this(numPages, policy, DEADLOCK_POLICY);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, evicts pages
+     * according to the given replacement policy, and keeps transactions
+     * from deadlocking with the given deadlock policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the policy used to pick pages to evict; it should be
+     *               sized for numPages frames.
+     * @param deadlockPolicy how deadlocks are detected or prevented
+     */
+    public BufferPool(int numPages, ReplacementPolicy policy, DeadlockPolicy deadlockPolicy) {
         this.numPages = numPages;
+        this.policy = policy;
         pageMap = new ConcurrentHashMap<PageId, Page>();
-        lm = new LockManager();
+        lm = new LockManager(deadlockPolicy);
     }
 
     public static int getPageSize() {
@@ -80,35 +180,431 @@ public class BufferPool {
      */
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException {
-        // Acquire the proper lock first
-        long start = System.currentTimeMillis();
-        boolean success = lm.acquireLock(tid, pid, perm);
-        Random r = new Random();
-        while (!success) {
-            try {
-                long end = System.currentTimeMillis();
-                if (end - start > (TIMEOUT_THRESHOLD + r.nextInt(100))) {
-                    System.out.println("Abort: waiting for Tid = " + tid.getId() + ", Pid = " + pid.toString() + ", Perm = " + perm.toString());
-                    throw new TransactionAbortedException();
-                }
-                Thread.sleep(10);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieve the specified page on behalf of a large sequential scan. If
+     * the page is not resident it is read into one of the frames of the
+     * scan's ring (see {@link BufferRing}) and marked as the preferred next
+     * victim, so the scan does not push other transactions' pages out of
+     * the pool.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param ring the scan's ring, or null to load the page normally
+     */
+    public  Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+            throws TransactionAbortedException, DbException {
+        // Acquire the proper lock first, waiting in the page's lock queue
+        lock(tid, pid, LockManager.Mode.of(perm));
+        // Now we have the proper lock
+        Page p = fetchPage(pid, ring);
+
+        if (perm==Permissions.READ_WRITE) {
+            // the first write access since the page was last clean; the
+            // before image is only needed until tid commits or aborts
+            if (p.isDirty() == null)
+                p.setBeforeImage();
+            p.markDirty(true, tid);
+        }
+        return p;
+    }
+
+    /**
+     * Retrieve a page of a HeapFile whose records are read or changed one at
+     * a time. The page and its table are only locked in an intention mode:
+     * tid must lock each record it reads or changes with
+     * {@link #lockRecord}, and change the page through
+     * {@link #beginRowWrite}, which lets other transactions change other
+     * records of the page meanwhile.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm READ_WRITE if records of the page will be changed
+     */
+    public Page getPageForRows(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        lock(tid, pid, LockManager.Mode.intention(perm));
+        return fetchPage(pid, null);
+    }
+
+    /**
+     * Returns a page without locking it, reading it in if need be, for a
+     * caller that only takes it as a hint, e.g. to pass over full pages
+     * before locking the one it will change. Other transactions may be
+     * changing the page meanwhile, so it must be read under its monitor.
+     */
+    Page peekPage(PageId pid) throws DbException {
+        return fetchPage(pid, null);
+    }
+
+    /**
+     * Locks a record for tid, and its page and table in an intention mode,
+     * unless a lock tid holds on the page or table covers it already. May
+     * block if the lock cannot be acquired.
+     *
+     * @param tid the ID of the transaction requesting the lock
+     * @param rid the record
+     * @param perm READ_WRITE to change or delete the record
+     */
+    public void lockRecord(TransactionId tid, RecordId rid, Permissions perm)
+            throws TransactionAbortedException {
+        lock(tid, rid, LockManager.Mode.of(perm));
+    }
+
+    /**
+     * Locks a table for tid in the intention mode matching perm, announcing
+     * that it will lock pages or records of the table in that mode. May
+     * block if the lock cannot be acquired.
+     *
+     * @param tid the ID of the transaction requesting the lock
+     * @param tableId the table
+     * @param perm READ_WRITE if pages or records of the table will be changed
+     */
+    public void lockTable(TransactionId tid, int tableId, Permissions perm)
+            throws TransactionAbortedException {
+        lock(tid, tableId, LockManager.Mode.intention(perm));
+    }
+
+    /**
+     * Locks an empty slot for a tuple tid is inserting, without waiting, once
+     * tid has the slot's page from {@link #getPageForRows}. Returns false if
+     * another transaction holds a lock on the slot, e.g. because it deleted
+     * the tuple there and has not completed.
+     */
+    boolean tryLockRecord(TransactionId tid, RecordId rid) throws TransactionAbortedException {
+        return lockItem(tid, rid, LockManager.Mode.X, 0);
+    }
+
+    /**
+     * Returns the cached copy of a page whose records tid is about to
+     * change, marking it dirty. Changes to the page must be made under its
+     * monitor, and each slot changed must be reported to
+     * {@link #rowWritten}, so that only tid's changes are written or rolled
+     * back when it completes.
+     */
+    synchronized HeapPage beginRowWrite(TransactionId tid, PageId pid) throws DbException {
+        Page p = fetchPage(pid, null);
+        synchronized (p) {
+            if (p.isDirty() == null)
+                p.setBeforeImage();
+            p.markDirty(true, tid);
+        }
+        Map<TransactionId, Set<Integer>> writers = rowWrites.get(pid);
+        if (writers == null) {
+            writers = new HashMap<TransactionId, Set<Integer>>();
+            rowWrites.put(pid, writers);
+        }
+        if (!writers.containsKey(tid))
+            writers.put(tid, new HashSet<Integer>());
+        return (HeapPage) p;
+    }
+
+    /** Records that tid changed a slot of a page it got from beginRowWrite. */
+    synchronized void rowWritten(TransactionId tid, PageId pid, int slot) {
+        rowWrites.get(pid).get(tid).add(slot);
+    }
+
+    /** Returns a page tid holds a lock on, reading it in if need be. */
+    private Page fetchPage(PageId pid, BufferRing ring) throws DbException {
+        Page p = pageMap.get(pid);
+        if (p == null) {
+            p = loadPage(pid, ring);
+        } else {
+            pageHit(pid);
+        }
+        return p;
+    }
+
+    /** Records a request for a page that is resident. */
+    private void pageHit(PageId pid) {
+        policy.pageAccessed(pid);
+        // the first request for a prefetched page is the scan's own
+        if (readAheadUnused.remove(pid))
+            readAheadHits.incrementAndGet();
+        else
+            ringOnly.remove(pid);
+    }
+
+    /**
+     * Locks an item for tid as {@link #lockItem} does, and aborts tid if a
+     * wait times out. Waits only have a deadline, the lock timeout, under a
+     * deadlock policy that relies on it (see {@link DeadlockPolicy#timesOut}).
+     */
+    private void lock(TransactionId tid, Object item, LockManager.Mode mode)
+            throws TransactionAbortedException {
+        long timeout = !lm.getPolicy().timesOut() ? LockManager.NO_TIMEOUT
+                : TIMEOUT_THRESHOLD + ThreadLocalRandom.current().nextInt(100);
+        if (!lockItem(tid, item, mode, timeout)) {
+            System.out.println("Abort: waiting for Tid = " + tid.getId() + ", Item = " + item.toString() + ", Mode = " + mode);
+            throw new TransactionAbortedException();
+        }
+    }
+
+    /**
+     * Locks an item in the given mode for tid, after locking the items it is
+     * part of in the matching intention mode, unless a lock tid holds on one
+     * of them covers it already. Then replaces tid's locks under the item's
+     * parent with one on the parent, if it holds too many.
+     *
+     * @param timeout the longest time to wait for each lock, in ms
+     * @return false if a wait timed out
+     */
+    private boolean lockItem(TransactionId tid, Object item, LockManager.Mode mode, long timeout)
+            throws TransactionAbortedException {
+        if (covered(tid, item, mode))
+            return true;
+        Object parent = LockManager.parent(item);
+        LockManager.Mode intention = mode == LockManager.Mode.IS || mode == LockManager.Mode.S
+                ? LockManager.Mode.IS : LockManager.Mode.IX;
+        if (parent != null && !lockItem(tid, parent, intention, timeout))
+            return false;
+        if (!lm.acquireLock(tid, item, mode, timeout))
+            return false;
+        if (parent != null)
+            escalate(tid, parent);
+        return true;
+    }
+
+    /**
+     * Returns true if a lock tid holds on an item that the given one is part
+     * of grants it everything a lock on the item in the given mode would.
+     */
+    private boolean covered(TransactionId tid, Object item, LockManager.Mode mode) {
+        LockManager.Mode needed = mode == LockManager.Mode.IS || mode == LockManager.Mode.S
+                ? LockManager.Mode.S : LockManager.Mode.X;
+        for (Object a = LockManager.parent(item); a != null; a = LockManager.parent(a)) {
+            LockManager.Mode held = lm.getMode(tid, a);
+            if (held != null && held.covers(needed))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Replaces the locks tid holds under a page or table with a shared lock
+     * on it, or an exclusive one if it holds it for writing, once there are
+     * more than {@link #ROW_LOCK_ESCALATION} or
+     * {@link #PAGE_LOCK_ESCALATION} of them. It does not wait for the lock,
+     * so escalating never deadlocks; tid keeps its locks if another
+     * transaction holds a conflicting one.
+     */
+    private void escalate(TransactionId tid, Object item) throws TransactionAbortedException {
+        int limit = item instanceof PageId ? ROW_LOCK_ESCALATION : PAGE_LOCK_ESCALATION;
+        if (lm.countLocks(tid, item) <= limit)
+            return;
+        LockManager.Mode held = lm.getMode(tid, item);
+        LockManager.Mode mode = held != null && held.covers(LockManager.Mode.IX)
+                ? LockManager.Mode.X : LockManager.Mode.S;
+        if (lm.acquireLock(tid, item, mode, 0)) {
+            lm.releaseLocksUnder(tid, item);
+            escalations.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the number of times a transaction's record or page locks were
+     * replaced with a lock on their page or table.
+     */
+    public long getLockEscalations() {
+        return escalations.get();
+    }
+
+    /**
+     * Returns the number of pages this BufferPool can hold.
+     */
+    public int getNumPages() {
+        return numPages;
+    }
+
+    /**
+     * Decides how a sequential scan over a file of the given size should use
+     * the pool. Scans of files that would take up more than half of the pool
+     * get a private ring of frames; smaller files are cached normally.
+     *
+     * @param filePages the number of pages the scan will read
+     * @return a new ring for the scan, or null if it should not use one
+     */
+    public BufferRing newScanRing(int filePages) {
+        if (filePages <= numPages / 2)
+            return null;
+        return new BufferRing(Math.min(BufferRing.MAX_SIZE, Math.max(1, numPages / 8)));
+    }
+
+    /**
+     * Reads a page that is not resident from disk, evicting a page first if
+     * the pool is full. When loading on behalf of a ring scan, the frame of
+     * the oldest page in the ring may be reused instead (see
+     * {@link #installPage}).
+     */
+    private synchronized Page loadPage(PageId pid, BufferRing ring) throws DbException {
+        Page p = pageMap.get(pid);
+        if (p != null) {
+            // another thread brought it in while we were waiting
+            pageHit(pid);
+            return p;
+        }
+        if (readAheadPending.remove(pid))
+            readAheadMisses.incrementAndGet();
+        p = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+        if (p == null) throw new DbException("Could not read page " + pid.getPageNumber());
+        installPage(p, ring);
+        return p;
+    }
+
+    /**
+     * Adds a page just read from disk to the pool, evicting a page first if
+     * the pool is full. When loading on behalf of a ring scan, the frame of
+     * the oldest page in the ring is reused if that page is still clean and
+     * no other request has been made for it since the scan brought it in;
+     * otherwise the page just leaves the ring, and stays in the pool.
+     */
+    private synchronized void installPage(Page p, BufferRing ring) throws DbException {
+        PageId pid = p.getId();
+        if (ring != null) {
+            PageId old = ring.add(pid);
+            Page oldPage = old == null ? null : pageMap.get(old);
+            if (old != null && ringOnly.remove(old) && oldPage != null && oldPage.isDirty() == null) {
+                pageMap.remove(old);
+                policy.pageRemoved(old);
+                readAheadUnused.remove(old);
             }
-            success = lm.acquireLock(tid, pid, perm);
         }
-        // Now we have the proper lock
-        if (!pageMap.containsKey(pid)) {
-            if (pageMap.size() == numPages) {
-                evictPage();
+        if (pageMap.size() >= numPages) {
+            evictPage();
+        }
+        pageMap.put(pid, p);
+        policy.pageLoaded(pid);
+        if (ring != null) {
+            policy.pageDemoted(pid);
+            ringOnly.add(pid);
+        }
+    }
+
+    /**
+     * Sets how many pages a sequential scan prefetches at a time.
+     *
+     * @param pages the read-ahead window; 0 turns read-ahead off
+     */
+    public void setReadAheadWindow(int pages) {
+        readAheadWindow = Math.max(0, pages);
+    }
+
+    /** Returns the number of pages a sequential scan prefetches at a time. */
+    public int getReadAheadWindow() {
+        return readAheadWindow;
+    }
+
+    /** Returns the number of page requests served by a page read-ahead had
+     * already brought in. */
+    public long getReadAheadHits() {
+        return readAheadHits.get();
+    }
+
+    /** Returns the number of pages read-ahead had been asked for that were
+     * requested before they arrived, and so were read synchronously. */
+    public long getReadAheadMisses() {
+        return readAheadMisses.get();
+    }
+
+    /** Returns the number of deadlocks found and broken by aborting one of
+     * their transactions. */
+    public long getDeadlocksDetected() {
+        return lm.getDeadlocks();
+    }
+
+    /** Returns the number of transactions aborted by the wound-wait or
+     * wait-die deadlock policy. */
+    public long getDeadlockPreventionAborts() {
+        return lm.getPreventionAborts();
+    }
+
+    /** Returns the number of lock waits that ended with the timeout. */
+    public long getLockTimeouts() {
+        return lm.getTimeouts();
+    }
+
+    /**
+     * Asynchronously reads a run of consecutive pages of a heap file into
+     * the pool with a single read on the read-ahead thread. No locks are
+     * taken: getPage still locks each page when it is requested. Pages that
+     * are already resident are skipped, and none are installed if the file
+     * was written while they were being read, since they may be stale.
+     *
+     * @param file the file to read from
+     * @param first the number of the first page to prefetch
+     * @param count the number of pages to prefetch
+     * @param ring the ring of the scan the pages are for, or null
+     */
+    public void prefetch(final HeapFile file, int first, int count, final BufferRing ring) {
+        // trim pages that are already resident off both ends of the run
+        while (count > 0 && pageMap.containsKey(new HeapPageId(file.getId(), first))) {
+            first++;
+            count--;
+        }
+        while (count > 0 && pageMap.containsKey(new HeapPageId(file.getId(), first + count - 1)))
+            count--;
+        if (count == 0)
+            return;
+        for (int i = first; i < first + count; i++) {
+            PageId pid = new HeapPageId(file.getId(), i);
+            if (!pageMap.containsKey(pid))
+                readAheadPending.add(pid);
+        }
+        final int start = first;
+        final int n = count;
+        readAheadIO.execute(new Runnable() {
+            public void run() {
+                long version = file.getWriteVersion();
+                List<Page> pages;
+                try {
+                    pages = file.readPages(start, n);
+                } catch (IOException e) {
+                    pages = Collections.emptyList();
+                }
+                installPrefetched(file, version, start, n, pages, ring);
+            }
+        });
+    }
+
+    /**
+     * Installs the pages read by a prefetch, unless the scan has read them
+     * itself in the meantime or the file has been written since.
+     */
+    private synchronized void installPrefetched(HeapFile file, long version, int first, int count,
+                                                List<Page> pages, BufferRing ring) {
+        boolean current = file.getWriteVersion() == version;
+        for (int i = 0; i < count; i++) {
+            PageId pid = new HeapPageId(file.getId(), first + i);
+            if (!readAheadPending.remove(pid) || !current || i >= pages.size() || pageMap.containsKey(pid))
+                continue;
+            try {
+                readAheadUnused.add(pid);
+                installPage(pages.get(i), ring);
+            } catch (DbException e) {
+                // no clean page to evict; the scan will read the page itself
+                readAheadUnused.remove(pid);
             }
-            pageMap.put(pid, Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid));
-            pageMap.get(pid).setBeforeImage();
         }
+    }
 
-        if (perm==Permissions.READ_WRITE)
-            pageMap.get(pid).markDirty(true, tid);
-        return pageMap.get(pid);
+    /**
+     * Installs a page modified by an insert or delete, evicting a page first
+     * if it is not resident and the pool is full.
+     */
+    private synchronized void cachePage(Page p) throws DbException {
+        PageId pid = p.getId();
+        if (pageMap.containsKey(pid)) {
+            pageMap.put(pid, p);
+            policy.pageAccessed(pid);
+            ringOnly.remove(pid);
+        } else {
+            if (pageMap.size() >= numPages) evictPage();
+            pageMap.put(pid, p);
+            policy.pageLoaded(pid);
+        }
     }
 
     /**
@@ -135,7 +631,15 @@ public class BufferPool {
 
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
-        return lm.holdsLock(tid, p);
+        return lm.holdsLock(tid, p) || covered(tid, p, LockManager.Mode.S);
+    }
+
+    /**
+     * Returns true if the specified transaction holds a lock on the specified
+     * record, or on its page or table in a mode that covers it.
+     */
+    public boolean holdsLock(TransactionId tid, RecordId rid) {
+        return lm.holdsLock(tid, rid) || covered(tid, rid, LockManager.Mode.S);
     }
 
     /**
@@ -148,13 +652,22 @@ public class BufferPool {
     public synchronized void transactionComplete(TransactionId tid, boolean commit)
             throws IOException {
         //System.out.println("TransactionComplete: Tid = " + tid.toString() + ", commit =" + commit);
+        completeRowWrites(tid, commit);
         try {
             for (PageId pid : pageMap.keySet()) {
                 if (pageMap.get(pid).isDirty() != null && pageMap.get(pid).isDirty().equals(tid)) {
                     if (commit) {
                         flushPage(pid);
                     } else {
-                        pageMap.put(pid, pageMap.get(pid).getBeforeImage());
+                        Page before = pageMap.get(pid).getBeforeImage();
+                        if (before != null) {
+                            pageMap.put(pid, before);
+                        } else {
+                            // NO STEAL: the copy on disk is still the
+                            // before image
+                            discardPage(pid);
+                        }
+                        rolledBack(pid, before);
                     }
                 }
             }
@@ -162,9 +675,174 @@ public class BufferPool {
             e.printStackTrace();
             System.exit(0);
         }
+        Set<PageId> flushed = rowsFlushed.remove(tid);
+        if (flushed != null && !commit) {
+            // put back the committed records of the pages whose changes by
+            // tid were flushed
+            for (PageId pid : flushed) {
+                Page p = pageMap.get(pid);
+                Page committed = p != null && p.isDirty() != null ? p.getBeforeImage() : p;
+                if (committed != null)
+                    Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(committed);
+            }
+        }
+        List<Page> undo = writtenThrough.remove(tid);
+        if (undo != null && !commit) {
+            // these pages were written before commit, so put back what
+            // was on disk before them
+            for (Page before : undo) {
+                discardPage(before.getId());
+                Database.getCatalog().getDatabaseFile(before.getId().getTableId()).writePage(before);
+            }
+        }
+        stampWritten();
         lm.releaseAllLocks(tid);
     }
 
+    /**
+     * Commits or rolls back the records tid changed on pages that other
+     * transactions are changing too, by copying its slots into the page's
+     * before image or back from it. The page stays dirty on behalf of one of
+     * the others. Pages tid was the last to change are marked dirty by tid,
+     * to be written or rolled back whole.
+     */
+    private synchronized void completeRowWrites(TransactionId tid, boolean commit) throws IOException {
+        Iterator<Map.Entry<PageId, Map<TransactionId, Set<Integer>>>> it = rowWrites.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<PageId, Map<TransactionId, Set<Integer>>> e = it.next();
+            Set<Integer> slots = e.getValue().remove(tid);
+            if (slots == null)
+                continue;
+            HeapPage p = (HeapPage) pageMap.get(e.getKey());
+            if (e.getValue().isEmpty())
+                it.remove();
+            if (p == null)
+                continue;
+            synchronized (p) {
+                if (e.getValue().isEmpty()) {
+                    p.markDirty(true, tid);
+                    continue;
+                }
+                if (commit) {
+                    p.setBeforeImage(writeRows(p, slots).getPageData());
+                } else {
+                    HeapPage before = p.getBeforeImage();
+                    for (int slot : slots)
+                        p.copySlot(before, slot);
+                    rolledBack(p.getId(), p);
+                }
+                p.markDirty(true, e.getValue().keySet().iterator().next());
+            }
+        }
+    }
+
+    /**
+     * Records that a page of a HeapFile has been written. The stamps of the
+     * maps kept next to the file (see {@link FileStamp}) are brought up to
+     * date once at the end of the batch of writes, e.g. when a transaction
+     * completes, rather than after every page.
+     */
+    void fileWritten(HeapFile f) {
+        unstamped.add(f);
+    }
+
+    /** Stamps the maps kept next to each file written since the last call. */
+    private void stampWritten() {
+        Iterator<HeapFile> it = unstamped.iterator();
+        while (it.hasNext()) {
+            HeapFile f = it.next();
+            // a write made while f is being stamped adds it again
+            it.remove();
+            f.stampSidecars();
+        }
+    }
+
+    /**
+     * Writes a page changed a record at a time as it is with just the given
+     * slots changed, i.e. the page's before image with those slots copied
+     * from the page. The page must be locked by its monitor.
+     *
+     * @return the page as written
+     */
+    private HeapPage writeRows(HeapPage p, Set<Integer> slots) throws IOException {
+        HeapPage image = p.getBeforeImage();
+        for (int slot : slots)
+            image.copySlot(p, slot);
+        HeapFile f = (HeapFile) Database.getCatalog().getDatabaseFile(p.getId().getTableId());
+        f.writePage(image);
+        // the map must cover the others' changes too
+        f.getZoneMap().cover(p);
+        return image;
+    }
+
+    /**
+     * Corrects the free space map of a HeapFile page rolled back by an
+     * abort, whose inserts may have filled it. A page whose rolled back
+     * contents are not at hand is marked as having room, since the map may
+     * err that way but not the other.
+     *
+     * @param restored the page as rolled back, or null
+     */
+    private void rolledBack(PageId pid, Page restored) {
+        DbFile f = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        if (f instanceof HeapFile) {
+            boolean hasRoom = !(restored instanceof HeapPage) || ((HeapPage) restored).getNumEmptySlots() > 0;
+            ((HeapFile) f).getFreeSpaceMap().update(pid.getPageNumber(), hasRoom);
+        }
+    }
+
+    /**
+     * Writes pages on behalf of transaction tid straight to disk, without
+     * caching them, for loads too big to go through the pool. tid gets a
+     * write lock on each page. Each page is logged with its before image,
+     * and the log is forced before the pages are written; if tid aborts, the
+     * before images are written back.
+     * <p>
+     * The pages must not be readable by any other transaction yet, e.g.
+     * pages being appended to a file, so their locks are granted at once.
+     * Their tables' intention locks may have to be waited for, e.g. behind
+     * a scan holding a whole table; a caller that must not wait while it
+     * holds a monitor of its own takes them first with {@link #lockTable}.
+     *
+     * @param tid the transaction writing the pages
+     * @param pages the pages, each with a before image
+     * @see HeapFile#bulkInsert
+     */
+    public void writeThrough(TransactionId tid, List<Page> pages)
+            throws IOException, TransactionAbortedException {
+        // outside the pool's monitor, as these may wait
+        Set<Integer> tables = new HashSet<Integer>();
+        for (Page p : pages) {
+            if (tables.add(p.getId().getTableId()))
+                lockTable(tid, p.getId().getTableId(), Permissions.READ_WRITE);
+        }
+        writePagesThrough(tid, pages);
+    }
+
+    /** Does the work of {@link #writeThrough} once the tables are locked. */
+    private synchronized void writePagesThrough(TransactionId tid, List<Page> pages)
+            throws IOException, TransactionAbortedException {
+        for (Page p : pages) {
+            if (!lockItem(tid, p.getId(), LockManager.Mode.X, 0))
+                throw new TransactionAbortedException();
+        }
+        LogFile log = Database.getLogFile();
+        for (Page p : pages)
+            log.logWrite(tid, p.getBeforeImage(), p);
+        log.force();
+        List<Page> undo = writtenThrough.get(tid);
+        if (undo == null) {
+            undo = new ArrayList<Page>();
+            writtenThrough.put(tid, undo);
+        }
+        for (Page p : pages) {
+            undo.add(p.getBeforeImage());
+            p.clearBeforeImage();
+            Database.getCatalog().getDatabaseFile(p.getId().getTableId()).writePage(p);
+        }
+        stampWritten();
+    }
+
     /**
      * Add a tuple to the specified table on behalf of transaction tid.  Will
      * acquire a write lock on the page the tuple is added to and any other
@@ -176,6 +854,9 @@ public class BufferPool {
      * been dirtied to the cache (replacing any existing versions of those pages) so
      * that future requests see up-to-date pages.
      *
+     * The tuple is also added to the table's indexes (see
+     * {@link Catalog#addIndex}).
+     *
      * @param tid the transaction adding the tuple
      * @param tableId the table to add the tuple to
      * @param t the tuple to add
@@ -184,15 +865,18 @@ public class BufferPool {
             throws DbException, IOException, TransactionAbortedException {
         //System.out.println("Buffer pool try to insert tuple: Tid is" + tid.toString() + " Insert Tuple is" + ((IntField)(t.getField(0))).getValue());
         DbFile f = Database.getCatalog().getDatabaseFile(tableId);
-        ArrayList<Page> dpList = f.insertTuple(tid, t);
-        // Now let's insert all dirty pages back to BufferPool
+        cacheDirtied(tid, f.insertTuple(tid, t));
+        for (IndexFile index : Database.getCatalog().getIndexes(tableId))
+            cacheDirtied(tid, index.insertTuple(tid, index.entry(t)));
+        //System.out.println("Buffer pool succeeds to insert tuple: Tid is" + tid.toString() + " Insert Tuple is" + ((IntField)(t.getField(0))).getValue());
+    }
+
+    /** Installs the pages dirtied by an insert or delete and marks them dirty. */
+    private void cacheDirtied(TransactionId tid, List<Page> dpList) throws DbException {
         for (Page p : dpList) {
-            PageId pid = p.getId();
-            if (!pageMap.containsKey(pid) && pageMap.size() == numPages) evictPage();
-            pageMap.put(pid, p);
-            pageMap.get(pid).markDirty(true, tid);
+            cachePage(p);
+            p.markDirty(true, tid);
         }
-        //System.out.println("Buffer pool succeeds to insert tuple: Tid is" + tid.toString() + " Insert Tuple is" + ((IntField)(t.getField(0))).getValue());
     }
 
     /**
@@ -205,23 +889,71 @@ public class BufferPool {
      * been dirtied to the cache (replacing any existing versions of those pages) so
      * that future requests see up-to-date pages.
      *
+     * The tuple is also removed from the table's indexes.
+     *
      * @param tid the transaction deleting the tuple.
      * @param t the tuple to delete
      */
     public  void deleteTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         //System.out.println("Buffer pool try to delete tuple: Tid is" + tid.toString() + " Delete Tuple is" + ((IntField)(t.getField(0))).getValue());
-        DbFile f = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
-        ArrayList<Page> dpList = f.deleteTuple(tid, t);
-        for (Page p : dpList) {
-            PageId pid = p.getId();
-            if (!pageMap.containsKey(pid) && pageMap.size() == numPages) evictPage();
-            pageMap.put(pid, p);
-            pageMap.get(pid).markDirty(true, tid);
+        int tableId = t.getRecordId().getPageId().getTableId();
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        List<IndexFile> indexes = Database.getCatalog().getIndexes(tableId);
+        List<Tuple> entries = new ArrayList<Tuple>();
+        if (!indexes.isEmpty()) {
+            // t may lack the indexed fields (see SeqScan#setProjection), so
+            // read them from the page
+            Tuple stored = ((HeapFile) f).readTuple(tid, t.getRecordId(), Permissions.READ_WRITE);
+            if (stored == null)
+                throw new DbException("Tuple slot is already empty");
+            for (IndexFile index : indexes)
+                entries.add(index.entry(stored));
         }
+        cacheDirtied(tid, f.deleteTuple(tid, t));
+        for (int i = 0; i < indexes.size(); i++)
+            cacheDirtied(tid, indexes.get(i).deleteTuple(tid, entries.get(i)));
         //System.out.println("Buffer pool succeeds to delete tuple: Tid is" + tid.toString() + " Delete Tuple is" + ((IntField)(t.getField(0))).getValue());
     }
 
+    /**
+     * Moves a tuple of a HeapFile to an empty slot of another page of the
+     * file on behalf of transaction tid, e.g. to compact the file (see
+     * {@link HeapFile#vacuum}). Will acquire a write lock on both pages and
+     * on any other pages that are updated. May block if the lock(s) cannot
+     * be acquired.
+     *
+     * The tuple's entries in the table's indexes are moved to match.
+     *
+     * @param tid the transaction moving the tuple
+     * @param t the tuple to move; it is given the RecordId of its new slot
+     * @param to the page to move it to
+     */
+    public void moveTuple(TransactionId tid, Tuple t, HeapPageId to)
+            throws DbException, IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        HeapFile f = (HeapFile) Database.getCatalog().getDatabaseFile(rid.getPageId().getTableId());
+        List<IndexFile> indexes = Database.getCatalog().getIndexes(f.getId());
+        List<Tuple> entries = new ArrayList<Tuple>();
+        if (!indexes.isEmpty()) {
+            Tuple stored = ((HeapPage) getPage(tid, rid.getPageId(), Permissions.READ_WRITE))
+                    .getTuple(rid.getTupleNumber());
+            if (stored == null)
+                throw new DbException("Tuple slot is already empty");
+            for (IndexFile index : indexes)
+                entries.add(index.entry(stored));
+        }
+        cacheDirtied(tid, f.moveTuple(tid, t, to));
+        if (!indexes.isEmpty()) {
+            Tuple moved = ((HeapPage) getPage(tid, to, Permissions.READ_WRITE))
+                    .getTuple(t.getRecordId().getTupleNumber());
+            for (int i = 0; i < indexes.size(); i++) {
+                cacheDirtied(tid, indexes.get(i).deleteTuple(tid, entries.get(i)));
+                cacheDirtied(tid, indexes.get(i).insertTuple(tid, indexes.get(i).entry(moved)));
+            }
+        }
+    }
+
     /**
      * Flush all dirty pages to disk.
      * NB: Be careful using this routine -- it writes dirty data to disk so will
@@ -231,6 +963,7 @@ public class BufferPool {
         for (PageId pid : pageMap.keySet()) {
             flushPage(pid);
         }
+        stampWritten();
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -242,7 +975,10 @@ public class BufferPool {
      are removed from the cache so they can be reused safely
      */
     public synchronized void discardPage(PageId pid) {
-        pageMap.remove(pid);
+        if (pageMap.remove(pid) != null)
+            policy.pageRemoved(pid);
+        readAheadUnused.remove(pid);
+        ringOnly.remove(pid);
     }
 
     /**
@@ -254,19 +990,43 @@ public class BufferPool {
         if (p != null && p.isDirty() != null) {
             Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(p);
             p.markDirty(false, null);
-            p.setBeforeImage();
+            p.clearBeforeImage();
         }
     }
 
     /** Write all pages of the specified transaction to disk.
+     * <p>
+     * Of the pages tid changed a record at a time, just tid's records are
+     * written, and what is needed to commit or roll them back is kept until
+     * tid completes.
      */
     public synchronized  void flushPages(TransactionId tid) throws IOException {
+        Set<PageId> rowPages = new HashSet<PageId>();
+        for (Map.Entry<PageId, Map<TransactionId, Set<Integer>>> e : rowWrites.entrySet()) {
+            Set<Integer> slots = e.getValue().get(tid);
+            HeapPage p = (HeapPage) pageMap.get(e.getKey());
+            if (slots == null || p == null)
+                continue;
+            synchronized (p) {
+                writeRows(p, slots);
+            }
+            rowPages.add(e.getKey());
+        }
+        if (!rowPages.isEmpty()) {
+            Set<PageId> flushed = rowsFlushed.get(tid);
+            if (flushed == null) {
+                flushed = new HashSet<PageId>();
+                rowsFlushed.put(tid, flushed);
+            }
+            flushed.addAll(rowPages);
+        }
         for (PageId pid : pageMap.keySet()) {
             Page p = pageMap.get(pid);
-            if (p.isDirty() != null && p.isDirty().equals(tid)) {
+            if (p.isDirty() != null && p.isDirty().equals(tid) && !rowPages.contains(pid)) {
                 flushPage(pid);
             }
         }
+        stampWritten();
     }
 
     /**
@@ -274,14 +1034,8 @@ public class BufferPool {
      * Flushes the page to disk to ensure dirty pages are updated on disk.
      */
     private synchronized  void evictPage() throws DbException {
-        ArrayList<PageId> cleanPages = new ArrayList<PageId>();
-        for (PageId pid : pageMap.keySet()) {
-            if (pageMap.get(pid).isDirty() == null) {
-                cleanPages.add(pid);
-            }
-        }
-        if (cleanPages.size() == 0) throw new DbException("No clean pages to evict!");
-        PageId vic = cleanPages.get((int) Math.floor(Math.random() * cleanPages.size()));
+        PageId vic = policy.chooseVictim(pageMap);
+        if (vic == null) throw new DbException("No clean pages to evict!");
         try {
             assert pageMap.get(vic).isDirty() == null : "Evict a dirty page!";
             flushPage(vic);
@@ -289,283 +1043,7 @@ public class BufferPool {
             e.printStackTrace();
         }
         pageMap.remove(vic);
+        readAheadUnused.remove(vic);
+        ringOnly.remove(vic);
     }
-
-
-
-
-
-
-    private class LockManager {
-        private HashMap<PageId, Set<TransactionId>> sharers;
-        private HashMap<PageId, TransactionId> owners;
-        private HashMap<TransactionId, Set<PageId>> sharedPages;
-        private HashMap<TransactionId, Set<PageId>> ownedPages;
-
-        private HashMap<PageId, Set<TransactionId>> waiters;
-        private HashMap<TransactionId, PageId> waitedPages;
-
-        private HashMap<TransactionId, Set<TransactionId>> waitingTx;
-
-        public LockManager() {
-            sharers = new HashMap<PageId, Set<TransactionId>>();
-            owners = new HashMap<PageId, TransactionId>();
-            sharedPages = new HashMap<TransactionId, Set<PageId>>();
-            ownedPages = new HashMap<TransactionId, Set<PageId>>();
-            waiters = new HashMap<PageId, Set<TransactionId>>();
-            waitedPages = new HashMap<TransactionId, PageId>();
-
-            waitingTx = new HashMap<TransactionId, Set<TransactionId>>();
-        }
-        public synchronized boolean acquireLock(TransactionId tid, PageId pid, Permissions perm)
-                throws TransactionAbortedException {
-            checkConsistency();
-            //System.out.println("************************************************************************************************************************Want: Tid = " + tid.toString() + ", Pid = " + pid.toString() + ", Perm = " + perm.toString());
-            boolean success = false;
-            if (perm.equals(Permissions.READ_WRITE)) {
-                success = acquireExclusiveLock(tid, pid);
-            } else if (perm.equals(Permissions.READ_ONLY)) {
-                success = acquireSharedLock(tid, pid);
-            } else {
-                assert false : "What?!";
-            }
-            if (success) {
-
-                //System.out.println("Success: Tid = " + tid.toString() + ", Pid = " + pid.toString() + ", Perm = " + perm.toString());
-                //removeWaiter(tid, pid);
-                waitingTx.remove(tid);
-                return true;
-            } else {
-                if (waitingTx.get(tid) == null ) waitingTx.put(tid, new HashSet<TransactionId>());
-                if (perm.equals(Permissions.READ_WRITE)){
-                    // add edges for every Tx that has a read lock on this page
-                    Set<TransactionId> sharer = sharers.get(pid);
-                    if (sharer != null) {
-                        for( TransactionId t: sharer){
-                            waitingTx.get(tid).add(t);
-                            //dep.add(new Dep(tid, t, pid, perm));
-                        }
-                    }
-                    TransactionId owner = owners.get(pid);
-                    if (owner != null){
-                        waitingTx.get(tid).add(owner);
-                        //dep.add(new Dep(tid, owner, pid, perm));
-                    }
-                } else if (perm.equals(Permissions.READ_ONLY)){
-                    TransactionId owner = owners.get(pid);
-                    if (owner != null){
-                        waitingTx.get(tid).add(owner);
-                        //dep.add(new Dep(tid, owner, pid, perm));
-                    }
-                }
-                //addWaiter(tid, pid);
-                visited = new HashSet<>();
-                if (DETECT_DEADLOCK && detectDeadlock(tid,tid)) {
-                    if (BufferPool.DEBUG_ON){
-                        System.out.println("Tx "+tid.getId() +" Deadlock Detected while trying to "+ pid.getPageNumber() +" "+perm);
-                        PrintDeadlockTree();
-                    }
-                    waitingTx.remove(tid);
-                    // There is a deadlock
-                    //removeWaiter(tid, pid);
-
-                    throw new TransactionAbortedException();
-                }
-                return false;
-            }
-        }
-        HashSet<TransactionId> visited;
-        private boolean detectDeadlock(TransactionId start, TransactionId cur) {
-            // Maleen
-            // This scheme is not perfect. Can give false positives.
-            // Problem is we do not release an edge when a lock is released.
-            // Difficult to do so without keeping track of what the dependency is for
-            // For now I do not have time to implement the whole thing
-            if (visited.contains(cur)){
-                if (start == cur) return true;
-            } else {
-                visited.add(cur);
-                boolean ret = false;
-                Set<TransactionId> s =waitingTx.get(cur);
-                if (s==null) return ret;
-                for (TransactionId t: s){
-                    ret |= detectDeadlock(start, t);
-                    if (ret) return true;
-                }
-                return ret;
-            }
-
-
-            return false;
-        }
-
-        private void PrintDeadlockTree(){
-
-            for (TransactionId s : waitingTx.keySet()){
-                String st = " "+s.getId()+" : " + Arrays.toString(waitingTx.get(s).toArray()) ;
-                System.out.println(st);
-                for (TransactionId t : waitingTx.get(s)){
-                    //st += t.getId() +", ";
-                }
-                //System.out.println(st);
-            }
-        }
-
-        private void checkConsistency() {
-            for (PageId pid : sharers.keySet()) {
-                assert !owners.keySet().contains(pid) : "Page in sharers is also in owners.";
-                assert sharers.get(pid).size() > 0 : "sharer is actually empty.";
-                for (TransactionId tid : sharers.get(pid)) {
-                    assert sharedPages.get(tid).contains(pid) : "Pair in sharers does not exist in sharedPages.";
-                }
-            }
-            for (PageId pid : owners.keySet()) {
-                assert !sharers.keySet().contains(pid) : "Page in owners is also in sharers.";
-                TransactionId tid = owners.get(pid);
-                assert owners.get(pid) != null : "owner is actually empty.";
-                assert ownedPages.get(tid).contains(pid) : "Pair in owners does not exist in ownedPages.";
-            }
-            for (TransactionId tid : sharedPages.keySet()) {
-                assert sharedPages.get(tid).size() > 0 : "SharedPages is actually empty.";
-                for (PageId pid : sharedPages.get(tid)) {
-                    assert sharers.get(pid).contains(tid) : "Pair in sharedPages does not exist in sharers.";
-                }
-            }
-            for (TransactionId tid : ownedPages.keySet()) {
-                assert ownedPages.get(tid).size() > 0 : "OwnedPages is actually empty.";
-                for (PageId pid : ownedPages.get(tid)) {
-                    assert owners.get(pid).equals(tid) : "Pair in ownedPages does not exist in owners.";
-                }
-            }
-        }
-        public synchronized boolean holdsLock(TransactionId tid, PageId pid) {
-            checkConsistency();
-            TransactionId owner = owners.get(pid);
-            if (owner != null && owner.equals(tid)) return true;
-            Set<TransactionId> sharer = sharers.get(pid);
-            if (sharer != null && sharer.contains(tid)) return true;
-            return false;
-        }
-        private void addWaiter(TransactionId tid, PageId pid) {
-
-
-
-            Set<TransactionId> waiter = waiters.get(pid);
-            if (waiter == null) waiter = new HashSet<TransactionId>();
-            waiter.add(tid);
-            waiters.put(pid, waiter);
-            assert waitedPages.get(tid) == null || waitedPages.get(tid).equals(pid) : "This transaction is waiting for another page!";
-            waitedPages.put(tid, pid);
-        }
-        private void removeWaiter(TransactionId tid, PageId pid) {
-            Set<TransactionId> waiter = waiters.get(pid);
-            if (waiter==null) return ;
-            waiter.remove(tid);
-            if (waiter.size() == 0) waiters.remove(pid);
-            else waiters.put(pid, waiter);
-            waitedPages.remove(tid);
-        }
-        private void addSharer(TransactionId tid, PageId pid) {
-            Set<TransactionId> sharer = sharers.get(pid);
-            if (sharer == null) sharer = new HashSet<TransactionId>();
-            sharer.add(tid);
-            sharers.put(pid, sharer);
-            Set<PageId> sharedPage = sharedPages.get(tid);
-            if (sharedPage == null) sharedPage = new HashSet<PageId>();
-            sharedPage.add(pid);
-            sharedPages.put(tid, sharedPage);
-        }
-        private void addOwner(TransactionId tid, PageId pid) {
-            owners.put(pid, tid);
-            Set<PageId> ownedPage = ownedPages.get(tid);
-            if (ownedPage == null) ownedPage = new HashSet<PageId>();
-            ownedPage.add(pid);
-            ownedPages.put(tid, ownedPage);
-        }
-        private void removeSharer(TransactionId tid, PageId pid) {
-            Set<TransactionId> sharer = sharers.get(pid);
-            sharer.remove(tid);
-            if (sharer.size() == 0) sharers.remove(pid);
-            else sharers.put(pid, sharer);
-            Set<PageId> sharedPage = sharedPages.get(tid);
-            sharedPage.remove(pid);
-            if (sharedPage.size() == 0) sharedPages.remove(tid);
-            else sharedPages.put(tid, sharedPage);
-        }
-        private void removeOwner(TransactionId tid, PageId pid) {
-            owners.remove(pid);
-            Set<PageId> ownedPage = ownedPages.get(tid);
-            ownedPage.remove(pid);
-            if (ownedPage.size() == 0) ownedPages.remove(tid);
-            else ownedPages.put(tid, ownedPage);
-        }
-        private boolean acquireExclusiveLock(TransactionId tid, PageId pid) {
-            checkConsistency();
-            Set<TransactionId> sharer = sharers.get(pid);
-            TransactionId owner = owners.get(pid);
-            assert owner == null || sharer == null : "owner and sharer are not null at the same time!";
-            // There is an existing owner other than itself
-            if (owner != null && !owner.equals(tid)) return false;
-            // There is an existing sharer other than itself
-            if (sharer != null && ( (sharer.size() > 1) || (sharer.size() == 1 && !sharer.contains(tid)) )) return false;
-            if (sharer != null) {
-                // It holds the shared permission already
-                assert (sharer.size() == 1 && sharer.contains(tid)) : "Consistency issue.";
-                removeSharer(tid, pid);
-            }
-            addOwner(tid, pid);
-            checkConsistency();
-            if (BufferPool.DEBUG_ON) System.out.println("Tx "+ tid.getId() + " Xlock Acq "+ pid);
-            return true;
-        }
-        private boolean acquireSharedLock(TransactionId tid, PageId pid) {
-            checkConsistency();
-            Set<TransactionId> sharer = sharers.get(pid);
-            TransactionId owner = owners.get(pid);
-            if (BufferPool.DEBUG_ON) System.out.println("Tx "+ tid.getId() + " Slock Acq "+ pid);
-            assert owner == null || sharer == null : "owner and sharer are not null at the same time!";
-            if (owner != null && !owner.equals(tid)) {
-                // There is an existing owner other than itself
-                return false;
-            } else {
-                // (owner != null) means it holds the exclusive permission, thus does nothing
-                if (owner == null) addSharer(tid, pid);
-                checkConsistency();
-                return true;
-            }
-        }
-        public synchronized void releaseLock(TransactionId tid, PageId pid) {
-            checkConsistency();
-            //System.out.println("ReleaseLocks: Tid = " + tid.toString() + ", Pid = " + pid.toString());
-            Set<PageId> sharedPage = sharedPages.get(tid);
-            if (sharedPage != null && sharedPage.contains(pid)) {
-                removeSharer(tid, pid);
-            }
-            Set<PageId> ownedPage = ownedPages.get(tid);
-            if (ownedPage != null && ownedPage.contains(pid)) {
-                removeOwner(tid, pid);
-            }
-            if (BufferPool.DEBUG_ON) System.out.println("Tx "+ tid.getId() + " Xlock Rel "+ pid);
-        }
-        public synchronized void releaseAllLocks(TransactionId tid) {
-            checkConsistency();
-            //System.out.println("ReleaseAllLocks: Tid = " + tid.toString());
-            if (sharedPages.get(tid) != null) {
-                for (PageId pid : sharedPages.get(tid)) {
-                    Set<TransactionId> sharer = sharers.get(pid);
-                    sharer.remove(tid);
-                    if (sharer.size() == 0) sharers.remove(pid);
-                    else sharers.put(pid, sharer);
-                }
-                sharedPages.remove(tid);
-            }
-            if (ownedPages.get(tid) != null) {
-                for (PageId pid : ownedPages.get(tid)) {
-                    owners.remove(pid);
-                }
-                ownedPages.remove(tid);
-            }
-            waitingTx.remove(tid);
-        }
-    }
-}
\ No newline at end of file
+}
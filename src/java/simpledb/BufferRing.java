@@ -0,0 +1,50 @@
+package simpledb;
+
+/**
+ * BufferRing is the small, private set of buffer pool frames used by a
+ * sequential scan of a table that is too large to cache. Pages the scan
+ * brings into the pool are recorded in the ring; once the ring is full, each
+ * new page the scan reads takes over the frame of the oldest page in the
+ * ring instead of evicting a page some other transaction is using. A large
+ * scan therefore displaces at most {@link #size} pages of the pool.
+ *
+ * @see BufferPool#newScanRing
+ * @see HeapFileIterator
+ */
+public class BufferRing {
+
+    /** Largest number of frames a ring will claim. */
+    public static final int MAX_SIZE = 16;
+
+    private final PageId[] frames;
+    private int next;
+
+    /**
+     * Creates an empty ring.
+     *
+     * @param size the number of frames in the ring
+     */
+    public BufferRing(int size) {
+        frames = new PageId[Math.max(1, size)];
+        next = 0;
+    }
+
+    /** @return the number of frames in this ring */
+    public int size() {
+        return frames.length;
+    }
+
+    /**
+     * Records that the scan brought pid into the pool.
+     *
+     * @param pid the page just read by the scan
+     * @return the page whose frame pid replaces in the ring, or null if the
+     *         ring was not yet full
+     */
+    public synchronized PageId add(PageId pid) {
+        PageId old = frames[next];
+        frames[next] = pid;
+        next = (next + 1) % frames.length;
+        return old;
+    }
+}
@@ -32,12 +32,15 @@ public class Catalog {
 
     }
     public ConcurrentHashMap<String,Table> tables;
+    // indexes by their own id
+    private final ConcurrentHashMap<Integer,IndexFile> indexes;
     /**
      * Constructor.
      * Creates a new, empty catalog.
      */
     public Catalog() {
         tables = new ConcurrentHashMap<String,Table>();
+        indexes = new ConcurrentHashMap<Integer,IndexFile>();
     }
 
     /**
@@ -89,6 +92,43 @@ public class Catalog {
         addTable(file, (UUID.randomUUID()).toString());
     }
 
+    /**
+     * Add an index on a table that is already in the catalog. From then on,
+     * the BufferPool keeps the index up to date as tuples are inserted into
+     * and deleted from the table, and its pages can be read through the
+     * BufferPool like those of a table.
+     * @param index the index to add; it must already hold entries for all
+     *    tuples of its table (see {@link IndexFile#build})
+     */
+    public void addIndex(IndexFile index) {
+        indexes.put(index.getId(), index);
+    }
+
+    /**
+     * Returns the indexes on the specified table, which may be none.
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     */
+    public List<IndexFile> getIndexes(int tableid) {
+        List<IndexFile> result = new ArrayList<IndexFile>();
+        for (IndexFile index : indexes.values())
+            if (index.getTableId() == tableid)
+                result.add(index);
+        return result;
+    }
+
+    /**
+     * Returns an index on one field of the specified table, or null if the
+     * field is not indexed.
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     * @param field the index of the field in the table's tuples
+     */
+    public IndexFile getIndex(int tableid, int field) {
+        for (IndexFile index : indexes.values())
+            if (index.getTableId() == tableid && index.getKeyField() == field)
+                return index;
+        return null;
+    }
+
     /**
      * Return the id of the table with a specified name,
      * @throws NoSuchElementException if the table doesn't exist
@@ -114,6 +154,9 @@ public class Catalog {
                 return tables.get(tname).file.getTupleDesc();
             }
         }
+        IndexFile index = indexes.get(tableid);
+        if (index != null)
+            return index.getTupleDesc();
         throw new NoSuchElementException();
     }
 
@@ -129,6 +172,9 @@ public class Catalog {
                 return tables.get(tname).file;
             }
         }
+        IndexFile index = indexes.get(tableid);
+        if (index != null)
+            return index;
         throw new NoSuchElementException();
     }
 
@@ -161,10 +207,32 @@ public class Catalog {
     /** Delete all tables from the catalog */
     public void clear() {
         tables.clear();
+        indexes.clear();
     }
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line describes one table, e.g. <tt>name (f1 int pk, f2 string)</tt>,
+     * optionally followed by <tt>mapped</tt> to load the table as a read-only
+     * {@link MappedHeapFile}, by <tt>slotted</tt> to load it as a
+     * {@link SlottedHeapFile}, which stores strings in variable-length form,
+     * by <tt>compressed</tt> to load it as a {@link CompressedHeapFile}, or
+     * by <tt>pax</tt> to load it as a column-wise {@link PaxHeapFile}.
+     * <p>
+     * A field annotated with <tt>index</tt>, e.g. <tt>f1 int pk index</tt>,
+     * gets a {@link BTreeFile} index kept in <tt>name.field.btree</tt>, and
+     * one annotated with <tt>hash</tt> gets a {@link HashFile} index, for
+     * equality lookups only, kept in <tt>name.field.hash</tt>. Either
+     * annotation may list other fields of the table whose values the index
+     * entries also hold, so that queries reading only those fields and the
+     * key need not read the table, e.g. <tt>f1 int index:f2:f3</tt>, which
+     * is kept in <tt>name.f1.f2.f3.btree</tt>. An index is built from the
+     * table if its file does not exist yet, or is not up to date with the
+     * table's data file (see {@link IndexFile#isCurrent}), e.g. because the
+     * table was generated again.
+     * <p>
+     * Fields annotated with <tt>bloom</tt> are covered by the table's
+     * {@link BloomFilter}, kept in <tt>name.dat.bf</tt>.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -182,6 +250,9 @@ public class Catalog {
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
                 String primaryKey = "";
+                ArrayList<String> indexed = new ArrayList<String>();
+                ArrayList<String> hashed = new ArrayList<String>();
+                ArrayList<Integer> bloomed = new ArrayList<Integer>();
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
@@ -193,11 +264,17 @@ public class Catalog {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
+                    for (int i = 2; i < els2.length; i++) {
+                        if (els2[i].trim().equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (els2[i].trim().matches("index(:\\w+)*"))
+                            indexed.add(els2[0].trim() + els2[i].trim().substring("index".length()));
+                        else if (els2[i].trim().matches("hash(:\\w+)*"))
+                            hashed.add(els2[0].trim() + els2[i].trim().substring("hash".length()));
+                        else if (els2[i].trim().equals("bloom"))
+                            bloomed.add(names.size() - 1);
                         else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                            System.out.println("Unknown annotation " + els2[i]);
                             System.exit(0);
                         }
                     }
@@ -205,9 +282,50 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                // table options follow the schema
+                String option = line.substring(line.indexOf(")") + 1).trim().toLowerCase();
+                File dataFile = new File(baseFolder+"/"+name + ".dat");
+                HeapFile tabHf;
+                if (option.equals(""))
+                    tabHf = new HeapFile(dataFile, t);
+                else if (option.equals("mapped"))
+                    tabHf = new MappedHeapFile(dataFile, t);
+                else if (option.equals("slotted"))
+                    tabHf = new SlottedHeapFile(dataFile, t);
+                else if (option.equals("compressed"))
+                    tabHf = new CompressedHeapFile(dataFile, t);
+                else if (option.equals("pax"))
+                    tabHf = new PaxHeapFile(dataFile, t);
+                else {
+                    System.out.println("Unknown table option " + option);
+                    System.exit(0);
+                    return;
+                }
+                if (!bloomed.isEmpty()) {
+                    int[] bloomFields = new int[bloomed.size()];
+                    for (int i = 0; i < bloomFields.length; i++)
+                        bloomFields[i] = bloomed.get(i);
+                    tabHf.setBloomFilter(bloomFields);
+                }
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
+                // each index is named by its key field, then its included fields
+                for (String fieldList : indexed) {
+                    String[] f = fieldList.split(":");
+                    File indexFile = new File(baseFolder+"/"+name+"."+fieldList.replace(':', '.')+".btree");
+                    IndexFile index = new BTreeFile(indexFile, tabHf, t.fieldNameToIndex(f[0]), includedFields(t, f));
+                    addIndex(index);
+                    if (!index.isCurrent())
+                        buildIndex(index);
+                }
+                for (String fieldList : hashed) {
+                    String[] f = fieldList.split(":");
+                    File indexFile = new File(baseFolder+"/"+name+"."+fieldList.replace(':', '.')+".hash");
+                    IndexFile index = new HashFile(indexFile, tabHf, t.fieldNameToIndex(f[0]), includedFields(t, f));
+                    addIndex(index);
+                    if (!index.isCurrent())
+                        buildIndex(index);
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -217,5 +335,32 @@ public class Catalog {
             System.exit(0);
         }
     }
+
+    /**
+     * Returns the indexes of the fields an index annotation includes: all
+     * the names in fieldList after the first, which is the key.
+     */
+    private static int[] includedFields(TupleDesc td, String[] fieldList) {
+        int[] included = new int[fieldList.length - 1];
+        for (int i = 0; i < included.length; i++)
+            included[i] = td.fieldNameToIndex(fieldList[i + 1]);
+        return included;
+    }
+
+    /**
+     * Fills a new index, or one that is not up to date with its table's data
+     * file, with the entries of its table's tuples.
+     */
+    private void buildIndex(IndexFile index) throws IOException {
+        TransactionId tid = new TransactionId();
+        try {
+            index.build(tid);
+        } catch (DbException | TransactionAbortedException e) {
+            throw new IOException("could not build index " + index.getFile(), e);
+        } finally {
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        index.built();
+    }
 }
 
@@ -0,0 +1,106 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * CLOCK (second chance) replacement. Resident pages sit in a circular array
+ * of frames, each with a reference bit that is set on every access. The clock
+ * hand sweeps the frames, clearing reference bits, and evicts the first clean
+ * page whose bit is already clear. Accesses are O(1); a victim is found after
+ * at most two sweeps.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+
+    private PageId[] frames;
+    private boolean[] referenced;
+    private final HashMap<PageId, Integer> slots;
+    private final ArrayDeque<Integer> freeSlots;
+    private int hand;
+
+    /**
+     * Creates a CLOCK policy for a pool of the given size.
+     *
+     * @param numPages the number of frames in the buffer pool
+     */
+    public ClockPolicy(int numPages) {
+        int n = Math.max(numPages, 1);
+        frames = new PageId[n];
+        referenced = new boolean[n];
+        slots = new HashMap<PageId, Integer>();
+        freeSlots = new ArrayDeque<Integer>();
+        for (int i = 0; i < n; i++)
+            freeSlots.add(i);
+        hand = 0;
+    }
+
+    public synchronized void pageLoaded(PageId pid) {
+        Integer slot = slots.get(pid);
+        if (slot == null) {
+            if (freeSlots.isEmpty())
+                grow();
+            slot = freeSlots.poll();
+            frames[slot] = pid;
+            slots.put(pid, slot);
+        }
+        referenced[slot] = true;
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        Integer slot = slots.get(pid);
+        if (slot != null)
+            referenced[slot] = true;
+    }
+
+    public synchronized void pageDemoted(PageId pid) {
+        Integer slot = slots.get(pid);
+        if (slot != null)
+            referenced[slot] = false;
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        Integer slot = slots.remove(pid);
+        if (slot != null)
+            release(slot);
+    }
+
+    public synchronized PageId chooseVictim(Map<PageId, Page> frameMap) {
+        // Two full sweeps: the first may only clear reference bits.
+        for (int step = 0; step < 2 * frames.length; step++) {
+            int slot = hand;
+            hand = (hand + 1) % frames.length;
+            PageId pid = frames[slot];
+            if (pid == null)
+                continue;
+            Page p = frameMap.get(pid);
+            if (p != null && p.isDirty() != null)
+                continue;
+            if (referenced[slot]) {
+                referenced[slot] = false;
+                continue;
+            }
+            slots.remove(pid);
+            release(slot);
+            return pid;
+        }
+        return null;
+    }
+
+    private void release(int slot) {
+        frames[slot] = null;
+        referenced[slot] = false;
+        freeSlots.add(slot);
+    }
+
+    /**
+     * The pool may briefly hold more pages than its nominal size (e.g. when
+     * an insert dirties several pages at once), so the clock grows rather
+     * than failing.
+     */
+    private void grow() {
+        int old = frames.length;
+        frames = Arrays.copyOf(frames, old * 2);
+        referenced = Arrays.copyOf(referenced, old * 2);
+        for (int i = old; i < old * 2; i++)
+            freeSlots.add(i);
+    }
+}
@@ -0,0 +1,278 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * CompressedHeapFile is a HeapFile whose pages are compressed on disk. It is
+ * meant for cold tables of repetitive data, such as small ints and padded
+ * strings, which compress to a fraction of their size, so scans read far
+ * fewer bytes. Pages are decompressed when they are read, and are held in
+ * the BufferPool in their usual format.
+ * <p>
+ * As compressed pages vary in size, the data file is a log of compressed
+ * page images: writing a page appends a new image, and an index kept in a
+ * file next to the data file, named after it with ".idx" appended, records
+ * where the current image of each page is. The index holds, for each page,
+ * the offset of its image as 8 bytes followed by its length as 4 bytes.
+ * Space left behind by rewritten pages is reclaimed by rewriting the table
+ * with {@link #compress}.
+ * <p>
+ * A table is loaded as a CompressedHeapFile by adding the option
+ * <tt>compressed</tt> after its schema in the catalog file (see
+ * {@link Catalog#loadSchema}). Existing tables are converted with
+ * <tt>SimpleDb compress</tt>.
+ *
+ * @see HeapFile
+ */
+public class CompressedHeapFile extends HeapFile {
+
+    private static final int INDEX_ENTRY_SIZE = 12;
+
+    private final File indexFile;
+    // guarded by indexLock; not this, as writePage runs under the buffer
+    // pool's lock, and HeapFile calls into the buffer pool under this one
+    private final Object indexLock = new Object();
+    private long[] offsets;
+    private int[] lengths;
+    private int count;
+    private long end;
+
+    /**
+     * Constructs a compressed heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     */
+    public CompressedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+        this.indexFile = indexFile(f);
+        this.offsets = new long[16];
+        this.lengths = new int[16];
+        if (indexFile.exists()) {
+            try {
+                ByteBuffer index = ByteBuffer.wrap(Files.readAllBytes(indexFile.toPath()));
+                while (index.remaining() >= INDEX_ENTRY_SIZE)
+                    setEntry(count, index.getLong(), index.getInt());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        this.end = f.length();
+    }
+
+    /** Returns the index file kept next to a compressed data file. */
+    private static File indexFile(File f) {
+        return new File(f.getPath() + ".idx");
+    }
+
+    /** Records where the image of a page is, growing the index if needed. */
+    private void setEntry(int pageNo, long offset, int length) {
+        if (pageNo >= offsets.length) {
+            offsets = Arrays.copyOf(offsets, Math.max(pageNo + 1, offsets.length * 2));
+            lengths = Arrays.copyOf(lengths, offsets.length);
+        }
+        offsets[pageNo] = offset;
+        lengths[pageNo] = length;
+        count = Math.max(count, pageNo + 1);
+    }
+
+    /**
+     * Returns the number of pages in this HeapFile.
+     */
+    @Override
+    public int numPages() {
+        synchronized (indexLock) {
+            return count;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public Page readPage(PageId pid) {
+        if (this.getId() != pid.getTableId()) return null;
+        if (pid.getPageNumber() < 0 || pid.getPageNumber() >= this.numPages()) return null;
+        try {
+            return newPage(new HeapPageId(pid.getTableId(), pid.getPageNumber()),
+                    readPageData(pid.getPageNumber()));
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    @Override
+    public List<Page> readPages(int first, int count) throws IOException {
+        count = Math.min(count, numPages() - first);
+        List<Page> pages = new ArrayList<Page>();
+        for (int i = 0; first >= 0 && i < count; i++)
+            pages.add(newPage(new HeapPageId(getId(), first + i), readPageData(first + i)));
+        return pages;
+    }
+
+    /** Reads and decompresses the current image of a page. */
+    private byte[] readPageData(int pageNo) throws IOException {
+        long offset;
+        int length;
+        synchronized (indexLock) {
+            offset = offsets[pageNo];
+            length = lengths[pageNo];
+        }
+        byte[] packed = new byte[length];
+        read(packed, offset);
+        return inflate(packed);
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public void writePage(Page page) throws IOException {
+        assert page instanceof HeapPage : "Write non-heap page to a heap file.";
+        int pageNo = page.getId().getPageNumber();
+        byte[] packed = deflate(page.getPageData());
+        pageWriting((HeapPage) page);
+        synchronized (indexLock) {
+            if (pageNo < 0 || pageNo > count)
+                throw new IOException("page " + pageNo + " is past the end of " + getFile());
+            long offset = end;
+            write(packed, offset);
+            end += packed.length;
+            setEntry(pageNo, offset, packed.length);
+            // the index is updated only once the image is on disk
+            ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+            entry.putLong(offset).putInt(packed.length).flip();
+            FileHandleCache handles = Database.getFileHandleCache();
+            FileChannel ch = handles.acquire(indexFile);
+            try {
+                while (entry.hasRemaining())
+                    ch.write(entry, (long) pageNo * INDEX_ENTRY_SIZE + entry.position());
+            } finally {
+                handles.release(indexFile);
+            }
+        }
+        pageWritten((HeapPage) page);
+    }
+
+    /**
+     * Drops the pages past the first ones from the index. The space their
+     * images take up in the data file is reclaimed by {@link #compress}.
+     */
+    @Override
+    protected void truncate(int pages) throws IOException {
+        synchronized (indexLock) {
+            count = Math.min(count, pages);
+            FileHandleCache handles = Database.getFileHandleCache();
+            FileChannel ch = handles.acquire(indexFile);
+            try {
+                ch.truncate((long) count * INDEX_ENTRY_SIZE);
+            } finally {
+                handles.release(indexFile);
+            }
+        }
+    }
+
+    /** Compresses a page image. */
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4);
+            byte[] chunk = new byte[1024];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(chunk);
+                out.write(chunk, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** Decompresses a page image. */
+    private static byte[] inflate(byte[] packed) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(packed);
+            // one spare byte to detect images that are too long
+            byte[] data = new byte[BufferPool.getPageSize() + 1];
+            int n = 0;
+            while (n < data.length && !inflater.finished()) {
+                int got = inflater.inflate(data, n, data.length - n);
+                if (got == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                n += got;
+            }
+            if (n != BufferPool.getPageSize() || !inflater.finished())
+                throw new IOException("corrupt compressed page");
+            return Arrays.copyOf(data, n);
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt compressed page", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Rewrites a table's data file in compressed form, in place. The file may
+     * be an ordinary HeapFile, or a CompressedHeapFile whose unused space is
+     * to be reclaimed. The table must not be in use while it is rewritten.
+     *
+     * @param f the table's data file
+     * @return the size of the rewritten data file, in bytes
+     */
+    public static long compress(File f) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        File index = indexFile(f);
+        File tmp = new File(f.getPath() + ".tmp");
+        File tmpIndex = indexFile(tmp);
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        DataOutputStream entries = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpIndex)));
+        long offset = 0;
+        try {
+            RandomAccessFile in = new RandomAccessFile(f, "r");
+            try {
+                ByteBuffer oldIndex = index.exists() ? ByteBuffer.wrap(Files.readAllBytes(index.toPath())) : null;
+                int pages = oldIndex != null ? oldIndex.remaining() / INDEX_ENTRY_SIZE
+                        : (int) ((in.length() + pageSize - 1) / pageSize);
+                byte[] page = new byte[pageSize];
+                for (int i = 0; i < pages; i++) {
+                    if (oldIndex != null) {
+                        long pos = oldIndex.getLong();
+                        byte[] packed = new byte[oldIndex.getInt()];
+                        in.seek(pos);
+                        in.readFully(packed);
+                        page = inflate(packed);
+                    } else {
+                        // the last page of a plain file may be short
+                        Arrays.fill(page, (byte) 0);
+                        in.seek((long) i * pageSize);
+                        in.readFully(page, 0, (int) Math.min(pageSize, in.length() - (long) i * pageSize));
+                    }
+                    byte[] packed = deflate(page);
+                    data.write(packed);
+                    entries.writeLong(offset);
+                    entries.writeInt(packed.length);
+                    offset += packed.length;
+                }
+            } finally {
+                in.close();
+            }
+        } finally {
+            data.close();
+            entries.close();
+        }
+        Files.move(tmp.toPath(), f.toPath(), java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+        Files.move(tmpIndex.toPath(), index.toPath(), java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+        Database.getFileHandleCache().close(f);
+        Database.getFileHandleCache().close(index);
+        HeapFile.deleteSidecars(f);
+        return offset;
+    }
+}
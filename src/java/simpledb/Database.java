@@ -21,6 +21,10 @@ public class Database {
     private final static String LOGFILENAME = "log";
     private final LogFile _logfile;
 
+    // shared by every instance so that open files survive reset()
+    private final static FileHandleCache _filehandles =
+            new FileHandleCache(FileHandleCache.DEFAULT_MAX_OPEN);
+
     private Database() {
         _catalog = new Catalog();
         _bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
@@ -45,6 +49,11 @@ public class Database {
         return _instance.get()._bufferpool;
     }
 
+    /** Return the cache of open table files */
+    public static FileHandleCache getFileHandleCache() {
+        return _filehandles;
+    }
+
     /** Return the catalog of the static Database instance */
     public static Catalog getCatalog() {
         return _instance.get()._catalog;
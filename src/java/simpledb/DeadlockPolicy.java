@@ -0,0 +1,65 @@
+package simpledb;
+
+/**
+ * DeadlockPolicy is how the BufferPool's lock manager keeps transactions
+ * from waiting for each other forever. Under DETECT and TIMEOUT a
+ * transaction whose lock wait times out is also aborted. The prevention
+ * policies rule out every cycle of waits, so a wait under them has no
+ * deadline: it lasts until its lock is granted or its transaction is
+ * aborted by the policy.
+ * <p>
+ * The prevention policies order transactions by their ids: a transaction
+ * with a lower id started earlier, and is older. They only ever let an older
+ * transaction wait for a younger one, or only the reverse, so no cycle of
+ * waits can form and no waits-for graph is needed.
+ * <p>
+ * The policy is chosen at startup with the system property
+ * simpledb.DeadlockPolicy, e.g. -Dsimpledb.DeadlockPolicy=wound-wait, and
+ * is DETECT if the property is not set.
+ *
+ * @see LockManager
+ */
+public enum DeadlockPolicy {
+    /**
+     * Look for cycles in the waits-for graph in the background, and abort
+     * the youngest transaction of each.
+     */
+    DETECT,
+    /**
+     * A transaction that would wait for younger ones wounds them: each is
+     * aborted when it next asks for a lock, or at once if it is waiting. A
+     * younger transaction waits for older ones.
+     */
+    WOUND_WAIT,
+    /**
+     * A transaction that would wait for an older one dies: it is aborted at
+     * once, rather than wait. An older transaction waits for younger ones.
+     */
+    WAIT_DIE,
+    /** Rely on the lock wait timeout alone. */
+    TIMEOUT;
+
+    /**
+     * Returns true if a lock wait under this policy ends once it has gone on
+     * for the lock timeout, aborting the waiting transaction.
+     */
+    public boolean timesOut() {
+        return this == DETECT || this == TIMEOUT;
+    }
+
+    /**
+     * Returns the policy with the given name, in any case and with '-' or
+     * '_' between words.
+     *
+     * @throws IllegalArgumentException if there is no such policy
+     */
+    public static DeadlockPolicy parse(String name) {
+        return valueOf(name.trim().toUpperCase().replace('-', '_'));
+    }
+
+    /** Returns the policy named by the simpledb.DeadlockPolicy property. */
+    static DeadlockPolicy fromProperty() {
+        String name = System.getProperty("simpledb.DeadlockPolicy");
+        return name == null || name.length() == 0 ? DETECT : parse(name);
+    }
+}
@@ -14,6 +14,15 @@ public interface Field extends Serializable{
      */
     void serialize(DataOutputStream dos) throws IOException;
 
+    /**
+     * Write the bytes representing this field into a buffer, in the same
+     * format as {@link #serialize(DataOutputStream)}, starting at the given
+     * index. The buffer's position is not changed.
+     * @param buf The buffer to write to.
+     * @param offset The index of the first byte to write.
+     */
+    void serialize(java.nio.ByteBuffer buf, int offset);
+
     /**
      * Compare the value of this field object to the passed in value.
      * @param op The operator
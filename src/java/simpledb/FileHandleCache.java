@@ -0,0 +1,158 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * FileHandleCache keeps the files behind DbFiles open between page reads and
+ * writes, so that reading or writing a page costs one positional read or
+ * write instead of an open, a seek, the transfer and a close. Each file has
+ * a single FileChannel shared by all callers; since channel reads and writes
+ * take an explicit position, concurrent readers do not contend for a file
+ * pointer.
+ * <p>
+ * At most {@link #getMaxOpen} channels are kept open. When another file is
+ * needed the least recently used channel that nobody is using is closed.
+ * Channels that are in use are never closed, so the limit may be exceeded
+ * briefly if every cached file is busy.
+ * <p>
+ * Callers bracket each use of a channel with {@link #acquire} and
+ * {@link #release}:
+ * <pre>
+ *     FileChannel ch = cache.acquire(f);
+ *     try {
+ *         ch.read(buf, pos);
+ *     } finally {
+ *         cache.release(f);
+ *     }
+ * </pre>
+ *
+ * @Threadsafe
+ * @see Database#getFileHandleCache
+ */
+public class FileHandleCache {
+
+    /** Default number of files kept open. */
+    public static final int DEFAULT_MAX_OPEN = 64;
+
+    private static class Handle {
+        final RandomAccessFile raf;
+        final FileChannel channel;
+        int users;
+
+        Handle(RandomAccessFile raf) {
+            this.raf = raf;
+            this.channel = raf.getChannel();
+            this.users = 0;
+        }
+    }
+
+    private final int maxOpen;
+    // access ordered, so iteration starts at the least recently used file
+    private final LinkedHashMap<File, Handle> handles;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param maxOpen the number of files to keep open
+     */
+    public FileHandleCache(int maxOpen) {
+        if (maxOpen < 1)
+            throw new IllegalArgumentException("must keep at least one file open");
+        this.maxOpen = maxOpen;
+        this.handles = new LinkedHashMap<File, Handle>(16, 0.75f, true);
+    }
+
+    /** Returns the number of files this cache keeps open. */
+    public int getMaxOpen() {
+        return maxOpen;
+    }
+
+    /** Returns the number of files currently open. */
+    public synchronized int openCount() {
+        return handles.size();
+    }
+
+    /**
+     * Returns the open channel for a file, opening it if necessary. The file
+     * is opened for reading and writing if possible and created if it does
+     * not exist; a file that may only be read is opened read-only. Every call
+     * must be matched by a call to {@link #release}.
+     *
+     * @param f the file to open
+     * @return a channel for f, which the caller must not close
+     * @throws IOException if the file cannot be opened
+     */
+    public synchronized FileChannel acquire(File f) throws IOException {
+        File key = f.getAbsoluteFile();
+        Handle h = handles.get(key);
+        if (h == null) {
+            closeUnused(maxOpen - 1);
+            RandomAccessFile raf;
+            try {
+                raf = new RandomAccessFile(key, "rw");
+            } catch (FileNotFoundException e) {
+                if (!key.exists())
+                    throw e;
+                raf = new RandomAccessFile(key, "r");
+            }
+            h = new Handle(raf);
+            handles.put(key, h);
+        }
+        h.users++;
+        return h.channel;
+    }
+
+    /**
+     * Gives back a channel obtained from {@link #acquire}.
+     *
+     * @param f the file passed to acquire
+     */
+    public synchronized void release(File f) {
+        File key = f.getAbsoluteFile();
+        Handle h = handles.get(key);
+        if (h == null || h.users == 0)
+            throw new IllegalStateException("file " + key + " released more often than acquired");
+        h.users--;
+        if (handles.size() > maxOpen)
+            closeUnused(maxOpen);
+    }
+
+    /**
+     * Closes the channel of a file that is about to be deleted or replaced,
+     * so that later calls open the new file. Does nothing if the file is not
+     * open or is in use.
+     *
+     * @param f the file to close
+     */
+    public synchronized void close(File f) {
+        File key = f.getAbsoluteFile();
+        Handle h = handles.get(key);
+        if (h != null && h.users == 0) {
+            handles.remove(key);
+            closeQuietly(h);
+        }
+    }
+
+    /** Closes unused channels, least recently used first, until at most
+     * limit remain open. */
+    private void closeUnused(int limit) {
+        Iterator<Handle> it = handles.values().iterator();
+        while (handles.size() > limit && it.hasNext()) {
+            Handle h = it.next();
+            if (h.users > 0)
+                continue;
+            it.remove();
+            closeQuietly(h);
+        }
+    }
+
+    private static void closeQuietly(Handle h) {
+        try {
+            h.raf.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
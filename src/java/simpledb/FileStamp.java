@@ -0,0 +1,82 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FileStamp identifies the contents of a table's data file by its length
+ * and the time it was last modified. The files kept next to a data file,
+ * such as its {@link ZoneMap}, begin with the stamp of the data file they
+ * describe, and are not used if it is not that of the data file when they
+ * are opened, e.g. because the table was generated again by
+ * {@link HeapFileEncoder}. They are stamped again at the end of each batch
+ * of page writes (see {@link BufferPool#fileWritten}) and after the file is
+ * truncated. A file written since its maps were last stamped, e.g. by a
+ * process that stopped partway through a batch, has its maps discarded
+ * when it is next opened, which only costs rebuilding them.
+ */
+final class FileStamp {
+
+    /** The number of bytes a stamp takes up at the start of a file. */
+    static final int SIZE = 16;
+
+    private final long length;
+    private final long modified;
+
+    private FileStamp(long length, long modified) {
+        this.length = length;
+        this.modified = modified;
+    }
+
+    /** Returns the stamp of a file as it is now. */
+    static FileStamp of(File f) {
+        long modified;
+        try {
+            modified = Files.getLastModifiedTime(f.toPath()).to(TimeUnit.NANOSECONDS);
+        } catch (IOException e) {
+            // a missing file
+            modified = 0;
+        }
+        return new FileStamp(f.length(), modified);
+    }
+
+    /**
+     * Reads the stamp at the start of a file's contents.
+     *
+     * @return the stamp, or null if the contents are too short to hold one
+     */
+    static FileStamp read(ByteBuffer b) {
+        if (b.remaining() < SIZE)
+            return null;
+        return new FileStamp(b.getLong(), b.getLong());
+    }
+
+    /** Writes this stamp at the start of a file. */
+    void write(FileChannel ch) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(SIZE);
+        b.putLong(length).putLong(modified).flip();
+        while (b.hasRemaining())
+            ch.write(b, b.position());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof FileStamp))
+            return false;
+        FileStamp s = (FileStamp) o;
+        return length == s.length && modified == s.modified;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (length ^ (length >>> 32) ^ modified ^ (modified >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return length + "@" + modified;
+    }
+}
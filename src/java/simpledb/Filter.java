@@ -11,6 +11,9 @@ public class Filter extends Operator {
     private Predicate predicate;
     private OpIterator child;
     private TupleDesc td;
+    // true if the table's Bloom filter shows no tuple can match
+    private transient boolean empty;
+    private transient boolean childOpen;
 
     /**
      * Constructor accepts a predicate to apply and a child operator to read
@@ -35,19 +38,58 @@ public class Filter extends Operator {
         return td;
     }
 
+    /**
+     * Opens the filter. If the predicate is an equality on a field of a
+     * table with a Bloom filter over it, read by a {@link SeqScan} (possibly
+     * under other filters), and the Bloom filter shows that no tuple has the
+     * value, the filter returns no tuples without opening its child.
+     */
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
-        child.open();
+        empty = cannotMatch();
+        if (!empty) {
+            child.open();
+            childOpen = true;
+        }
         super.open();
     }
 
     public void close() {
         super.close();
-        child.close();
+        if (childOpen)
+            child.close();
+        childOpen = false;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        child.rewind();
+        // the transaction may have inserted a matching tuple since
+        empty = cannotMatch();
+        if (childOpen) {
+            child.rewind();
+        } else if (!empty) {
+            child.open();
+            childOpen = true;
+        }
+    }
+
+    /**
+     * Returns true if the Bloom filter of the table this filter reads shows
+     * that no tuple satisfies the predicate.
+     *
+     * @see HeapFile#getBloomFilter
+     */
+    private boolean cannotMatch() {
+        if (predicate.getOp() != Predicate.Op.EQUALS
+                || td.getFieldType(predicate.getField()) != predicate.getOperand().getType())
+            return false;
+        OpIterator leaf = child;
+        while (leaf instanceof Filter)
+            leaf = ((Filter) leaf).child;
+        if (!(leaf instanceof SeqScan))
+            return false;
+        DbFile file = Database.getCatalog().getDatabaseFile(((SeqScan) leaf).tableid);
+        BloomFilter bloom = file instanceof HeapFile ? ((HeapFile) file).getBloomFilter() : null;
+        return bloom != null && !bloom.mightContain(predicate.getField(), predicate.getOperand());
     }
 
     /**
@@ -61,6 +103,8 @@ public class Filter extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
+        if (empty)
+            return null;
         while (child.hasNext()) {
             Tuple t = child.next();
             if (!predicate.filter(t))
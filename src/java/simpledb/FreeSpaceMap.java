@@ -0,0 +1,140 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap remembers which pages of a HeapFile are full, so that an
+ * insert can go straight to a page with room instead of reading every page
+ * of the file to find one. It keeps one bit per page, set when the page was
+ * last seen to be full, and stores the bitmap in a small file next to the
+ * table's data file, so it survives restarts.
+ * <p>
+ * The map is only a hint. A page whose bit is clear may turn out to be full
+ * (e.g. the bitmap is missing or out of date), so callers must check the
+ * page itself; the bit is then corrected. A page whose bit is set may have
+ * had tuples deleted by a transaction that then aborted; such a page is
+ * found again as soon as it is next written. A page filled by inserts that
+ * are rolled back has its bit cleared again by the BufferPool.
+ * <p>
+ * The file begins with the {@link FileStamp} of the data file, followed by
+ * the bitmap. A file whose stamp is not that of the data file, e.g. one
+ * left over from a table that has since been generated again, is
+ * discarded.
+ *
+ * @Threadsafe
+ * @see HeapFile#insertTuple
+ */
+public class FreeSpaceMap {
+
+    private final File file;
+    private final File dataFile;
+    private final BitSet full;
+    // the stamp at the start of the file, or null if the file's bitmap is
+    // not usable and it must be started afresh before it is written
+    private FileStamp stamp;
+
+    /**
+     * Opens the free space map stored in the given file. A missing or
+     * unreadable file, or one stamped for other contents of the data file,
+     * gives an empty map, in which every page may have room.
+     *
+     * @param file the file the bitmap is kept in
+     * @param dataFile the table's data file
+     */
+    public FreeSpaceMap(File file, File dataFile) {
+        this.file = file;
+        this.dataFile = dataFile;
+        BitSet bits = new BitSet();
+        if (file.exists()) {
+            try {
+                ByteBuffer b = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+                FileStamp stored = FileStamp.read(b);
+                if (stored != null && stored.equals(FileStamp.of(dataFile))) {
+                    bits = BitSet.valueOf(b);
+                    stamp = stored;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        this.full = bits;
+    }
+
+    /**
+     * Returns the first page at or after the given one that may have room.
+     *
+     * @param from the page to start looking from
+     * @return the number of the page, which may be past the end of the file
+     */
+    public synchronized int nextFree(int from) {
+        return full.nextClearBit(from);
+    }
+
+    /**
+     * Records whether a page has room for another tuple.
+     *
+     * @param pageNo the page
+     * @param hasRoom true if at least one slot of the page is empty
+     */
+    public synchronized void update(int pageNo, boolean hasRoom) {
+        if (full.get(pageNo) != hasRoom)
+            return;
+        full.set(pageNo, !hasRoom);
+        // write back just the byte holding this page's bit
+        int index = pageNo / 8;
+        byte b = 0;
+        for (int i = 0; i < 8; i++)
+            if (full.get(index * 8 + i))
+                b |= 1 << i;
+        FileHandleCache handles = Database.getFileHandleCache();
+        try {
+            FileChannel ch = handles.acquire(file);
+            try {
+                if (stamp == null) {
+                    // drop the bitmap of a missing or stale file, and
+                    // write back all of this one's
+                    ch.truncate(0);
+                    FileStamp now = FileStamp.of(dataFile);
+                    now.write(ch);
+                    stamp = now;
+                    ByteBuffer all = ByteBuffer.wrap(full.toByteArray());
+                    while (all.hasRemaining())
+                        ch.write(all, FileStamp.SIZE + all.position());
+                } else {
+                    ch.write(ByteBuffer.wrap(new byte[] { b }), FileStamp.SIZE + index);
+                }
+            } finally {
+                handles.release(file);
+            }
+        } catch (IOException e) {
+            // the in-memory map is still right; the file is only a hint
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Called after the data file has been written or truncated: records its
+     * new stamp in the map's file, if the file is in use.
+     */
+    synchronized void stamp(FileStamp now) {
+        if (stamp == null || stamp.equals(now))
+            return;
+        FileHandleCache handles = Database.getFileHandleCache();
+        try {
+            FileChannel ch = handles.acquire(file);
+            try {
+                now.write(ch);
+                stamp = now;
+            } finally {
+                handles.release(file);
+            }
+        } catch (IOException e) {
+            // the file is discarded when the map is next opened
+            e.printStackTrace();
+        }
+    }
+}
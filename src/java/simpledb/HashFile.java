@@ -0,0 +1,354 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashFile is a linear hashing index over one field of a table, for point
+ * lookups (<tt>field = constant</tt>) that read one bucket instead of the
+ * whole table, or the descent of a {@link BTreeFile}. Keys are placed in
+ * buckets by their {@link Field#hashCode}. Its pages are {@link HashPage}s.
+ * <p>
+ * Page 0 is the meta page, which records the first page of each bucket.
+ * A bucket is a chain of pages; when an insert has to add a page to a
+ * chain, the table grows by one bucket: the next bucket in turn is split,
+ * moving the entries that hash to the new bucket there. So the buckets
+ * double in number one at a time, and chains stay short without ever
+ * rehashing the whole index. The number of buckets is limited by what fits
+ * on the meta page, after which chains just grow longer. Deleting an entry
+ * never shrinks the table.
+ * <p>
+ * The meta page is locked for writing only while a bucket is split, so
+ * inserts into different buckets do not conflict, except with a split.
+ * <p>
+ * A field of a table in the catalog file gets a hash index by annotating it
+ * with <tt>hash</tt> (see {@link Catalog#loadSchema}).
+ *
+ * @see HashPage
+ */
+public class HashFile extends IndexFile {
+
+    /** The page number of the meta page. */
+    static final int META = 0;
+    /** The number of buckets of an empty index. */
+    static final int INITIAL_BUCKETS = 4;
+    /** The fraction of the bucket pages that {@link #build} fills. */
+    private static final double BUILD_FILL = 0.75;
+
+    /**
+     * Opens the index on one field of a table kept in the given file. A new
+     * index is empty until it is built (see {@link #build}).
+     *
+     * @param f the file the index is kept in
+     * @param table the indexed table
+     * @param keyField the index of the indexed field in the table's tuples
+     */
+    public HashFile(File f, DbFile table, int keyField) {
+        this(f, table, keyField, new int[0]);
+    }
+
+    /**
+     * Opens the index on one field of a table kept in the given file, whose
+     * entries also hold the values of other fields, so that it covers them
+     * (see {@link IndexFile#covers}).
+     *
+     * @param f the file the index is kept in
+     * @param table the indexed table
+     * @param keyField the index of the indexed field in the table's tuples
+     * @param included the indexes of the other fields to keep in the entries
+     */
+    public HashFile(File f, DbFile table, int keyField, int[] included) {
+        super(f, table, keyField, included, 1 + INITIAL_BUCKETS);
+        if (HashPage.capacity(getTupleDesc()) < 1 || HashPage.maxBuckets() < INITIAL_BUCKETS)
+            throw new IllegalArgumentException("page size too small for a hash index");
+    }
+
+    /** Returns true for equality, the only comparison a hash can find. */
+    public boolean supports(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS;
+    }
+
+    /**
+     * Returns the meta page plus the average number of pages in a bucket,
+     * as last written to disk.
+     */
+    public double estimateProbePages() {
+        HashPage meta = (HashPage) readPage(pageId(META));
+        if (meta == null)
+            return 2;
+        return 1 + Math.max(1, (numPages() - 1) / (double) meta.buckets.size());
+    }
+
+    protected HashPageId pageId(int pageNo) {
+        return new HashPageId(getId(), pageNo);
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (pid.getTableId() != getId() || pid.getPageNumber() < 0 || pid.getPageNumber() >= numPages())
+            return null;
+        try {
+            byte[] data = HashPage.createEmptyPageData();
+            readPageData(pid.getPageNumber(), data);
+            return new HashPage(pageId(pid.getPageNumber()), data);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private HashPage getPage(TransactionId tid, int pageNo, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        return (HashPage) Database.getBufferPool().getPage(tid, pageId(pageNo), perm);
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!getTupleDesc().equals(t.getTupleDesc())) throw new DbException("TupleDesc does not match.");
+        HashPage meta = getPage(tid, META, Permissions.READ_ONLY);
+        HashPage page = getPage(tid, meta.buckets.get(meta.bucketOf(t.getField(0))), Permissions.READ_ONLY);
+        while (page.isFull() && page.overflow != 0)
+            page = getPage(tid, page.overflow, Permissions.READ_ONLY);
+        page = getPage(tid, page.getId().getPageNumber(), Permissions.READ_WRITE);
+        Map<PageId, Page> dirtied = new LinkedHashMap<PageId, Page>();
+        dirtied.put(page.getId(), page);
+        if (!page.isFull()) {
+            page.entries.add(copy(t));
+            return new ArrayList<Page>(dirtied.values());
+        }
+        HashPage added = newPage(tid, dirtied);
+        page.overflow = added.getId().getPageNumber();
+        added.entries.add(copy(t));
+        // the bucket overflowed, so the table grows by a bucket
+        meta = getPage(tid, META, Permissions.READ_WRITE);
+        if (meta.buckets.size() < HashPage.maxBuckets())
+            split(tid, meta, dirtied);
+        return new ArrayList<Page>(dirtied.values());
+    }
+
+    /** Returns a copy of an entry, with this index's TupleDesc. */
+    private Tuple copy(Tuple t) {
+        Tuple e = new Tuple(getTupleDesc());
+        for (int i = 0; i < e.getTupleDesc().numFields(); i++)
+            e.setField(i, t.getField(i));
+        return e;
+    }
+
+    /**
+     * Splits the next bucket in turn, adding a bucket to the table for the
+     * entries that now hash to it. The pages of the split bucket are reused
+     * for both buckets, so pages are only added when the entries do not fit
+     * in them.
+     *
+     * @param meta the meta page, locked for writing
+     * @param dirtied the pages changed so far, to which the pages changed by
+     *                the split are added
+     */
+    private void split(TransactionId tid, HashPage meta, Map<PageId, Page> dirtied)
+            throws DbException, TransactionAbortedException {
+        dirtied.put(meta.getId(), meta);
+        int split = meta.next;
+        ArrayList<HashPage> pages = new ArrayList<HashPage>();
+        ArrayList<Tuple> all = new ArrayList<Tuple>();
+        for (int pageNo = meta.buckets.get(split); pageNo != 0; ) {
+            HashPage page = getPage(tid, pageNo, Permissions.READ_WRITE);
+            dirtied.put(page.getId(), page);
+            pages.add(page);
+            all.addAll(page.entries);
+            pageNo = page.overflow;
+        }
+
+        if (++meta.next == meta.initial << meta.level) {
+            meta.level++;
+            meta.next = 0;
+        }
+        ArrayList<Tuple> stay = new ArrayList<Tuple>();
+        ArrayList<Tuple> move = new ArrayList<Tuple>();
+        for (Tuple e : all)
+            (meta.bucketOf(e.getField(0)) == split ? stay : move).add(e);
+
+        int capacity = HashPage.capacity(getTupleDesc());
+        int stayPages = Math.max(1, (stay.size() + capacity - 1) / capacity);
+        int movePages = Math.max(1, (move.size() + capacity - 1) / capacity);
+        while (pages.size() < stayPages + movePages)
+            pages.add(newPage(tid, dirtied));
+        fill(pages.subList(0, stayPages), stay, capacity);
+        // pages left over stay at the end of the new bucket, for its inserts
+        fill(pages.subList(stayPages, pages.size()), move, capacity);
+        meta.buckets.add(pages.get(stayPages).getId().getPageNumber());
+    }
+
+    /** Replaces the contents of a chain of pages with the given entries. */
+    private static void fill(List<HashPage> chain, List<Tuple> entries, int capacity) {
+        for (int i = 0; i < chain.size(); i++) {
+            HashPage page = chain.get(i);
+            page.entries.clear();
+            int from = Math.min(entries.size(), i * capacity);
+            page.entries.addAll(entries.subList(from, Math.min(entries.size(), from + capacity)));
+            page.overflow = i + 1 < chain.size() ? chain.get(i + 1).getId().getPageNumber() : 0;
+        }
+    }
+
+    /** Adds a new, empty page to the index, locked for writing by tid. */
+    private HashPage newPage(TransactionId tid, Map<PageId, Page> dirtied)
+            throws DbException, TransactionAbortedException {
+        HashPage page = getPage(tid, allocated.getAndIncrement(), Permissions.READ_WRITE);
+        dirtied.put(page.getId(), page);
+        return page;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!getTupleDesc().equals(t.getTupleDesc())) throw new DbException("TupleDesc does not match.");
+        Field key = t.getField(0);
+        HashPage meta = getPage(tid, META, Permissions.READ_ONLY);
+        for (int pageNo = meta.buckets.get(meta.bucketOf(key)); pageNo != 0; ) {
+            HashPage page = getPage(tid, pageNo, Permissions.READ_ONLY);
+            for (int i = 0; i < page.entries.size(); i++) {
+                Tuple e = page.entries.get(i);
+                if (e.getField(0).equals(key) && sameRecord(e, t)) {
+                    page = getPage(tid, pageNo, Permissions.READ_WRITE);
+                    page.entries.remove(i);
+                    ArrayList<Page> pList = new ArrayList<Page>();
+                    pList.add(page);
+                    return pList;
+                }
+            }
+            pageNo = page.overflow;
+        }
+        throw new DbException("entry is not in the index");
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new EntryIterator(tid, null, null);
+    }
+
+    /**
+     * Returns an iterator over the entries whose key satisfies
+     * <tt>key op value</tt>, in no particular order. An equality predicate
+     * only reads the bucket the value hashes to; other predicates read every
+     * bucket.
+     */
+    public DbFileIterator indexIterator(TransactionId tid, Predicate.Op op, Field value) {
+        return new EntryIterator(tid, op, value);
+    }
+
+    /**
+     * Replaces the contents of this index with entries for all tuples of its
+     * table, with enough buckets that they are three quarters full.
+     */
+    public void build(TransactionId tid) throws DbException, TransactionAbortedException, IOException {
+        ArrayList<Tuple> entries = new ArrayList<Tuple>();
+        DbFileIterator it = Database.getCatalog().getDatabaseFile(getTableId()).iterator(tid);
+        it.open();
+        while (it.hasNext())
+            entries.add(entry(it.next()));
+        it.close();
+        truncate();
+
+        int capacity = HashPage.capacity(getTupleDesc());
+        int n = (int) Math.ceil(entries.size() / (capacity * BUILD_FILL));
+        n = Math.min(HashPage.maxBuckets(), Math.max(INITIAL_BUCKETS, n));
+        HashPage meta = new HashPage(pageId(META), HashPage.createEmptyPageData());
+        meta.buckets.clear();
+        while ((meta.initial << (meta.level + 1)) <= n)
+            meta.level++;
+        meta.next = n - (meta.initial << meta.level);
+        ArrayList<ArrayList<Tuple>> contents = new ArrayList<ArrayList<Tuple>>();
+        for (int b = 0; b < n; b++) {
+            meta.buckets.add(b + 1);
+            contents.add(new ArrayList<Tuple>());
+        }
+        for (Tuple e : entries)
+            contents.get(meta.bucketOf(e.getField(0))).add(e);
+
+        // the first pages of the buckets follow the meta page, and the rest
+        // of their pages follow those
+        int next = n + 1;
+        for (int b = 0; b < n; b++) {
+            ArrayList<Tuple> bucket = contents.get(b);
+            int pageNo = b + 1;
+            for (int from = 0; ; from += capacity) {
+                HashPage page = new HashPage(pageId(pageNo), HashPage.createEmptyPageData());
+                page.entries.addAll(bucket.subList(from, Math.min(bucket.size(), from + capacity)));
+                boolean last = from + capacity >= bucket.size();
+                page.overflow = last ? 0 : next;
+                writePage(page);
+                if (last)
+                    break;
+                pageNo = next++;
+            }
+        }
+        writePage(meta);
+        allocated.set(next);
+    }
+
+    /**
+     * Iterates over the entries of the index whose key satisfies a
+     * predicate, a bucket at a time.
+     */
+    private class EntryIterator extends AbstractDbFileIterator {
+        private final TransactionId tid;
+        private final Predicate.Op op;
+        private final Field value;
+        // the first pages of the buckets still to read
+        private final ArrayDeque<Integer> buckets = new ArrayDeque<Integer>();
+        private List<Tuple> page;
+        private int pos;
+        private int nextPage;
+        private boolean done = true;
+
+        EntryIterator(TransactionId tid, Predicate.Op op, Field value) {
+            this.tid = tid;
+            this.op = op;
+            this.value = value;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            HashPage meta = getPage(tid, META, Permissions.READ_ONLY);
+            buckets.clear();
+            if (value != null && op == Predicate.Op.EQUALS)
+                buckets.add(meta.buckets.get(meta.bucketOf(value)));
+            else
+                buckets.addAll(meta.buckets);
+            page = Collections.emptyList();
+            pos = 0;
+            nextPage = 0;
+            done = false;
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            while (!done) {
+                while (pos >= page.size()) {
+                    if (nextPage == 0 && buckets.isEmpty()) {
+                        done = true;
+                        return null;
+                    }
+                    HashPage p = getPage(tid, nextPage != 0 ? nextPage : buckets.poll(), Permissions.READ_ONLY);
+                    // copied, so changes made by the reading transaction do
+                    // not disturb the scan
+                    page = new ArrayList<Tuple>(p.entries);
+                    pos = 0;
+                    nextPage = p.overflow;
+                }
+                Tuple e = page.get(pos++);
+                if (value == null || e.getField(0).compare(op, value))
+                    return e;
+            }
+            return null;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            done = true;
+        }
+    }
+}
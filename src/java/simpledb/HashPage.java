@@ -0,0 +1,212 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * Each instance of HashPage stores one page of a {@link HashFile}: either
+ * the meta page, page 0, which records the state of the linear hash table,
+ * or a page of a bucket, holding index entries in no particular order.
+ * <p>
+ * The meta page is laid out as:
+ * <ul>
+ * <li>4 bytes: the level, the number of times the table has doubled</li>
+ * <li>4 bytes: the next bucket to split</li>
+ * <li>4 bytes: the number of buckets the table started with</li>
+ * <li>4 bytes for each bucket: the page number of its first page</li>
+ * </ul>
+ * An all-zero meta page is that of an empty table with
+ * {@link HashFile#INITIAL_BUCKETS} buckets, on pages 1 onwards.
+ * <p>
+ * A bucket page is laid out as:
+ * <ul>
+ * <li>4 bytes: the number of entries</li>
+ * <li>4 bytes: the page number of the next page of the bucket, or 0 if
+ * this is its last page</li>
+ * <li>the entries, each in the format of the file's TupleDesc</li>
+ * </ul>
+ * An all-zero bucket page is the only page of an empty bucket.
+ *
+ * @see HashFile
+ */
+public class HashPage implements Page {
+
+    static final int HEADER_SIZE = 8;
+    static final int META_HEADER_SIZE = 12;
+
+    final HashPageId pid;
+    final TupleDesc td;
+    // meta page contents
+    int level;
+    int next;
+    int initial;
+    final ArrayList<Integer> buckets = new ArrayList<Integer>();
+    // bucket page contents
+    final ArrayList<Tuple> entries = new ArrayList<Tuple>();
+    int overflow;
+
+    private TransactionId dirtier;
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a HashPage from a set of bytes of data read from disk, in the
+     * format described above. The TupleDesc of the entries is that of the
+     * HashFile the page belongs to.
+     */
+    public HashPage(HashPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        if (isMeta()) {
+            level = buf.getInt();
+            next = buf.getInt();
+            initial = buf.getInt();
+            if (initial == 0) {
+                initial = HashFile.INITIAL_BUCKETS;
+                for (int i = 0; i < initial; i++)
+                    buckets.add(i + 1);
+            } else {
+                int n = (initial << level) + next;
+                for (int i = 0; i < n; i++)
+                    buckets.add(buf.getInt());
+            }
+            return;
+        }
+        int n = buf.getInt();
+        overflow = buf.getInt();
+        try {
+            for (int i = 0; i < n; i++) {
+                Tuple t = new Tuple(td);
+                for (int j = 0; j < td.numFields(); j++) {
+                    Type type = td.getFieldType(j);
+                    t.setField(j, type.parse(data, buf.position()));
+                    buf.position(buf.position() + type.getLen());
+                }
+                entries.add(t);
+            }
+        } catch (ParseException e) {
+            throw new IOException("corrupt hash index page " + id.getPageNumber(), e);
+        }
+    }
+
+    /** Returns the bytes of an empty meta or bucket page. */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /** Returns the number of entries that fit on a bucket page. */
+    static int capacity(TupleDesc td) {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / td.getSize();
+    }
+
+    /** Returns the number of buckets the meta page can record. */
+    static int maxBuckets() {
+        return (BufferPool.getPageSize() - META_HEADER_SIZE) / 4;
+    }
+
+    /** Returns true if this is the meta page. */
+    public boolean isMeta() {
+        return pid.getPageNumber() == HashFile.META;
+    }
+
+    /** Returns true if this bucket page has no room for another entry. */
+    boolean isFull() {
+        return entries.size() >= capacity(td);
+    }
+
+    /**
+     * Returns the bucket a key belongs in, according to this meta page.
+     * Buckets before the next one to split have been split at this level,
+     * so their keys are placed using one more bit of the hash.
+     */
+    int bucketOf(Field key) {
+        int h = key.hashCode() & 0x7fffffff;
+        int b = h % (initial << level);
+        if (b < next)
+            b = h % (initial << (level + 1));
+        return b;
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HashPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Passing it to the HashPage constructor produces an identical page.
+     */
+    public byte[] getPageData() {
+        byte[] data = createEmptyPageData();
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        if (isMeta()) {
+            buf.putInt(level);
+            buf.putInt(next);
+            buf.putInt(initial);
+            for (int b : buckets)
+                buf.putInt(b);
+            return data;
+        }
+        buf.putInt(entries.size());
+        buf.putInt(overflow);
+        for (Tuple t : entries) {
+            for (int j = 0; j < td.numFields(); j++) {
+                t.getField(j).serialize(buf, buf.position());
+                buf.position(buf.position() + td.getFieldType(j).getLen());
+            }
+        }
+        return data;
+    }
+
+    /** Return a view of this page before it was modified, or null if no
+        before image has been captured -- used by recovery */
+    public HashPage getBeforeImage() {
+        byte[] old;
+        synchronized (oldDataLock) {
+            old = oldData;
+        }
+        if (old == null)
+            return null;
+        try {
+            return new HashPage(pid, old);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        byte[] data = getPageData();
+        synchronized (oldDataLock) {
+            oldData = data;
+        }
+    }
+
+    public void clearBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = null;
+        }
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtier = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+}
@@ -0,0 +1,65 @@
+package simpledb;
+
+/** Unique identifier for HashPage objects. */
+public class HashPageId implements PageId {
+
+    private final int tableId;
+    private final int pageNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific hash index file.
+     *
+     * @param tableId The id of the HashFile the page belongs to
+     * @param pgNo The page number in that file.
+     */
+    public HashPageId(int tableId, int pgNo) {
+        this.tableId = tableId;
+        this.pageNo = pgNo;
+    }
+
+    /** @return the HashFile associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the page number in the file getTableId() associated with
+     *   this PageId
+     */
+    public int getPageNumber() {
+        return pageNo;
+    }
+
+    public int hashCode() {
+        return java.util.Objects.hash(tableId, pageNo, 2);
+    }
+
+    /**
+     * Compares one PageId to another.
+     *
+     * @param o The object to compare against (must be a PageId)
+     * @return true if the objects are equal (e.g., page numbers and table
+     *   ids are the same)
+     */
+    public boolean equals(Object o) {
+        if (!(o instanceof HashPageId))
+            return false;
+        HashPageId other = (HashPageId) o;
+        return other.tableId == tableId && other.pageNo == pageNo;
+    }
+
+    public String toString() {
+        return "HashPageId(" + tableId + ", " + pageNo + ")";
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk.  Size of returned array must contain
+     *  number of integers that corresponds to number of args to one of the
+     *  constructors.
+     */
+    public int[] serialize() {
+        return new int[] { tableId, pageNo };
+    }
+}
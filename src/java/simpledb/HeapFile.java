@@ -3,7 +3,10 @@ package simpledb;
 import javax.xml.crypto.Data;
 import java.io.*;
 import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
@@ -17,9 +20,19 @@ import java.util.*;
  */
 public class HeapFile implements DbFile {
 
+    /** The suffixes of the names of the maps kept next to a data file. */
+    static final String[] SIDECARS = { ".fsm", ".zm", ".bf" };
+
     private int tableId;
     private File f;
     private TupleDesc td;
+    private final AtomicLong writeVersion = new AtomicLong();
+    private FreeSpaceMap freeSpace;
+    private final Object freeSpaceLock = new Object();
+    private ZoneMap zoneMap;
+    private final Object zoneMapLock = new Object();
+    private BloomFilter bloomFilter;
+    private final Object bloomFilterLock = new Object();
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -73,11 +86,8 @@ public class HeapFile implements DbFile {
         try {
             int pageSize = BufferPool.getPageSize();
             byte[] byteStream = new byte[pageSize];
-            RandomAccessFile raf = new RandomAccessFile(f, "r");
-            raf.seek(pageSize * pid.getPageNumber());
-            raf.readFully(byteStream);
-            raf.close();
-            return new HeapPage(new HeapPageId(pid.getTableId(), pid.getPageNumber()), byteStream);
+            read(byteStream, (long) pageSize * pid.getPageNumber());
+            return newPage(new HeapPageId(pid.getTableId(), pid.getPageNumber()), byteStream);
         }
         catch (Exception e) {
             e.printStackTrace();
@@ -85,13 +95,205 @@ public class HeapFile implements DbFile {
         }
     }
 
+    /**
+     * Reads a run of consecutive pages with a single read, for read-ahead.
+     * The run is cut short at the end of the file.
+     *
+     * @param first the number of the first page to read
+     * @param count the number of pages to read
+     * @return the pages read, in page number order
+     */
+    public List<Page> readPages(int first, int count) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        count = Math.min(count, numPages() - first);
+        List<Page> pages = new ArrayList<Page>();
+        if (first < 0 || count <= 0) return pages;
+        byte[] run = new byte[pageSize * count];
+        read(run, (long) pageSize * first);
+        for (int i = 0; i < count; i++) {
+            byte[] data = Arrays.copyOfRange(run, i * pageSize, (i + 1) * pageSize);
+            pages.add(newPage(new HeapPageId(tableId, first + i), data));
+        }
+        return pages;
+    }
+
+    /**
+     * Creates a page of this file from its on-disk bytes. Subclasses that
+     * store their pages in a different format override this.
+     *
+     * @see SlottedHeapFile
+     */
+    protected HeapPage newPage(HeapPageId pid, byte[] data) throws IOException {
+        return new HeapPage(pid, data);
+    }
+
+    /**
+     * Returns a counter that is bumped after every page written to this file.
+     * A reader that bypasses the buffer pool (see {@link #readPages}) can
+     * compare the values seen before and after its read to tell whether
+     * what it read may already be stale.
+     */
+    public long getWriteVersion() {
+        return writeVersion.get();
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         assert page instanceof HeapPage : "Write non-heap page to a heap file.";
-        RandomAccessFile raf = new RandomAccessFile(f, "rw");
-        raf.seek(BufferPool.getPageSize() * page.getId().getPageNumber());
-        raf.write(page.getPageData());
-        raf.close();
+        pageWriting((HeapPage) page);
+        write(page.getPageData(), (long) BufferPool.getPageSize() * page.getId().getPageNumber());
+        pageWritten((HeapPage) page);
+    }
+
+    /**
+     * Makes the maps kept next to this file cover a page's new contents
+     * before the page is written.
+     */
+    void pageWriting(HeapPage page) {
+        getZoneMap().cover(page);
+        BloomFilter bloom = getBloomFilter();
+        if (bloom != null)
+            bloom.flush();
+    }
+
+    /**
+     * Brings the maps kept next to this file up to date once a page has been
+     * written. Their stamps are brought up to date by the BufferPool at the
+     * end of the batch of writes (see {@link BufferPool#fileWritten}).
+     */
+    void pageWritten(HeapPage page) {
+        getFreeSpaceMap().update(page.getId().getPageNumber(), page.getNumEmptySlots() > 0);
+        getZoneMap().update(page);
+        Database.getBufferPool().fileWritten(this);
+    }
+
+    /**
+     * Records the stamp of this file as it is now in the maps kept next to
+     * it, once it has been written or truncated, so that they are used when
+     * the file is next opened.
+     *
+     * @see FileStamp
+     */
+    void stampSidecars() {
+        FileStamp now = FileStamp.of(f);
+        getFreeSpaceMap().stamp(now);
+        getZoneMap().stamp(now);
+        BloomFilter bloom = getBloomFilter();
+        if (bloom != null)
+            bloom.stamp(now);
+        for (IndexFile index : Database.getCatalog().getIndexes(tableId))
+            index.stamp(now);
+    }
+
+    /**
+     * Requests that a data file and the maps kept next to it be deleted when
+     * the virtual machine exits, e.g. for a temporary table.
+     *
+     * @param f the data file
+     * @see File#deleteOnExit
+     */
+    public static void deleteOnExit(File f) {
+        f.deleteOnExit();
+        for (String suffix : SIDECARS)
+            new File(f.getPath() + suffix).deleteOnExit();
+    }
+
+    /**
+     * Deletes the maps kept next to a data file, e.g. because the file is
+     * being replaced. A HeapFile already open on the file must be opened
+     * again to stop using them.
+     *
+     * @param f the data file
+     */
+    public static void deleteSidecars(File f) {
+        for (String suffix : SIDECARS) {
+            File sidecar = new File(f.getPath() + suffix);
+            Database.getFileHandleCache().close(sidecar);
+            sidecar.delete();
+        }
+    }
+
+    /**
+     * Returns the map of full pages used to find room for inserts. It is
+     * kept in a file next to this one, named after it with ".fsm" appended.
+     */
+    public FreeSpaceMap getFreeSpaceMap() {
+        // not synchronized on this: writePage runs under the buffer pool's
+        // lock, and bulkInsert calls into the buffer pool under this one
+        synchronized (freeSpaceLock) {
+            if (freeSpace == null)
+                freeSpace = new FreeSpaceMap(new File(f.getPath() + ".fsm"), f);
+            return freeSpace;
+        }
+    }
+
+    /**
+     * Returns the per-page ranges of int fields used to skip pages in scans.
+     * It is kept in a file next to this one, named after it with ".zm"
+     * appended.
+     */
+    public ZoneMap getZoneMap() {
+        synchronized (zoneMapLock) {
+            if (zoneMap == null)
+                zoneMap = new ZoneMap(new File(f.getPath() + ".zm"), f, td);
+            return zoneMap;
+        }
+    }
+
+    /**
+     * Keeps a Bloom filter over the values of the given fields, so that
+     * searches for values the table does not hold need not scan it. It is
+     * kept in a file next to this one, named after it with ".bf" appended.
+     *
+     * @param fields the indexes of the fields to filter, or an empty array
+     *               to keep no filter
+     */
+    public void setBloomFilter(int[] fields) {
+        synchronized (bloomFilterLock) {
+            bloomFilter = fields.length == 0 ? null
+                    : new BloomFilter(new File(f.getPath() + ".bf"), f, fields);
+        }
+    }
+
+    /**
+     * Returns the Bloom filter over some fields of this table, or null if it
+     * keeps none.
+     *
+     * @see #setBloomFilter
+     */
+    public BloomFilter getBloomFilter() {
+        synchronized (bloomFilterLock) {
+            return bloomFilter;
+        }
+    }
+
+    /** Fills data from the file, starting at byte offset pos. */
+    void read(byte[] data, long pos) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        FileHandleCache handles = Database.getFileHandleCache();
+        FileChannel ch = handles.acquire(f);
+        try {
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, pos + buf.position()) < 0)
+                    throw new EOFException("read past the end of " + f);
+            }
+        } finally {
+            handles.release(f);
+        }
+    }
+
+    /** Writes data to the file, starting at byte offset pos. */
+    void write(byte[] data, long pos) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        FileHandleCache handles = Database.getFileHandleCache();
+        FileChannel ch = handles.acquire(f);
+        try {
+            while (buf.hasRemaining())
+                ch.write(buf, pos + buf.position());
+        } finally {
+            handles.release(f);
+        }
+        writeVersion.incrementAndGet();
     }
 
     /**
@@ -101,55 +303,386 @@ public class HeapFile implements DbFile {
         return (int) Math.ceil((double)f.length() / BufferPool.getPageSize());
     }
 
+    /**
+     * Returns true if inserts and deletes lock single records rather than
+     * whole pages (see {@link BufferPool#getPageForRows}). Subclasses whose
+     * pages do not keep each tuple in a fixed slot of its own override this
+     * to lock pages.
+     */
+    protected boolean rowLocking() {
+        return true;
+    }
+
+    /**
+     * Returns the tuple with the given RecordId on behalf of transaction
+     * tid, e.g. one found through an index, or null if its slot is empty.
+     * tid locks just the record if this file locks records, and otherwise
+     * its page.
+     *
+     * @param perm READ_WRITE if tid will change or delete the tuple
+     */
+    public Tuple readTuple(TransactionId tid, RecordId rid, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        if (!rowLocking())
+            return ((HeapPage) bp.getPage(tid, rid.getPageId(), perm)).getTuple(rid.getTupleNumber());
+        bp.lockRecord(tid, rid, perm);
+        HeapPage hp = (HeapPage) bp.getPageForRows(tid, rid.getPageId(), perm);
+        synchronized (hp) {
+            return hp.getTuple(rid.getTupleNumber());
+        }
+    }
+
     // see DbFile.java for javadocs
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         if (!td.equals(t.getTupleDesc())) throw new DbException("TupleDesc does not match.");
+        if (rowLocking()) {
+            HeapPage hp;
+            int first = 0;
+            while ((hp = insertRow(tid, t, first)) == null) {
+                synchronized(this) {
+                    // All files are full; the new page is found by the
+                    // next search like any other
+                    first = numPages();
+                    writePage(newPage(new HeapPageId(tableId, first), HeapPage.createEmptyPageData()));
+                }
+            }
+            ArrayList<Page> pList = new ArrayList<Page>();
+            pList.add(hp);
+            return pList;
+        }
+        FreeSpaceMap fsm = getFreeSpaceMap();
         int i = 0;
         HeapPage hp = null;
-        for (i = 0; i < numPages(); i ++) {
+        // only look at pages the free space map says may have room
+        for (i = fsm.nextFree(0); i < numPages(); i = fsm.nextFree(i + 1)) {
             if (((HeapPage)(Database.getBufferPool().getPage(
                     tid, new HeapPageId(tableId, i), Permissions.READ_ONLY))).getNumEmptySlots() > 0)
                 break;
+            fsm.update(i, false);
         }
-        if (i == numPages()) {
+        if (i >= numPages()) {
             synchronized(this) {
                 i = numPages();
                 // All files are full
-                hp = new HeapPage(new HeapPageId(tableId, i), HeapPage.createEmptyPageData());
-                try {
-                    int pageSize = BufferPool.getPageSize();
-                    byte[] byteStream = hp.getPageData();
-                    RandomAccessFile raf = new RandomAccessFile(f, "rw");
-                    raf.seek(pageSize * i);
-                    raf.write(byteStream);
-                    raf.close();
-                }
-                catch (IOException e) {
-                    throw e;
-                }
+                hp = newPage(new HeapPageId(tableId, i), HeapPage.createEmptyPageData());
+                writePage(hp);
             }
         }
         hp = (HeapPage)(Database.getBufferPool().getPage(tid, new HeapPageId(tableId, i), Permissions.READ_WRITE));
         hp.insertTuple(t);
+        getZoneMap().include(i, t);
+        BloomFilter bloom = getBloomFilter();
+        if (bloom != null)
+            bloom.add(t);
+        fsm.update(i, hp.getNumEmptySlots() > 0);
         ArrayList<Page> pList = new ArrayList<Page>();
         pList.add(hp);
         return pList;
     }
 
+    /**
+     * Adds a batch of tuples by filling new pages in memory and appending
+     * them to the end of the file, instead of inserting the tuples one at a
+     * time through the buffer pool. The new pages are locked for tid and
+     * written straight to disk (see {@link BufferPool#writeThrough}); they
+     * are not cached, so a large load does not fill the buffer pool with
+     * dirty pages.
+     *
+     * @param tid the transaction adding the tuples
+     * @param tuples the tuples to add
+     * @return the pages that were appended
+     * @throws DbException if a tuple does not match this file's TupleDesc
+     */
+    public ArrayList<Page> bulkInsert(TransactionId tid, List<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        for (Tuple t : tuples)
+            if (!td.equals(t.getTupleDesc())) throw new DbException("TupleDesc does not match.");
+        ArrayList<Page> pList = new ArrayList<Page>();
+        // waiting for the table, e.g. behind a scan, is done before taking
+        // this file's lock; the new pages' own locks need no waiting
+        Database.getBufferPool().lockTable(tid, tableId, Permissions.READ_WRITE);
+        synchronized (this) {
+            int first = numPages();
+            HeapPage hp = null;
+            for (Tuple t : tuples) {
+                if (hp == null || hp.getNumEmptySlots() == 0) {
+                    hp = newPage(new HeapPageId(tableId, first + pList.size()), HeapPage.createEmptyPageData());
+                    // undoing the append means writing back the empty page
+                    hp.setBeforeImage();
+                    pList.add(hp);
+                }
+                hp.insertTuple(t);
+            }
+            BloomFilter bloom = getBloomFilter();
+            if (bloom != null)
+                for (Tuple t : tuples)
+                    bloom.add(t);
+            // under this file's lock, so no other insert appends a page
+            // between ours
+            Database.getBufferPool().writeThrough(tid, pList);
+        }
+        return pList;
+    }
+
+    /**
+     * Inserts a tuple into an empty slot of an existing page, locking just
+     * the slot, so that other transactions may change other records of the
+     * page meanwhile. Slots locked by other transactions, e.g. ones whose
+     * tuples they deleted, are passed over.
+     *
+     * @param first the first page to look at
+     * @return the page the tuple was added to, or null if no page had a slot
+     *         free, and a page must be appended
+     */
+    private HeapPage insertRow(TransactionId tid, Tuple t, int first)
+            throws DbException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        FreeSpaceMap fsm = getFreeSpaceMap();
+        for (int i = fsm.nextFree(first); i < numPages(); i = fsm.nextFree(i + 1)) {
+            HeapPageId pid = new HeapPageId(tableId, i);
+            // look before locking, so that tid only locks the page it uses
+            HeapPage hp = (HeapPage) bp.peekPage(pid);
+            boolean full;
+            synchronized (hp) {
+                full = hp.getNumEmptySlots() == 0;
+            }
+            if (full) {
+                fsm.update(i, false);
+                continue;
+            }
+            hp = (HeapPage) bp.getPageForRows(tid, pid, Permissions.READ_WRITE);
+            int slot;
+            synchronized (hp) {
+                slot = hp.nextEmptySlot(0);
+                while (slot < hp.numSlots && !bp.tryLockRecord(tid, new RecordId(pid, slot)))
+                    slot = hp.nextEmptySlot(slot + 1);
+            }
+            if (slot == hp.numSlots)
+                continue;
+            // only now that tid has a slot of its own does it change the
+            // page; nobody else can take the slot meanwhile
+            hp = bp.beginRowWrite(tid, pid);
+            synchronized (hp) {
+                hp.insertTuple(t, slot);
+            }
+            bp.rowWritten(tid, pid, slot);
+            getZoneMap().include(i, t);
+            BloomFilter bloom = getBloomFilter();
+            if (bloom != null)
+                bloom.add(t);
+            if (hp.getNumEmptySlots() == 0)
+                fsm.update(i, false);
+            return hp;
+        }
+        return null;
+    }
+
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
         if (tableId != t.getRecordId().getPageId().getTableId()) throw new DbException("Table Id does not match.");
         int pageno = t.getRecordId().getPageId().getPageNumber();
         if (pageno < 0 || pageno >= numPages()) throw new DbException("Page number is illegal.");
-        HeapPage hp = (HeapPage)(Database.getBufferPool().getPage(tid, t.getRecordId().getPageId(), Permissions.READ_WRITE));
-        hp.deleteTuple(t);
+        BufferPool bp = Database.getBufferPool();
+        HeapPage hp;
+        if (rowLocking()) {
+            RecordId rid = t.getRecordId();
+            bp.lockRecord(tid, rid, Permissions.READ_WRITE);
+            hp = bp.beginRowWrite(tid, rid.getPageId());
+            synchronized (hp) {
+                hp.deleteTuple(t);
+            }
+            bp.rowWritten(tid, rid.getPageId(), rid.getTupleNumber());
+        } else {
+            hp = (HeapPage)(bp.getPage(tid, t.getRecordId().getPageId(), Permissions.READ_WRITE));
+            hp.deleteTuple(t);
+        }
+        getFreeSpaceMap().update(pageno, true);
         ArrayList<Page> pList = new ArrayList<Page>();
         pList.add(hp);
         return pList;
     }
 
+    /**
+     * Moves a tuple to an empty slot of another page of this file, on behalf
+     * of transaction tid, which gets a write lock on both pages.
+     *
+     * @param tid the transaction moving the tuple
+     * @param t the tuple to move; it is given the RecordId of its new slot
+     * @param to the page to move it to
+     * @return the pages that were modified
+     * @throws DbException if the tuple is not in this file, or the page has
+     *             no empty slot
+     * @see BufferPool#moveTuple
+     */
+    public ArrayList<Page> moveTuple(TransactionId tid, Tuple t, HeapPageId to)
+            throws DbException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (tableId != rid.getPageId().getTableId() || tableId != to.getTableId())
+            throw new DbException("Table Id does not match.");
+        if (to.getPageNumber() < 0 || to.getPageNumber() >= numPages())
+            throw new DbException("Page number is illegal.");
+        BufferPool bp = Database.getBufferPool();
+        HeapPage src = (HeapPage) bp.getPage(tid, rid.getPageId(), Permissions.READ_WRITE);
+        HeapPage dest = (HeapPage) bp.getPage(tid, to, Permissions.READ_WRITE);
+        Tuple stored = src.getTuple(rid.getTupleNumber());
+        if (stored == null)
+            throw new DbException("Tuple slot is already empty");
+        Tuple moved = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++)
+            moved.setField(i, stored.getField(i));
+        dest.insertTuple(moved);
+        src.deleteTuple(stored);
+        getZoneMap().include(to.getPageNumber(), moved);
+        getFreeSpaceMap().update(to.getPageNumber(), dest.getNumEmptySlots() > 0);
+        getFreeSpaceMap().update(rid.getPageId().getPageNumber(), true);
+        t.setRecordId(moved.getRecordId());
+        ArrayList<Page> pList = new ArrayList<Page>();
+        pList.add(src);
+        pList.add(dest);
+        return pList;
+    }
+
+    /**
+     * Moves the tuples of a page into empty slots of the pages before it, on
+     * behalf of transaction tid, as a step of {@link #vacuum}. The tuples
+     * are moved with {@link BufferPool#moveTuple}, so the moves are locked,
+     * logged and rolled back like any other change, and the table's indexes
+     * follow the tuples.
+     *
+     * @param tid the transaction moving the tuples
+     * @param pageNo the page to empty
+     * @return the number of tuples left on the page, for want of room
+     */
+    public int compactPage(TransactionId tid, int pageNo)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        FreeSpaceMap fsm = getFreeSpaceMap();
+        HeapPageId pid = new HeapPageId(tableId, pageNo);
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        Iterator<Tuple> it = ((HeapPage) bp.getPage(tid, pid, Permissions.READ_ONLY)).iterator();
+        while (it.hasNext())
+            tuples.add(it.next());
+        int left = tuples.size();
+        int dest = fsm.nextFree(0);
+        for (Tuple t : tuples) {
+            HeapPageId to = null;
+            for (; dest < pageNo; dest = fsm.nextFree(dest + 1)) {
+                HeapPageId candidate = new HeapPageId(tableId, dest);
+                if (((HeapPage) bp.getPage(tid, candidate, Permissions.READ_ONLY)).getNumEmptySlots() > 0) {
+                    to = candidate;
+                    break;
+                }
+                fsm.update(dest, false);
+            }
+            if (to == null)
+                break;
+            bp.moveTuple(tid, t, to);
+            left--;
+        }
+        return left;
+    }
+
+    /**
+     * Removes the empty pages at the end of this file, on behalf of
+     * transaction tid. tid gets a write lock on each page first, so no other
+     * transaction is using them; pages appended meanwhile by inserts leave
+     * the file as it is. The pages removed are empty whether tid commits or
+     * aborts, so they are dropped from the BufferPool rather than written.
+     *
+     * @param tid the transaction removing the pages
+     * @return the number of pages removed
+     */
+    public int truncateEmptyPages(TransactionId tid)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        int n = numPages();
+        int keep = n;
+        while (keep > 0) {
+            HeapPage p = (HeapPage) bp.getPage(tid, new HeapPageId(tableId, keep - 1), Permissions.READ_WRITE);
+            // asked of the page itself, as pages of other layouts count
+            // their slots their own way
+            if (p.iterator().hasNext())
+                break;
+            keep--;
+        }
+        if (keep == n)
+            return 0;
+        // under this file's lock, so no insert appends a page meanwhile
+        synchronized (this) {
+            if (numPages() != n)
+                return 0;
+            for (int i = keep; i < n; i++)
+                bp.discardPage(new HeapPageId(tableId, i));
+            truncate(keep);
+            stampSidecars();
+        }
+        return n - keep;
+    }
+
+    /**
+     * Cuts this file down to its first pages. Subclasses that store their
+     * pages in a different format override this.
+     */
+    protected void truncate(int pages) throws IOException {
+        FileHandleCache handles = Database.getFileHandleCache();
+        FileChannel ch = handles.acquire(f);
+        try {
+            ch.truncate((long) BufferPool.getPageSize() * pages);
+        } finally {
+            handles.release(f);
+        }
+        writeVersion.incrementAndGet();
+    }
+
+    /**
+     * Compacts this file while other transactions go on using it: moves
+     * the tuples of the last pages into empty slots of earlier ones, e.g.
+     * after many deletes, then removes the pages left empty at the end, so
+     * scans read fewer pages. Each page is emptied by its own transaction,
+     * which commits before the next starts, so other transactions are only
+     * held up by the pages being changed. If a lock cannot be had, the
+     * transaction is rolled back and compaction stops, keeping the pages
+     * emptied so far.
+     *
+     * @return the number of pages removed from the file
+     */
+    public int vacuum() throws DbException, IOException {
+        BufferPool bp = Database.getBufferPool();
+        for (int pageNo = numPages() - 1; pageNo > 0 && getFreeSpaceMap().nextFree(0) < pageNo; pageNo--) {
+            TransactionId tid = new TransactionId();
+            boolean committed = false;
+            try {
+                int left = compactPage(tid, pageNo);
+                bp.transactionComplete(tid);
+                committed = true;
+                if (left > 0)
+                    break;
+            } catch (TransactionAbortedException e) {
+                // the pages emptied so far are still removed below
+                break;
+            } finally {
+                if (!committed)
+                    bp.transactionComplete(tid, false);
+            }
+        }
+        TransactionId tid = new TransactionId();
+        boolean committed = false;
+        try {
+            int removed = truncateEmptyPages(tid);
+            bp.transactionComplete(tid);
+            committed = true;
+            return removed;
+        } catch (TransactionAbortedException e) {
+            return 0;
+        } finally {
+            if (!committed)
+                bp.transactionComplete(tid, false);
+        }
+    }
+
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         return new HeapFileIterator(tid, tableId, numPages());
@@ -106,6 +106,8 @@ public class HeapFileEncoder {
 
     BufferedReader br = new BufferedReader(new FileReader(inFile));
     FileOutputStream os = new FileOutputStream(outFile);
+    // the maps of the table the file held no longer describe it
+    HeapFile.deleteSidecars(outFile);
 
     // our numbers probably won't be much larger than 1024 digits
     char buf[] = new char[1024];
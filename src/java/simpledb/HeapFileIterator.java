@@ -11,6 +11,10 @@ public class HeapFileIterator implements DbFileIterator {
     int fileId;
     int currPage;
     boolean isOpen;
+    BufferRing ring;
+    ReadAhead readAhead;
+    int[] projection;
+    List<Predicate> predicates;
 
     public HeapFileIterator(TransactionId tranid, int fileid, int numPages) {
         tid = tranid;
@@ -19,6 +23,57 @@ public class HeapFileIterator implements DbFileIterator {
         currPage=0;
         pageIter=null;
         isOpen=false;
+        ring=null;
+        readAhead=null;
+        projection=null;
+        predicates=new ArrayList<Predicate>();
+    }
+
+    /**
+     * Decodes only the given fields of the tuples returned; the others are
+     * left unset. Pass null to decode all fields.
+     *
+     * @see HeapPage#iterator(int[])
+     */
+    public void setProjection(int[] fields) {
+        projection = fields;
+    }
+
+    /**
+     * Skips pages that the file's {@link ZoneMap} shows cannot hold a tuple
+     * satisfying p. Tuples on the pages that are read are returned whether
+     * or not they satisfy p, so the caller must still filter them.
+     */
+    public void addPredicate(Predicate p) {
+        predicates.add(p);
+    }
+
+    /**
+     * Returns the first page at or after pageNo that may hold a tuple
+     * satisfying all the predicates, or numPages if there is none.
+     */
+    private int nextPage(int pageNo) {
+        if (predicates.isEmpty())
+            return pageNo;
+        ZoneMap zones = ((HeapFile) Database.getCatalog().getDatabaseFile(fileId)).getZoneMap();
+        for (; pageNo < numPages; pageNo++) {
+            boolean match = true;
+            for (Predicate p : predicates)
+                match = match && zones.mayMatch(pageNo, p);
+            if (match)
+                break;
+        }
+        return pageNo;
+    }
+
+    /**
+     * Returns an iterator over the tuples of a page, which may be null if
+     * the page has been removed from the file.
+     */
+    private Iterator<Tuple> tuples(HeapPage page) {
+        if (page == null)
+            return Collections.<Tuple>emptyIterator();
+        return projection == null ? page.iterator() : page.iterator(projection);
     }
 
     @Override
@@ -36,10 +91,9 @@ public class HeapFileIterator implements DbFileIterator {
         if (pageIter.hasNext()) {
             return true;
         } else {
-            while (currPage < numPages) {
-                HeapPageId pid = new HeapPageId(fileId, currPage);
-                HeapPage curr = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
-                pageIter = curr.iterator();
+            while ((currPage = nextPage(currPage)) < numPages) {
+                HeapPage curr = fetchPage(currPage);
+                pageIter = tuples(curr);
                 currPage++;
                 if (pageIter.hasNext()) { //found tuple
                     return true;
@@ -59,10 +113,9 @@ public class HeapFileIterator implements DbFileIterator {
         if (pageIter.hasNext()) {
             return pageIter.next();
         } else {
-            while (currPage < numPages) {
-                HeapPageId pid = new HeapPageId(fileId, currPage);
-                HeapPage curr = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
-                pageIter = curr.iterator();
+            while ((currPage = nextPage(currPage)) < numPages) {
+                HeapPage curr = fetchPage(currPage);
+                pageIter = tuples(curr);
                 currPage++;
                 if (pageIter.hasNext()) { //found tuple
                     return pageIter.next();
@@ -77,10 +130,47 @@ public class HeapFileIterator implements DbFileIterator {
         isOpen=true;
         currPage=0;
         pageIter=null;
-        HeapPageId pid = new HeapPageId(fileId, currPage);
-        HeapPage curr = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
-        pageIter=curr.iterator();
-        currPage++;
+        // tables too big to cache are scanned through a small ring of frames
+        BufferPool bp = Database.getBufferPool();
+        HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(fileId);
+        if (file instanceof MappedHeapFile) {
+            // pages are rebuilt from the mapping without I/O, so neither
+            // caching them nor reading ahead pays off
+            ring = new BufferRing(1);
+            readAhead = new ReadAhead(file, numPages, 0, ring);
+        } else {
+            ring = bp.newScanRing(numPages);
+            readAhead = new ReadAhead(file, numPages, bp.getReadAheadWindow(), ring);
+        }
+        currPage = nextPage(0);
+        if (currPage < numPages || predicates.isEmpty()) {
+            HeapPage curr = fetchPage(currPage);
+            pageIter=tuples(curr);
+            currPage++;
+        } else {
+            pageIter = Collections.<Tuple>emptyIterator();
+        }
+    }
+
+    /** Returns a page of the file, or null if it has been removed. */
+    private HeapPage fetchPage(int pageNo) throws DbException, TransactionAbortedException {
+        readAhead.pageRequested(pageNo);
+        HeapPageId pid = new HeapPageId(fileId, pageNo);
+        HeapPage page;
+        try {
+            page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY, ring);
+        } catch (DbException e) {
+            // the empty pages at the end of the file may have been removed
+            // since the scan started (see HeapFile#vacuum)
+            if (pageNo >= ((HeapFile) Database.getCatalog().getDatabaseFile(fileId)).numPages())
+                return null;
+            throw e;
+        }
+        if (!predicates.isEmpty() && page != null && page.isDirty() == null) {
+            // a clean page is the same as the one on disk
+            ((HeapFile) Database.getCatalog().getDatabaseFile(fileId)).getZoneMap().learn(page);
+        }
+        return page;
     }
 
     @Override
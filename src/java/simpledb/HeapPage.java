@@ -1,13 +1,17 @@
 package simpledb;
 
-import java.nio.Buffer;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.io.*;
-import java.lang.Math;
 
 /**
- * Each instance of HeapPage stores data for one page of HeapFiles and 
+ * Each instance of HeapPage stores data for one page of HeapFiles and
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * A HeapPage is held in memory in exactly the format it has on disk (see
+ * the constructor): inserting or deleting a tuple patches the header bitmap
+ * and the tuple's slot in place, and serializing the page is a single
+ * array copy.
  *
  * @see HeapFile
  * @see BufferPool
@@ -17,14 +21,24 @@ public class HeapPage implements Page {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte header[];
     final Tuple tuples[];
     final int numSlots;
+    final int headerSize;
+    final int[] fieldOffsets;
     private TransactionId tid;
     private boolean dirty;
 
+    // the page in its on-disk format: the header bitmap, then the slots.
+    // Pages are read through buf; a page read from a mapping reads the
+    // mapped bytes in place, and data is null until the page first changes
+    byte[] data;
+    ByteBuffer buf;
+    // set while tuple views or the before image refer to data, which must
+    // then be copied before it is changed
+    private boolean shared;
+
     byte[] oldData;
-    private final Byte oldDataLock=new Byte((byte)0);
+    private final Object oldDataLock = new Object();
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -43,35 +57,121 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage from a buffer holding the page in the format
+     * described above, e.g. a slice of a memory-mapped file. The page is
+     * read from the buffer's current position.
+     * <p>
+     * Tuples are not decoded until they are asked for, and then only the
+     * fields that are actually read (see {@link #iterator}). A buffer with
+     * no backing array, such as a mapping, is not copied either: the page
+     * reads it in place and copies it the first time the page is changed.
+     *
+     * @see MappedHeapFile
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, data, numSlots(Database.getCatalog().getTupleDesc(id.getTableId())));
+    }
+
+    /**
+     * Create a page with the given number of fixed-size slots. Subclasses
+     * that lay their pages out differently pass 0 and manage their own
+     * slots.
+     *
+     * @see SlottedHeapPage
+     */
+    HeapPage(HeapPageId id, ByteBuffer data, int numSlots) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
-        this.numSlots = getNumTuples();
+        this.numSlots = numSlots;
+        this.headerSize = getHeaderSize();
         this.tid = null;
         this.dirty = false;
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
+        ByteBuffer src = data.duplicate();
+        if (src.remaining() < BufferPool.getPageSize())
+            throw new EOFException("page " + id.getPageNumber() + " is truncated");
+        if (src.hasArray()) {
+            this.data = new byte[BufferPool.getPageSize()];
+            src.get(this.data);
+            this.buf = ByteBuffer.wrap(this.data);
+        } else {
+            src.limit(src.position() + BufferPool.getPageSize());
+            this.buf = src.slice().asReadOnlyBuffer();
+            this.shared = true;
+        }
         tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+
+        fieldOffsets = new int[td.numFields()];
+        for (int j = 1; j < fieldOffsets.length; j++)
+            fieldOffsets[j] = fieldOffsets[j - 1] + td.getFieldType(j - 1).getLen();
+
+    }
+
+    /**
+     * A tuple of this page whose fields are decoded from the page's bytes
+     * the first time they are read. A view keeps the bytes it was created
+     * from, so it is unaffected by later changes to other slots or to its
+     * own slot once the tuple has been deleted. Changing a field through
+     * setField while the tuple is still on the page updates the page.
+     */
+    private class TupleView extends Tuple {
+        private static final long serialVersionUID = 1L;
+
+        private final ByteBuffer bytes;
+        private final int slot;
+        private final boolean[] decoded;
+
+        TupleView(int slot) {
+            super(td);
+            setRecordId(new RecordId(pid, slot));
+            this.bytes = HeapPage.this.buf;
+            this.slot = slot;
+            this.decoded = new boolean[td.numFields()];
+        }
+
+        public Field getField(int i) {
+            if (i >= 0 && i < decoded.length && !decoded[i]) {
+                try {
+                    super.setField(i, td.getFieldType(i).parse(bytes, fieldOffset(slot, i)));
+                } catch (java.text.ParseException e) {
+                    throw new NoSuchElementException("parsing error!");
+                }
+                decoded[i] = true;
+            }
+            return super.getField(i);
+        }
+
+        public void setField(int i, Field f) {
+            super.setField(i, f);
+            if (i >= 0 && i < decoded.length) {
+                decoded[i] = true;
+                if (tuples[slot] == this)
+                    writeField(slot, i, f);
+            }
         }
-        dis.close();
 
-        setBeforeImage();
+        public Iterator<Field> fields() {
+            decodeAll();
+            return super.fields();
+        }
+
+        public String toString() {
+            decodeAll();
+            return super.toString();
+        }
+
+        private void decodeAll() {
+            for (int i = 0; i < decoded.length; i++)
+                getField(i);
+        }
     }
 
-    /** Retrieve the number of tuples on this page.
-        @return the number of tuples on this page
-    */
-    private int getNumTuples() {
+    /** Returns the number of tuples with the given TupleDesc that fit on a page. */
+    static int numSlots(TupleDesc td) {
         return (BufferPool.getPageSize()*8) / (td.getSize()*8 +1);
     }
 
@@ -80,13 +180,13 @@ public class HeapPage implements Page {
      * @return the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
      */
     private int getHeaderSize() {
-        int bytesize = getNumTuples()/8;
-        if (bytesize * 8 < getNumTuples()) bytesize++;
+        int bytesize = numSlots/8;
+        if (bytesize * 8 < numSlots) bytesize++;
         return bytesize;
     }
-    
-    /** Return a view of this page before it was modified
-        -- used by recovery */
+
+    /** Return a view of this page before it was modified, or null if no
+        before image has been captured -- used by recovery */
     public HeapPage getBeforeImage(){
         try {
             byte[] oldDataRef = null;
@@ -94,7 +194,9 @@ public class HeapPage implements Page {
             {
                 oldDataRef = oldData;
             }
-            return new HeapPage(pid,oldDataRef);
+            if (oldDataRef == null)
+                return null;
+            return copy(oldDataRef);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -102,14 +204,46 @@ public class HeapPage implements Page {
         }
         return null;
     }
-    
+
+    /**
+     * Makes the current contents the before image. No bytes are copied:
+     * the before image shares the page's bytes until the page next changes.
+     */
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        if (data == null) {
+            data = bytes();
+            buf = ByteBuffer.wrap(data);
+        }
+        oldData = data;
+        shared = true;
+        }
+    }
+
+    /**
+     * Makes the given bytes the before image, e.g. once some of the changes
+     * since the page was last clean have committed.
+     */
+    void setBeforeImage(byte[] before) {
+        synchronized(oldDataLock)
+        {
+        oldData = before;
         }
     }
 
+    public void clearBeforeImage() {
+        synchronized(oldDataLock)
+        {
+        oldData = null;
+        }
+    }
+
+    /** Returns a page with this page's id holding the given bytes. */
+    HeapPage copy(byte[] data) throws IOException {
+        return new HeapPage(pid, data);
+    }
+
     /**
      * @return the PageId associated with this page.
      */
@@ -118,37 +252,54 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Returns the byte offset within the page of one field of the tuple in
+     * a slot. Tuples are stored whole, one after the other.
+     *
+     * @see PaxPage
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
+    int fieldOffset(int slot, int field) {
+        return headerSize + slot * td.getSize() + fieldOffsets[field];
+    }
+
+    /**
+     * Returns the tuple in a used slot, creating a view of the page's bytes
+     * for it the first time it is asked for.
+     */
+    private Tuple tuple(int slot) {
+        Tuple t = tuples[slot];
+        if (t == null) {
+            t = new TupleView(slot);
+            tuples[slot] = t;
+            shared = true;
         }
+        return t;
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+    /**
+     * Returns the tuple in a slot, e.g. one found through an index, or null
+     * if the slot is empty.
+     */
+    public Tuple getTuple(int slot) {
+        return isSlotUsed(slot) ? tuple(slot) : null;
+    }
+
+    /** Copies the page's bytes if anything else still refers to them, so
+     * they can be changed in place. */
+    void prepareWrite() {
+        synchronized(oldDataLock)
+        {
+        if (shared) {
+            data = bytes();
+            buf = ByteBuffer.wrap(data);
+            shared = false;
         }
+        }
+    }
 
-        return t;
+    /** Writes one field of the tuple in a slot into the page's bytes. */
+    private void writeField(int slot, int field, Field f) {
+        prepareWrite();
+        f.serialize(buf, fieldOffset(slot, field));
     }
 
     /**
@@ -163,64 +314,21 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
+        synchronized(oldDataLock)
+        {
+        return bytes();
         }
+    }
 
-        return baos.toByteArray();
+    /** Returns a copy of the page's bytes. */
+    private byte[] bytes() {
+        if (data != null)
+            return data.clone();
+        byte[] copy = new byte[BufferPool.getPageSize()];
+        ByteBuffer src = buf.duplicate();
+        src.clear();
+        src.get(copy);
+        return copy;
     }
 
     /**
@@ -253,10 +361,15 @@ public class HeapPage implements Page {
         if (!pid.equals(this.pid))
             throw new DbException("Tuple is not on page");
 
-        if (this.tuples[tno] == null)
+        if (!isSlotUsed(tno))
             throw new DbException("Tuple slot is already empty");
 
         markSlotUsed(tno, false);
+        // empty slots are all zeroes on disk
+        for (int j = 0; j < td.numFields(); j++) {
+            int offset = fieldOffset(tno, j);
+            Arrays.fill(data, offset, offset + td.getFieldType(j).getLen(), (byte) 0);
+        }
         tuples[tno] = null;
     }
 
@@ -272,15 +385,29 @@ public class HeapPage implements Page {
         if (getNumEmptySlots() == 0)
             throw new DbException("No empty slots");
 
+        insertTuple(t, firstEmptySlot());
+    }
+
+    /**
+     * Adds the specified tuple to the given empty slot of the page, e.g. one
+     * the inserting transaction holds a record lock on.
+     * @throws DbException if the slot is in use or tupledesc is mismatch.
+     */
+    void insertTuple(Tuple t, int newslot) throws DbException {
+
+        if (newslot < 0 || newslot >= numSlots || isSlotUsed(newslot))
+            throw new DbException("Slot is not empty");
+
         TupleDesc td = t.getTupleDesc();
 
         if (!td.equals(this.td))
             throw new DbException("TupleDesc Mismatch");
 
-        int newslot = firstEmptySlot();
-
-        tuples[newslot] = t;
+        for (int j = 0; j < td.numFields(); j++)
+            writeField(newslot, j, t.getField(j));
         markSlotUsed(newslot, true);
+        // later reads see the page's copy, not the caller's tuple
+        tuples[newslot] = null;
 
         RecordId rid = new RecordId(this.pid, newslot);
         t.setRecordId(rid);
@@ -291,11 +418,31 @@ public class HeapPage implements Page {
      * finds and returns the index of the first available empty slot on the page
      */
     private int firstEmptySlot() {
-        for (int i = 0; i < tuples.length; i++) {
-            if (!isSlotUsed(i))
-                return i;
+        int slot = nextEmptySlot(0);
+        return slot < numSlots ? slot : -1;
+    }
+
+    /** Returns the first empty slot at or after slot, or numSlots if none. */
+    int nextEmptySlot(int slot) {
+        while (slot < numSlots && isSlotUsed(slot))
+            slot++;
+        return slot;
+    }
+
+    /**
+     * Makes one slot of this page hold what it holds on another version of
+     * the page, e.g. to undo or commit the changes one transaction made to
+     * it while others changed other slots.
+     */
+    void copySlot(HeapPage from, int slot) {
+        markSlotUsed(slot, from.isSlotUsed(slot));
+        ByteBuffer src = from.buf.duplicate();
+        for (int j = 0; j < td.numFields(); j++) {
+            int offset = fieldOffset(slot, j);
+            src.position(offset);
+            src.get(data, offset, td.getFieldType(j).getLen());
         }
-        return -1;
+        tuples[slot] = null;
     }
 
 
@@ -327,24 +474,8 @@ public class HeapPage implements Page {
 
         int count = this.numSlots;
 
-        for (byte b : this.header) {
-            if ((b & 0x01) != 0)
-                count--;
-            if ((b & 0x02) != 0)
-                count--;
-            if ((b & 0x04) != 0)
-                count--;
-            if ((b & 0x08) != 0)
-                count--;
-            if ((b & 0x10) != 0)
-                count--;
-            if ((b & 0x20) != 0)
-                count--;
-            if ((b & 0x40) != 0)
-                count--;
-            if ((b & 0x80) != 0)
-                count--;
-        }
+        for (int i = 0; i < headerSize; i++)
+            count -= Integer.bitCount(buf.get(i) & 0xff);
 
         return count;
     }
@@ -354,16 +485,9 @@ public class HeapPage implements Page {
      */
     public boolean isSlotUsed(int i) {
 
-        if (i >= getNumTuples()) return false;
-
-        int byte_index = i / 8;
+        if (i < 0 || i >= numSlots) return false;
 
-        byte storage_byte = header[byte_index];
-
-        int temp = ((storage_byte >> (i - byte_index * 8) ) & 1);
-
-        if (temp == 1) return true;
-        return false;
+        return ((buf.get(i / 8) >> (i % 8)) & 1) == 1;
     }
 
     /**
@@ -371,6 +495,8 @@ public class HeapPage implements Page {
      */
     private void markSlotUsed(int i, boolean value) {
 
+        prepareWrite();
+
         int byte_index = i / 8;
         int bit_index = i % 8;
         byte mask;
@@ -378,26 +504,77 @@ public class HeapPage implements Page {
         mask <<= bit_index;
 
         if (value) {
-            header[byte_index] = (byte) (header[byte_index] | mask);
+            data[byte_index] = (byte) (data[byte_index] | mask);
         } else if (!value) {
             mask = (byte) ~mask;
-            header[byte_index] = (byte) (header[byte_index] & mask);
+            data[byte_index] = (byte) (data[byte_index] & mask);
         }
     }
 
     /**
      * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
      * (note that this iterator shouldn't return tuples in empty slots!)
+     * Tuples are returned as views of the page's bytes whose fields are
+     * only decoded when they are read.
      */
     public Iterator<Tuple> iterator() {
-        ArrayList<Tuple> tupleHold = new ArrayList<Tuple>();
-        for(int i=0; i<tuples.length; i++){
-            if(isSlotUsed(i)){
-                tupleHold.add(tuples[i]);
+        return new Iterator<Tuple>() {
+            private int next = nextUsedSlot(0);
+
+            public boolean hasNext() {
+                return next < numSlots;
             }
+
+            public Tuple next() {
+                if (next >= numSlots)
+                    throw new NoSuchElementException();
+                Tuple t = tuple(next);
+                next = nextUsedSlot(next + 1);
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Returns an iterator over the tuples on this page in which only the
+     * given fields are set, for scans that read no others (see
+     * {@link SeqScan#setProjection}). The fields are decoded a column at a
+     * time, which on a {@link PaxPage} reads each column from contiguous
+     * bytes. Changing the returned tuples does not change the page.
+     *
+     * @param fields the indexes of the fields to decode
+     */
+    public Iterator<Tuple> iterator(int[] fields) {
+        int[] slots = new int[numSlots];
+        Tuple[] out = new Tuple[numSlots];
+        int n = 0;
+        for (int slot = nextUsedSlot(0); slot < numSlots; slot = nextUsedSlot(slot + 1)) {
+            slots[n] = slot;
+            out[n] = new Tuple(td);
+            out[n].setRecordId(new RecordId(pid, slot));
+            n++;
         }
-        return tupleHold.iterator();
+        try {
+            for (int field : fields) {
+                Type type = td.getFieldType(field);
+                for (int k = 0; k < n; k++)
+                    out[k].setField(field, type.parse(buf, fieldOffset(slots[k], field)));
+            }
+        } catch (java.text.ParseException e) {
+            throw new NoSuchElementException("parsing error!");
+        }
+        return Collections.unmodifiableList(Arrays.asList(out).subList(0, n)).iterator();
     }
 
-}
+    /** Returns the first used slot at or after slot, or numSlots if none. */
+    private int nextUsedSlot(int slot) {
+        while (slot < numSlots && !isSlotUsed(slot))
+            slot++;
+        return slot;
+    }
 
+}
@@ -0,0 +1,347 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * IndexFile is the base class of the secondary indexes over one field of a
+ * table, such as {@link BTreeFile} and {@link HashFile}. Its tuples are index
+ * entries: the key, followed by the values of the index's included fields,
+ * if any, and the page number and slot of the table tuple it came from. Its
+ * pages are read, locked and cached through the BufferPool like the pages of
+ * any other DbFile.
+ * <p>
+ * An index covers the key and its included fields: a query that reads no
+ * other fields of the table can be answered from the index entries alone,
+ * without reading the table's pages (see {@link IndexScan#setProjection}).
+ * <p>
+ * An index is kept up to date by the BufferPool, which adds and removes
+ * entries as tuples are inserted into and deleted from its table, once it
+ * has been registered with {@link Catalog#addIndex}. Its tuples are read
+ * with an {@link IndexScan}.
+ * <p>
+ * The file begins with the {@link FileStamp} of the table's data file as it
+ * was when the index was last brought up to date, followed by the pages.
+ * An index whose stamp is not that of the data file, e.g. one left over
+ * from a table that has since been generated again, holds RecordIds into
+ * other contents and is rebuilt when the catalog is loaded.
+ */
+public abstract class IndexFile implements DbFile {
+
+    private final File f;
+    private final int id;
+    private final int tableid;
+    private final int keyField;
+    private final int[] included;
+    private final TupleDesc td;
+    // pages handed out so far, including new pages not yet written
+    protected final AtomicInteger allocated;
+    // the table's data file, or null if the table is not a HeapFile
+    private final File dataFile;
+    // the stamp at the start of the file, or null if the file has none or
+    // it is not that of the data file
+    private FileStamp stamp;
+    private final Object stampLock = new Object();
+
+    /**
+     * Opens the index on one field of a table kept in the given file.
+     *
+     * @param f the file the index is kept in
+     * @param table the indexed table
+     * @param keyField the index of the indexed field in the table's tuples
+     * @param included the indexes of the fields of the table's tuples whose
+     *                 values are also kept in the index entries
+     * @param minPages the number of pages of an empty index
+     */
+    protected IndexFile(File f, DbFile table, int keyField, int[] included, int minPages) {
+        this.f = f;
+        this.id = f.getAbsoluteFile().hashCode();
+        this.tableid = table.getId();
+        this.keyField = keyField;
+        this.included = included.clone();
+        TupleDesc tableTd = table.getTupleDesc();
+        Type[] types = new Type[included.length + 3];
+        String[] names = new String[included.length + 3];
+        types[0] = tableTd.getFieldType(keyField);
+        names[0] = tableTd.getFieldName(keyField);
+        for (int i = 0; i < included.length; i++) {
+            types[i + 1] = tableTd.getFieldType(included[i]);
+            names[i + 1] = tableTd.getFieldName(included[i]);
+        }
+        types[included.length + 1] = Type.INT_TYPE;
+        names[included.length + 1] = "page";
+        types[included.length + 2] = Type.INT_TYPE;
+        names[included.length + 2] = "slot";
+        this.td = new TupleDesc(types, names);
+        long length = Math.max(0, f.length() - FileStamp.SIZE);
+        int pages = (int) ((length + BufferPool.getPageSize() - 1) / BufferPool.getPageSize());
+        this.allocated = new AtomicInteger(Math.max(minPages, pages));
+        this.dataFile = table instanceof HeapFile ? ((HeapFile) table).getFile() : null;
+        if (dataFile != null && f.length() >= FileStamp.SIZE) {
+            try {
+                byte[] header = new byte[FileStamp.SIZE];
+                read(header, 0);
+                FileStamp stored = FileStamp.read(ByteBuffer.wrap(header));
+                if (stored.equals(FileStamp.of(dataFile)))
+                    stamp = stored;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /** Returns the File backing this index on disk. */
+    public File getFile() {
+        return f;
+    }
+
+    /** Returns an ID uniquely identifying this index. */
+    public int getId() {
+        return id;
+    }
+
+    /** Returns the TupleDesc of the index entries. */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** Returns the id of the indexed table. */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /** Returns the index of the indexed field in the table's tuples. */
+    public int getKeyField() {
+        return keyField;
+    }
+
+    /**
+     * Returns the number of pages in this index, counting new pages that
+     * have not been written yet.
+     */
+    public int numPages() {
+        return allocated.get();
+    }
+
+    /**
+     * Returns the indexes of the fields of the table's tuples whose values
+     * are kept in the index entries, besides the key.
+     */
+    public int[] getIncludedFields() {
+        return included.clone();
+    }
+
+    /**
+     * Returns true if the index entries hold the values of all the given
+     * fields of the table's tuples.
+     *
+     * @param fields the indexes of the fields, or null for all fields
+     */
+    public boolean covers(int[] fields) {
+        if (fields == null)
+            return covers(allFields());
+        for (int field : fields) {
+            boolean covered = field == keyField;
+            for (int i : included)
+                covered |= field == i;
+            if (!covered)
+                return false;
+        }
+        return true;
+    }
+
+    /** Returns the indexes of all the fields of the table's tuples. */
+    private int[] allFields() {
+        int[] fields = new int[Database.getCatalog().getTupleDesc(tableid).numFields()];
+        for (int i = 0; i < fields.length; i++)
+            fields[i] = i;
+        return fields;
+    }
+
+    /**
+     * Returns the index entry for a tuple of the indexed table, which must
+     * have a RecordId.
+     */
+    public Tuple entry(Tuple t) {
+        Tuple e = new Tuple(td);
+        e.setField(0, t.getField(keyField));
+        for (int i = 0; i < included.length; i++)
+            e.setField(i + 1, t.getField(included[i]));
+        e.setField(included.length + 1, new IntField(t.getRecordId().getPageId().getPageNumber()));
+        e.setField(included.length + 2, new IntField(t.getRecordId().getTupleNumber()));
+        return e;
+    }
+
+    /** Returns the RecordId of the table tuple an index entry points to. */
+    public RecordId getRecordId(Tuple entry) {
+        int n = entry.getTupleDesc().numFields();
+        return new RecordId(new HeapPageId(tableid, ((IntField) entry.getField(n - 2)).getValue()),
+                ((IntField) entry.getField(n - 1)).getValue());
+    }
+
+    /**
+     * Returns the table tuple an index entry points to, with only the fields
+     * the index covers set, and the others left unset (null).
+     */
+    public Tuple tuple(Tuple entry) {
+        Tuple t = new Tuple(Database.getCatalog().getTupleDesc(tableid));
+        t.setField(keyField, entry.getField(0));
+        for (int i = 0; i < included.length; i++)
+            t.setField(included[i], entry.getField(i + 1));
+        t.setRecordId(getRecordId(entry));
+        return t;
+    }
+
+    /** Returns true if two index entries point to the same table tuple. */
+    static boolean sameRecord(Tuple a, Tuple b) {
+        int n = a.getTupleDesc().numFields();
+        return a.getField(n - 2).equals(b.getField(n - 2)) && a.getField(n - 1).equals(b.getField(n - 1));
+    }
+
+    /**
+     * Returns true if {@link #indexIterator} reads only the part of the index
+     * holding the entries that satisfy <tt>key op value</tt>, rather than
+     * every entry.
+     */
+    public abstract boolean supports(Predicate.Op op);
+
+    /**
+     * Returns the number of pages of the index read to find the entries with
+     * one key, for the optimizer to compare the cost of indexes.
+     */
+    public abstract double estimateProbePages();
+
+    /**
+     * Returns an iterator over the entries whose key satisfies
+     * <tt>key op value</tt>, or over all entries if value is null.
+     *
+     * @param tid the transaction reading the index
+     * @param op the comparison
+     * @param value the value keys are compared to, or null
+     */
+    public abstract DbFileIterator indexIterator(TransactionId tid, Predicate.Op op, Field value);
+
+    /**
+     * Replaces the contents of this index with entries for all tuples of its
+     * table. The index must be registered with the catalog and not in use.
+     *
+     * @param tid the transaction reading the table
+     */
+    public abstract void build(TransactionId tid) throws DbException, TransactionAbortedException, IOException;
+
+    /**
+     * Returns true if this index was brought up to date with its table's
+     * data file as it is now, so that its entries point to the tuples the
+     * file holds.
+     */
+    public boolean isCurrent() {
+        synchronized (stampLock) {
+            return stamp != null && stamp.equals(FileStamp.of(dataFile));
+        }
+    }
+
+    /**
+     * Records that this index holds the entries of its table's data file as
+     * it is now, once the index has been built and its pages written.
+     */
+    void built() throws IOException {
+        if (dataFile != null)
+            writeStamp(FileStamp.of(dataFile));
+    }
+
+    /**
+     * Called after the table's data file has been written or truncated:
+     * records its new stamp, if this index was up to date with it before.
+     */
+    void stamp(FileStamp now) {
+        synchronized (stampLock) {
+            if (stamp == null || stamp.equals(now))
+                return;
+        }
+        try {
+            writeStamp(now);
+        } catch (IOException e) {
+            // the index is rebuilt when the catalog is next loaded
+            e.printStackTrace();
+        }
+    }
+
+    private void writeStamp(FileStamp now) throws IOException {
+        synchronized (stampLock) {
+            FileHandleCache handles = Database.getFileHandleCache();
+            FileChannel ch = handles.acquire(f);
+            try {
+                now.write(ch);
+                stamp = now;
+            } finally {
+                handles.release(f);
+            }
+        }
+    }
+
+    /** Reads the page with the given number from the file into data. */
+    protected void readPageData(int pageNo, byte[] data) throws IOException {
+        long pos = FileStamp.SIZE + (long) BufferPool.getPageSize() * pageNo;
+        // pages past the end of the file are new pages, not yet written
+        if (pos + BufferPool.getPageSize() <= f.length())
+            read(data, pos);
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        write(page.getPageData(), FileStamp.SIZE + (long) BufferPool.getPageSize() * page.getId().getPageNumber());
+    }
+
+    /**
+     * Removes the pages of this index from the BufferPool and empties the
+     * file, before it is rebuilt. The index is not up to date with its
+     * table until {@link #built} is called.
+     */
+    protected void truncate() throws IOException {
+        for (int i = 0; i < allocated.get(); i++)
+            Database.getBufferPool().discardPage(pageId(i));
+        synchronized (stampLock) {
+            FileHandleCache handles = Database.getFileHandleCache();
+            FileChannel ch = handles.acquire(f);
+            try {
+                ch.truncate(0);
+                stamp = null;
+            } finally {
+                handles.release(f);
+            }
+        }
+    }
+
+    /** Returns the id of the page of this index with the given number. */
+    protected abstract PageId pageId(int pageNo);
+
+    /** Fills data from the file, starting at byte offset pos. */
+    private void read(byte[] data, long pos) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        FileHandleCache handles = Database.getFileHandleCache();
+        FileChannel ch = handles.acquire(f);
+        try {
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, pos + buf.position()) < 0)
+                    throw new EOFException("read past the end of " + f);
+            }
+        } finally {
+            handles.release(f);
+        }
+    }
+
+    /** Writes data to the file, starting at byte offset pos. */
+    private void write(byte[] data, long pos) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        FileHandleCache handles = Database.getFileHandleCache();
+        FileChannel ch = handles.acquire(f);
+        try {
+            while (buf.hasRemaining())
+                ch.write(buf, pos + buf.position());
+        } finally {
+            handles.release(f);
+        }
+    }
+}
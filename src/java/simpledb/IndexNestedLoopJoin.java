@@ -0,0 +1,136 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopJoin joins two relations on the equality of a field of each,
+ * where the inner relation is a table with an index on its join field. For
+ * each tuple of the outer relation it looks up the matching tuples of the
+ * table in the index, instead of scanning the whole table as {@link Join}
+ * does.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private final JoinPredicate pred;
+    private OpIterator child1, child2;
+    private final IndexScan probe;
+    private final TupleDesc comboTD;
+    transient private Tuple t1 = null;
+    transient private boolean innerOpen = false;
+
+    /**
+     * Constructor. Accepts the children to join, the predicate to join them
+     * on, and the scan of the inner table's index.
+     *
+     * @param p
+     *            The predicate to use to join the children; its operator
+     *            must be {@link Predicate.Op#EQUALS}
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join: probe, or
+     *            {@link Filter}s over it
+     * @param probe
+     *            a scan of an index on the inner table's join field, whose
+     *            value is set to the join field of each outer tuple in turn
+     *            (see {@link IndexScan#setValue})
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2, IndexScan probe) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("an index nested-loops join must be an equality join");
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.probe = probe;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    /** Returns the index scan the inner relation is read with. */
+    public IndexScan getProbe() {
+        return probe;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        if (innerOpen)
+            child2.close();
+        child1.close();
+        innerOpen = false;
+        t1 = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        t1 = null;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples: the concatenation of an outer tuple with each tuple the
+     * index finds for its join field, that also satisfies the filters over
+     * the inner table.
+     *
+     * @return The next matching tuple.
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (t1 == null) {
+                if (!child1.hasNext())
+                    return null;
+                t1 = child1.next();
+                probe.setValue(t1.getField(pred.getField1()));
+                if (innerOpen) {
+                    child2.rewind();
+                } else {
+                    child2.open();
+                    innerOpen = true;
+                }
+            }
+            while (child2.hasNext()) {
+                Tuple t2 = child2.next();
+                if (pred.filter(t1, t2))
+                    return Tuple.merge(t1, t2);
+            }
+            t1 = null;
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    /**
+     * Replaces the children; the new inner child must still read the tuples
+     * of the probe given to the constructor.
+     */
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+}
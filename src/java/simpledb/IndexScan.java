@@ -0,0 +1,144 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexScan is an access method that reads the tuples of a table whose
+ * indexed field satisfies a predicate, by looking them up in an
+ * {@link IndexFile} instead of scanning the whole table. Tuples are returned
+ * in the order the index holds them: in the order of the indexed field for a
+ * {@link BTreeFile}.
+ */
+public class IndexScan implements OpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    final TransactionId tid;
+    private final IndexFile index;
+    private final String tableAlias;
+    private final Predicate.Op op;
+    private Field value;
+    int[] projection;
+    private transient DbFileIterator entries;
+    private transient Tuple next;
+    private transient boolean indexOnly;
+
+    /**
+     * Creates a scan of the tuples of an index's table whose indexed field
+     * satisfies <tt>field op value</tt>.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param index
+     *            the index to look the tuples up in.
+     * @param tableAlias
+     *            the alias of the table, as for {@link SeqScan}.
+     * @param op
+     *            the comparison; the comparisons the index supports (see
+     *            {@link IndexFile#supports}) read only the part of the index
+     *            that matches.
+     * @param value
+     *            the value the indexed field is compared to, or null to read
+     *            every tuple in the index's order.
+     */
+    public IndexScan(TransactionId tid, IndexFile index, String tableAlias, Predicate.Op op, Field value) {
+        this.tid = tid;
+        this.index = index;
+        this.tableAlias = tableAlias;
+        this.op = op;
+        this.value = value;
+    }
+
+    /** Returns the name of the index's table in the catalog. */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(index.getTableId());
+    }
+
+    /** Returns the alias of the table this scan reads. */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    /** Returns the index this scan reads. */
+    public IndexFile getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns the TupleDesc of the index's table, with field names prefixed
+     * with the table alias, as for {@link SeqScan#getTupleDesc}.
+     */
+    public TupleDesc getTupleDesc() {
+        return SeqScan.aliasedTupleDesc(Database.getCatalog().getTupleDesc(index.getTableId()), tableAlias);
+    }
+
+    /**
+     * Changes the value the indexed field is compared to, for the next time
+     * the scan is opened or rewound. {@link IndexNestedLoopJoin} uses this
+     * to look up each tuple of its outer relation.
+     */
+    public void setValue(Field value) {
+        this.value = value;
+    }
+
+    /**
+     * Tells the scan that only the given fields of its tuples will be read,
+     * as for {@link SeqScan#setProjection}. If the index covers them all
+     * (see {@link IndexFile#covers}), the tuples are built from the index
+     * entries and the table's pages are never read; otherwise the scan
+     * returns whole tuples.
+     *
+     * @param fields
+     *            the indexes of the fields to read, or null for all fields.
+     */
+    public void setProjection(int[] fields) {
+        this.projection = fields;
+    }
+
+    /** Returns true if this scan reads only the index, not the table. */
+    public boolean isIndexOnly() {
+        return index.covers(projection);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        entries = index.indexIterator(tid, op, value);
+        entries.open();
+        next = null;
+        indexOnly = isIndexOnly();
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (entries == null)
+            throw new IllegalStateException("IndexScan is not open");
+        while (next == null && entries.hasNext()) {
+            if (indexOnly) {
+                next = index.tuple(entries.next());
+                break;
+            }
+            RecordId rid = index.getRecordId(entries.next());
+            HeapFile table = (HeapFile) Database.getCatalog().getDatabaseFile(rid.getPageId().getTableId());
+            next = table.readTuple(tid, rid, Permissions.READ_ONLY);
+        }
+        return next != null;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Tuple t = next;
+        next = null;
+        return t;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        if (entries != null)
+            entries.close();
+        entries = null;
+        next = null;
+    }
+}
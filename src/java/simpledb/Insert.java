@@ -1,14 +1,24 @@
 package simpledb;
 
 import java.io.IOException;
+import java.util.ArrayList;
 
 /**
  * Inserts tuples read from the child operator into the tableId specified in the
  * constructor
+ * <p>
+ * When the child produces at least a page worth of tuples, and the table is a
+ * HeapFile, the tuples are bulk loaded: they are packed into new pages that
+ * are appended to the file (see {@link HeapFile#bulkInsert}), instead of being
+ * inserted one at a time.
  */
 public class Insert extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** Number of pages a bulk load fills before appending them to the file. */
+    public static final int BULK_BATCH_PAGES = 16;
+
     public TransactionId tid;
     public OpIterator feed;
     public int tableId;
@@ -16,6 +26,8 @@ public class Insert extends Operator {
     public TupleDesc td;
 
     public boolean been_called;
+    private final boolean bulkLoad;
+
     /**
      * Constructor.
      *
@@ -31,6 +43,27 @@ public class Insert extends Operator {
      */
     public Insert(TransactionId t, OpIterator child, int tableId)
             throws DbException {
+        this(t, child, tableId, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param t
+     *            The transaction running the insert.
+     * @param child
+     *            The child operator from which to read tuples to be inserted.
+     * @param tableId
+     *            The table in which to insert tuples.
+     * @param bulkLoad
+     *            If true, always bulk load the tuples; otherwise only do so
+     *            when the child produces at least a page worth of them.
+     * @throws DbException
+     *             if TupleDesc of child differs from table into which we are to
+     *             insert.
+     */
+    public Insert(TransactionId t, OpIterator child, int tableId, boolean bulkLoad)
+            throws DbException {
         TupleDesc table = Database.getCatalog().getDatabaseFile(tableId).getTupleDesc();
         if(!child.getTupleDesc().equals(table)){
             throw new DbException("table td must match tuple");
@@ -43,6 +76,7 @@ public class Insert extends Operator {
         String[] names=new String[] {"Number of modified tuples"};
         td = new TupleDesc(type,names);
         been_called=false;
+        this.bulkLoad=bulkLoad;
     }
 
     public TupleDesc getTupleDesc() {
@@ -82,12 +116,16 @@ public class Insert extends Operator {
         }
         been_called = true;
         int count=0;
-        while(feed.hasNext()){
-            try {
-                Database.getBufferPool().insertTuple(tid, tableId, feed.next());
-                count++;
-            } catch (IOException e) {
-                e.printStackTrace();
+        if (file instanceof HeapFile) {
+            count = bulkInsert((HeapFile) file);
+        } else {
+            while(feed.hasNext()){
+                try {
+                    Database.getBufferPool().insertTuple(tid, tableId, feed.next());
+                    count++;
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
             }
         }
         Tuple tup = new Tuple(getTupleDesc());
@@ -96,6 +134,56 @@ public class Insert extends Operator {
         return tup;
     }
 
+    /**
+     * Inserts the child's tuples into a HeapFile, bulk loading them a batch
+     * at a time if there are enough of them, or if bulk loading was asked
+     * for.
+     *
+     * @return the number of inserted tuples
+     */
+    private int bulkInsert(HeapFile hf) throws TransactionAbortedException, DbException {
+        int perPage = HeapPage.numSlots(hf.getTupleDesc());
+        ArrayList<Tuple> batch = new ArrayList<Tuple>();
+        boolean bulk = bulkLoad;
+        int count = 0;
+        try {
+            while (feed.hasNext()) {
+                batch.add(feed.next());
+                if (batch.size() >= perPage)
+                    bulk = true;
+                if (bulk && batch.size() >= perPage * BULK_BATCH_PAGES) {
+                    hf.bulkInsert(tid, batch);
+                    indexBatch(batch);
+                    count += batch.size();
+                    batch.clear();
+                }
+            }
+            if (bulk) {
+                hf.bulkInsert(tid, batch);
+                indexBatch(batch);
+            } else {
+                // too few to be worth new pages; fill free space instead
+                for (Tuple t : batch)
+                    Database.getBufferPool().insertTuple(tid, tableId, t);
+            }
+            count += batch.size();
+        } catch (IOException e) {
+            throw new DbException("insert failed: " + e.getMessage());
+        }
+        return count;
+    }
+
+    /**
+     * Adds index entries for tuples that were bulk loaded, which bypasses
+     * the index maintenance of {@link BufferPool#insertTuple}.
+     */
+    private void indexBatch(ArrayList<Tuple> batch)
+            throws DbException, IOException, TransactionAbortedException {
+        for (IndexFile index : Database.getCatalog().getIndexes(tableId))
+            for (Tuple t : batch)
+                Database.getBufferPool().insertTuple(tid, index.getId(), index.entry(t));
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[] {feed};
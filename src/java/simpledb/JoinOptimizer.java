@@ -68,12 +68,90 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
+        if (lj.indexJoin) {
+            j = instantiateIndexJoin(lj, p, plan1, plan2);
+            if (j != null)
+                return j;
+        }
         j = new Join(p,plan1,plan2);
 
         return j;
 
     }
 
+    /**
+     * Returns an index nested-loops join of plan1 with plan2, where plan2 is
+     * a scan of lj.t2, possibly under filters, that is replaced by a scan of
+     * an index on lj.f2; or null if plan2 is not such a scan.
+     */
+    private static OpIterator instantiateIndexJoin(LogicalJoinNode lj, JoinPredicate p,
+                                                   OpIterator plan1, OpIterator plan2) {
+        Operator parent = null;
+        OpIterator leaf = plan2;
+        while (leaf instanceof Filter) {
+            parent = (Filter) leaf;
+            leaf = parent.getChildren()[0];
+        }
+        TransactionId tid;
+        int tableid;
+        String alias;
+        int[] projection;
+        if (leaf instanceof SeqScan) {
+            tid = ((SeqScan) leaf).tid;
+            tableid = ((SeqScan) leaf).tableid;
+            alias = ((SeqScan) leaf).getAlias();
+            projection = ((SeqScan) leaf).projection;
+        } else if (leaf instanceof IndexScan) {
+            tid = ((IndexScan) leaf).tid;
+            tableid = ((IndexScan) leaf).getIndex().getTableId();
+            alias = ((IndexScan) leaf).getAlias();
+            projection = ((IndexScan) leaf).projection;
+        } else {
+            return null;
+        }
+        IndexFile index = joinIndex(tableid, lj.f2PureName, lj.p);
+        if (index == null)
+            return null;
+        // the index scan returns the same tuples as the scan it replaces,
+        // so the filters and the join predicate still apply to them
+        IndexScan probe = new IndexScan(tid, index, alias, Predicate.Op.EQUALS, null);
+        probe.setProjection(projection);
+        if (parent == null)
+            plan2 = probe;
+        else
+            parent.setChildren(new OpIterator[] { probe });
+        return new IndexNestedLoopJoin(p, plan1, plan2, probe);
+    }
+
+    /**
+     * Returns the index that is cheapest to look up the tuples of a table
+     * with in a join on one of its fields, or null if the join cannot use an
+     * index: only equality joins can.
+     *
+     * @param tableid
+     *            the id of the table
+     * @param field
+     *            the pure name of the table's join field
+     * @param op
+     *            the join predicate
+     */
+    static IndexFile joinIndex(int tableid, String field, Predicate.Op op) {
+        if (op != Predicate.Op.EQUALS)
+            return null;
+        int f;
+        try {
+            f = Database.getCatalog().getTupleDesc(tableid).fieldNameToIndex(field);
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+        IndexFile best = null;
+        for (IndexFile index : Database.getCatalog().getIndexes(tableid))
+            if (index.getKeyField() == f && index.supports(op)
+                    && (best == null || index.estimateProbePages() < best.estimateProbePages()))
+                best = index;
+        return best;
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -82,7 +160,10 @@ public class JoinOptimizer {
      * the amount of data that must be read over the course of the query, as
      * well as the number of CPU opertions performed by your join. Assume that
      * the cost of a single predicate application is roughly 1.
-     * 
+     * <p>
+     * If j.indexJoin is set, the cost is that of looking up the right-hand
+     * table in an index for each tuple of the left-hand side, rather than
+     * scanning it.
      * 
      * @param j
      *            A LogicalJoinNode representing the join operation being
@@ -111,10 +192,35 @@ public class JoinOptimizer {
             // HINT: You may need to use the variable "j" if you implemented
             // a join algorithm that's more complicated than a basic
             // nested-loops join.
+            if (j.indexJoin)
+                return estimateIndexJoinCost(j, card1, card2, cost1);
             return cost1 + card1*cost2 + card1*card2;
         }
     }
 
+    /**
+     * Estimate the cost of an index nested-loops join (see
+     * {@link IndexNestedLoopJoin}): a scan of the left-hand side, plus an
+     * index lookup for each of its tuples, which reads the index pages to
+     * the key and then a page for each matching tuple of the right-hand
+     * table, unless the index covers the fields of the table the query reads.
+     * 
+     * @return An estimate of the cost of the join, or Double.MAX_VALUE if
+     *         the right-hand table has no index the join can use
+     */
+    private double estimateIndexJoinCost(LogicalJoinNode j, int card1, int card2, double cost1) {
+        Integer tableid = p.getTableId(j.t2Alias);
+        IndexFile index = tableid == null ? null : joinIndex(tableid, j.f2PureName, j.p);
+        if (index == null)
+            return Double.MAX_VALUE;
+        // the matches of each lookup, as for estimateTableJoinCardinality
+        double matches = isPkey(j.t2Alias, j.f2PureName) ? 1
+                : Math.max(1.0, (double) Math.max(card1, card2) / Math.max(1, card1));
+        double pages = index.covers(p.projection(tableid, j.t2Alias)) ? 0 : matches;
+        return cost1 + card1 * (index.estimateProbePages() + pages) * TableStats.IOCOSTPERPAGE
+                + card1 * matches;
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -228,6 +334,9 @@ public class JoinOptimizer {
             HashMap<String, Double> filterSelectivities, boolean explain)
             throws ParsingException {
 
+        // a query over a single table has no joins to order
+        if (joins.isEmpty())
+            return joins;
         PlanCache cache = new PlanCache();
         Set<LogicalJoinNode> hash = new HashSet<LogicalJoinNode>(joins);
         Set<Set<LogicalJoinNode>> join = enumerateSubsets(joins,1);
@@ -386,6 +495,27 @@ public class JoinOptimizer {
 
         LogicalJoinNode j2 = j.swapInnerOuter();
         double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+
+        // an index join looks up the inner table, so it must be a base
+        // table rather than the result of earlier joins
+        if (!(j instanceof LogicalSubplanJoinNode)) {
+            if (!doesJoin(prevBest, j.t2Alias)) {
+                LogicalJoinNode ij = j.withIndexJoin();
+                double icost = estimateJoinCost(ij, t1card, t2card, t1cost, t2cost);
+                if (icost < cost1) {
+                    j = ij;
+                    cost1 = icost;
+                }
+            }
+            if (!doesJoin(prevBest, j2.t2Alias)) {
+                LogicalJoinNode ij = j2.withIndexJoin();
+                double icost = estimateJoinCost(ij, t2card, t1card, t2cost, t1cost);
+                if (icost < cost2) {
+                    j2 = ij;
+                    cost2 = icost;
+                }
+            }
+        }
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
@@ -0,0 +1,748 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LockManager keeps the locks of the BufferPool's transactions on records,
+ * pages and tables.
+ * <p>
+ * The lockable items form a hierarchy: a record ({@link RecordId}) is part
+ * of a page ({@link PageId}), which is part of a table (its table id, as an
+ * Integer). Besides shared (S) and exclusive (X) locks, which cover an item
+ * and everything under it, an item may be locked in an intention mode (IS,
+ * IX, or SIX, which is S and IX together), announcing shared or exclusive
+ * locks further down; see {@link Mode}. The lock manager only checks the
+ * modes against each other. It is up to the caller to lock the ancestors of
+ * an item in an intention mode first, and it may use {@link #countLocks}
+ * and {@link #releaseLocksUnder} to replace the locks a transaction holds
+ * under an item with one lock on the item.
+ * <p>
+ * Each item with locks held or asked for has a queue: the granted requests,
+ * and the waiting ones in the order they were made. A request is granted at
+ * once only if nobody is waiting ahead of it and it is compatible with every
+ * granted request; otherwise it joins the end of the queue, so a stream of
+ * readers cannot starve a writer. A transaction that holds a lock and asks
+ * for a stronger one is granted the weakest mode stronger than both, at once
+ * if it is compatible with the other holders, and is otherwise queued ahead
+ * of every other waiter.
+ * <p>
+ * A transaction releasing a lock hands it on: it grants the waiting requests
+ * at the head of the queue that have become compatible, and wakes each of
+ * their threads directly, rather than having every waiter poll.
+ * <p>
+ * The queues are partitioned into stripes by the hash of their items, each
+ * guarded by its own monitor, so transactions locking items in different
+ * stripes never contend. No operation holds more than one stripe's monitor
+ * at a time. The items each transaction holds are kept in a set of its own,
+ * which only that transaction's threads and the threads handing it locks
+ * touch.
+ * <p>
+ * Each waiting request has an edge in a waits-for graph to the transactions
+ * it waits for: the incompatible holders of its item and the transactions
+ * queued ahead of it. The edges of an item's waiters are updated under its
+ * stripe's monitor whenever its queue changes. While any request waits, a
+ * background detector looks for cycles in the graph every
+ * {@link #DETECTION_INTERVAL} ms, and breaks each by aborting the youngest
+ * transaction in it (the one with the highest id), whose wait then ends with
+ * a TransactionAbortedException. The edges of a cycle are read from
+ * different stripes at slightly different times, so they are checked again
+ * just before the victim is aborted.
+ * <p>
+ * Under the wound-wait and wait-die policies (see {@link DeadlockPolicy})
+ * each waiter is instead checked against the policy as its edges are set,
+ * along with the transactions its grant depends on (see
+ * {@link #updateWaitsFor}): the transaction the policy picks is marked,
+ * any wait of its is ended with an abort on the background thread, and
+ * each lock it asks for until it completes is refused with a
+ * TransactionAbortedException.
+ *
+ * @Threadsafe
+ */
+class LockManager {
+
+    /**
+     * The modes an item can be locked in, from weakest to strongest. Two
+     * transactions may hold locks on the same item at once only if their
+     * modes are compatible.
+     */
+    enum Mode {
+        /** Intention shared: S locks may be taken under the item. */
+        IS,
+        /** Intention exclusive: S or X locks may be taken under the item. */
+        IX,
+        /** Shared: the item and everything under it may be read. */
+        S,
+        /** S and IX together: the item is read and some of it is written. */
+        SIX,
+        /** Exclusive: the item and everything under it may be written. */
+        X;
+
+        private static final boolean[][] COMPATIBLE = {
+            //         IS     IX     S      SIX    X
+            /* IS  */ {true,  true,  true,  true,  false},
+            /* IX  */ {true,  true,  false, false, false},
+            /* S   */ {true,  false, true,  false, false},
+            /* SIX */ {true,  false, false, false, false},
+            /* X   */ {false, false, false, false, false},
+        };
+
+        private static final boolean[][] COVERS = {
+            //         IS     IX     S      SIX    X
+            /* IS  */ {true,  false, false, false, false},
+            /* IX  */ {true,  true,  false, false, false},
+            /* S   */ {true,  false, true,  false, false},
+            /* SIX */ {true,  true,  true,  true,  false},
+            /* X   */ {true,  true,  true,  true,  true},
+        };
+
+        /** Returns true if another transaction may hold m while this is held. */
+        boolean compatible(Mode m) {
+            return COMPATIBLE[ordinal()][m.ordinal()];
+        }
+
+        /** Returns true if holding this mode grants everything m does. */
+        boolean covers(Mode m) {
+            return COVERS[ordinal()][m.ordinal()];
+        }
+
+        /** Returns the weakest mode that covers both this one and m. */
+        Mode join(Mode m) {
+            if (covers(m))
+                return this;
+            if (m.covers(this))
+                return m;
+            // only IX and S are incomparable
+            return SIX;
+        }
+
+        /** Returns S for READ_ONLY and X for READ_WRITE. */
+        static Mode of(Permissions perm) {
+            return perm == Permissions.READ_WRITE ? X : S;
+        }
+
+        /** Returns IS for READ_ONLY and IX for READ_WRITE. */
+        static Mode intention(Permissions perm) {
+            return perm == Permissions.READ_WRITE ? IX : IS;
+        }
+    }
+
+    /**
+     * Returns the item the given one is part of: the page of a record, the
+     * table of a page, or null for a table.
+     */
+    static Object parent(Object item) {
+        if (item instanceof RecordId)
+            return ((RecordId) item).getPageId();
+        if (item instanceof PageId)
+            return ((PageId) item).getTableId();
+        return null;
+    }
+
+    /** A request by one transaction for a lock on one item. */
+    private static class Request {
+        final TransactionId tid;
+        final Object item;
+        final Mode mode;
+        // guarded by the request's own monitor as well as its stripe's
+        boolean granted;
+        // set when the request is chosen to break a deadlock
+        boolean aborted;
+
+        Request(TransactionId tid, Object item, Mode mode) {
+            this.tid = tid;
+            this.item = item;
+            this.mode = mode;
+        }
+    }
+
+    /**
+     * The items one transaction holds locks on, and how many of them are
+     * parts of each item, guarded by its own monitor.
+     */
+    private static class Held {
+        final Set<Object> items = new HashSet<Object>();
+        final HashMap<Object, Integer> under = new HashMap<Object, Integer>();
+
+        synchronized void add(Object item) {
+            Object p = parent(item);
+            if (items.add(item) && p != null)
+                under.put(p, count(p) + 1);
+        }
+
+        synchronized boolean remove(Object item) {
+            if (!items.remove(item))
+                return false;
+            Object p = parent(item);
+            if (p != null) {
+                int n = count(p) - 1;
+                if (n == 0)
+                    under.remove(p);
+                else
+                    under.put(p, n);
+            }
+            return true;
+        }
+
+        synchronized int count(Object item) {
+            Integer n = under.get(item);
+            return n == null ? 0 : n;
+        }
+
+        /** Removes and returns the items under the given one. */
+        synchronized List<Object> removeUnder(Object item) {
+            List<Object> removed = new ArrayList<Object>();
+            if (!under.containsKey(item))
+                return removed;
+            for (Object i : items) {
+                for (Object p = parent(i); p != null; p = parent(p)) {
+                    if (p.equals(item)) {
+                        removed.add(i);
+                        break;
+                    }
+                }
+            }
+            for (Object i : removed)
+                remove(i);
+            return removed;
+        }
+
+        synchronized List<Object> all() {
+            return new ArrayList<Object>(items);
+        }
+    }
+
+    /** The lock requests on one item. */
+    private static class LockQueue {
+        final List<Request> granted = new ArrayList<Request>(2);
+        final LinkedList<Request> waiting = new LinkedList<Request>();
+
+        /** Returns the request tid holds on the item, or null. */
+        Request holder(TransactionId tid) {
+            for (Request g : granted)
+                if (g.tid.equals(tid))
+                    return g;
+            return null;
+        }
+
+        /**
+         * Returns true if r is compatible with every granted request of other
+         * transactions.
+         */
+        boolean compatible(Request r) {
+            for (Request g : granted)
+                if (!g.tid.equals(r.tid) && !g.mode.compatible(r.mode))
+                    return false;
+            return true;
+        }
+
+        boolean isEmpty() {
+            return granted.isEmpty() && waiting.isEmpty();
+        }
+    }
+
+    /**
+     * One partition of the lock table: the queues of the items that hash to
+     * it, guarded by the stripe's monitor.
+     */
+    private static class Stripe {
+        final HashMap<Object, LockQueue> queues = new HashMap<Object, LockQueue>();
+    }
+
+    /** The number of stripes of the lock table, a power of two. */
+    static final int STRIPES = 64;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    // the items each transaction holds a lock on
+    private final ConcurrentHashMap<TransactionId, Held> held = new ConcurrentHashMap<TransactionId, Held>();
+    // the waits-for graph: the transactions each waiting request waits for
+    private final ConcurrentHashMap<Request, Set<TransactionId>> waitsFor = new ConcurrentHashMap<Request, Set<TransactionId>>();
+
+    /** How often the deadlock detector runs while requests wait, in ms. */
+    static final long DETECTION_INTERVAL = 50;
+
+    /** Background thread shared by all lock managers that breaks deadlocks. */
+    private static final ScheduledExecutorService detector = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "simpledb-deadlock-detector");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    // true while a run of the detector is scheduled
+    private final AtomicBoolean detecting = new AtomicBoolean();
+    private final DeadlockPolicy policy;
+    // transactions aborted by a prevention policy that have not completed
+    private final Set<TransactionId> wounded = ConcurrentHashMap.newKeySet();
+    private final AtomicLong deadlocks = new AtomicLong();
+    private final AtomicLong prevented = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+
+    /** Creates a lock manager that detects deadlocks. */
+    LockManager() {
+        this(DeadlockPolicy.DETECT);
+    }
+
+    /** The timeout of a wait that lasts until the lock is granted or the
+     * transaction is aborted. */
+    static final long NO_TIMEOUT = Long.MAX_VALUE;
+
+    /** Creates a lock manager that handles deadlocks with the given policy. */
+    LockManager(DeadlockPolicy policy) {
+        this.policy = policy;
+        for (int i = 0; i < STRIPES; i++)
+            stripes[i] = new Stripe();
+    }
+
+    /** Returns the stripe holding the queue of the given item. */
+    private Stripe stripe(Object item) {
+        int h = item.hashCode();
+        return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+
+    /**
+     * Acquires a shared or exclusive lock on a page for a transaction.
+     *
+     * @param perm READ_ONLY for a shared lock, READ_WRITE for an exclusive one
+     * @see #acquireLock(TransactionId, Object, Mode, long)
+     */
+    boolean acquireLock(TransactionId tid, PageId pid, Permissions perm, long timeout)
+            throws TransactionAbortedException {
+        return acquireLock(tid, pid, Mode.of(perm), timeout);
+    }
+
+    /**
+     * Acquires a lock on an item for a transaction, waiting in the item's
+     * queue for at most the given time if it cannot be granted at once. A
+     * transaction that already holds the item in a mode that covers the one
+     * asked for keeps it.
+     *
+     * @param tid the transaction
+     * @param item the record, page or table id
+     * @param mode the mode to lock it in
+     * @param timeout the longest time to wait, in milliseconds; 0 not to wait,
+     *                or {@link #NO_TIMEOUT} to wait for as long as it takes
+     * @return true if the lock was acquired, false if the wait timed out
+     * @throws TransactionAbortedException if the transaction was chosen to
+     *         break or prevent a deadlock, or the thread was interrupted while
+     *         waiting
+     */
+    boolean acquireLock(TransactionId tid, Object item, Mode mode, long timeout)
+            throws TransactionAbortedException {
+        if (wounded.contains(tid))
+            throw new TransactionAbortedException();
+        Stripe s = stripe(item);
+        Request r;
+        synchronized (s) {
+            LockQueue q = s.queues.get(item);
+            if (q == null) {
+                q = new LockQueue();
+                s.queues.put(item, q);
+            }
+            Request holding = q.holder(tid);
+            if (holding != null) {
+                if (holding.mode.covers(mode))
+                    return true;
+                r = new Request(tid, item, holding.mode.join(mode));
+                // an upgrade waits for the other holders only
+                if (q.compatible(r)) {
+                    q.granted.remove(holding);
+                    q.granted.add(r);
+                    r.granted = true;
+                    return true;
+                }
+                int i = 0;
+                while (i < q.waiting.size() && q.holder(q.waiting.get(i).tid) != null)
+                    i++;
+                q.waiting.add(i, r);
+            } else {
+                r = new Request(tid, item, mode);
+                if (q.waiting.isEmpty() && q.compatible(r)) {
+                    grant(q, r);
+                    return true;
+                }
+                q.waiting.add(r);
+            }
+            if (timeout <= 0) {
+                cancel(s, q, r);
+                return false;
+            }
+            updateWaitsFor(q);
+            if (wounded.contains(tid)) {
+                cancel(s, q, r);
+                throw new TransactionAbortedException();
+            }
+        }
+        if (policy == DeadlockPolicy.DETECT)
+            scheduleDetector();
+
+        boolean interrupted = false;
+        try {
+            synchronized (r) {
+                long deadline = System.nanoTime() + timeout * 1000000L;
+                while (!r.granted && !r.aborted) {
+                    if (timeout == NO_TIMEOUT) {
+                        r.wait();
+                        continue;
+                    }
+                    long left = deadline - System.nanoTime();
+                    if (left <= 0)
+                        break;
+                    r.wait(left / 1000000L, (int) (left % 1000000L));
+                }
+            }
+        } catch (InterruptedException e) {
+            interrupted = true;
+        } finally {
+            synchronized (s) {
+                if (!r.granted && !r.aborted)
+                    cancel(s, s.queues.get(item), r);
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        if (r.granted)
+            return true;
+        if (r.aborted || interrupted)
+            throw new TransactionAbortedException();
+        timeouts.incrementAndGet();
+        return false;
+    }
+
+    /** Returns true if the transaction holds a lock on the item. */
+    boolean holdsLock(TransactionId tid, Object item) {
+        return getMode(tid, item) != null;
+    }
+
+    /**
+     * Returns the mode the transaction holds the item in, or null if it
+     * holds no lock on it.
+     */
+    Mode getMode(TransactionId tid, Object item) {
+        Stripe s = stripe(item);
+        synchronized (s) {
+            LockQueue q = s.queues.get(item);
+            Request holding = q == null ? null : q.holder(tid);
+            return holding == null ? null : holding.mode;
+        }
+    }
+
+    /**
+     * Returns the number of parts of the given item, e.g. the records of a
+     * page, that the transaction holds locks on.
+     */
+    int countLocks(TransactionId tid, Object item) {
+        Held h = held.get(tid);
+        return h == null ? 0 : h.count(item);
+    }
+
+    /** Releases the transaction's lock on an item, if it holds one. */
+    void releaseLock(TransactionId tid, Object item) {
+        Held h = held.get(tid);
+        if (h == null || !h.remove(item))
+            return;
+        release(tid, item);
+    }
+
+    /**
+     * Releases the transaction's locks on the items under the given one,
+     * once a lock it holds on that item covers them.
+     */
+    void releaseLocksUnder(TransactionId tid, Object item) {
+        Held h = held.get(tid);
+        if (h == null)
+            return;
+        for (Object i : h.removeUnder(item))
+            release(tid, i);
+    }
+
+    /**
+     * Releases every lock the transaction holds, once it has completed. It
+     * may then ask for locks again even if it was aborted to prevent a
+     * deadlock.
+     */
+    void releaseAllLocks(TransactionId tid) {
+        Held h = held.remove(tid);
+        if (h != null) {
+            for (Object item : h.all())
+                release(tid, item);
+        }
+        // last, in case it was wounded while its locks were being released
+        wounded.remove(tid);
+    }
+
+    /** Removes tid's granted request from an item's queue and hands it on. */
+    private void release(TransactionId tid, Object item) {
+        Stripe s = stripe(item);
+        synchronized (s) {
+            LockQueue q = s.queues.get(item);
+            if (q == null)
+                return;
+            q.granted.remove(q.holder(tid));
+            grantWaiting(q);
+            if (q.isEmpty())
+                s.queues.remove(item);
+        }
+    }
+
+    /**
+     * Removes a request that was not granted from its item's queue, which may
+     * let the requests behind it be granted.
+     */
+    private void cancel(Stripe s, LockQueue q, Request r) {
+        q.waiting.remove(r);
+        waitsFor.remove(r);
+        grantWaiting(q);
+        if (q.isEmpty())
+            s.queues.remove(r.item);
+    }
+
+    /** Grants the waiting requests at the head of the queue that it can. */
+    private void grantWaiting(LockQueue q) {
+        while (!q.waiting.isEmpty() && q.compatible(q.waiting.getFirst())) {
+            Request r = q.waiting.removeFirst();
+            Request holding = q.holder(r.tid);
+            if (holding != null)
+                q.granted.remove(holding);
+            waitsFor.remove(r);
+            grant(q, r);
+            synchronized (r) {
+                r.notify();
+            }
+        }
+        updateWaitsFor(q);
+    }
+
+    /**
+     * Sets the edges of the waits-for graph of every waiter of the queue, and
+     * checks the waits against the prevention policy, if any.
+     * <p>
+     * A waiter's edges go to the holders whose modes conflict with its own
+     * and to every waiter ahead of it, since the queue is granted in order.
+     * The prevention policies compare it instead with the transactions its
+     * grant depends on: the conflicting holders, the waiters ahead whose
+     * modes conflict with its own, and, for each compatible waiter ahead,
+     * the transactions that waiter's grant depends on, since it is granted
+     * no sooner. So under wait-die a transaction older than all of those
+     * waits, even if it is queued behind an older one that asked for a
+     * compatible mode; if that one or a younger one could not be granted
+     * before it, it dies.
+     */
+    private void updateWaitsFor(LockQueue q) {
+        Set<TransactionId> ahead = new HashSet<TransactionId>();
+        Map<Request, Set<TransactionId>> dependsOn = new HashMap<Request, Set<TransactionId>>();
+        for (Request w : q.waiting) {
+            Set<TransactionId> blockers = new HashSet<TransactionId>(ahead);
+            Set<TransactionId> conflicts = new HashSet<TransactionId>();
+            for (Request g : q.granted) {
+                if (!g.mode.compatible(w.mode)) {
+                    blockers.add(g.tid);
+                    conflicts.add(g.tid);
+                }
+            }
+            for (Map.Entry<Request, Set<TransactionId>> e : dependsOn.entrySet()) {
+                if (e.getKey().mode.compatible(w.mode))
+                    conflicts.addAll(e.getValue());
+                else
+                    conflicts.add(e.getKey().tid);
+            }
+            blockers.remove(w.tid);
+            conflicts.remove(w.tid);
+            waitsFor.put(w, blockers);
+            dependsOn.put(w, conflicts);
+            ahead.add(w.tid);
+            for (TransactionId b : conflicts) {
+                if (policy == DeadlockPolicy.WAIT_DIE && b.getId() < w.tid.getId())
+                    wound(w.tid);
+                else if (policy == DeadlockPolicy.WOUND_WAIT && w.tid.getId() < b.getId())
+                    wound(b);
+            }
+        }
+    }
+
+    /**
+     * Marks a transaction as aborted by the prevention policy, and ends its
+     * waits, if any, on the background thread: it may wait on an item of
+     * another stripe, whose monitor cannot be taken while this one is held.
+     */
+    private void wound(final TransactionId victim) {
+        if (wounded.add(victim)) {
+            prevented.incrementAndGet();
+            detector.execute(new Runnable() {
+                public void run() {
+                    abort(victim, null);
+                }
+            });
+        }
+    }
+
+    private void grant(LockQueue q, Request r) {
+        q.granted.add(r);
+        Held h = held.get(r.tid);
+        if (h == null) {
+            Held created = new Held();
+            h = held.putIfAbsent(r.tid, created);
+            if (h == null)
+                h = created;
+        }
+        h.add(r.item);
+        synchronized (r) {
+            r.granted = true;
+        }
+    }
+
+    /** Returns the policy this lock manager handles deadlocks with. */
+    DeadlockPolicy getPolicy() {
+        return policy;
+    }
+
+    /** Returns the number of deadlocks the detector has broken. */
+    long getDeadlocks() {
+        return deadlocks.get();
+    }
+
+    /**
+     * Returns the number of transactions aborted by the wound-wait or
+     * wait-die policy.
+     */
+    long getPreventionAborts() {
+        return prevented.get();
+    }
+
+    /** Returns the number of lock waits that timed out. */
+    long getTimeouts() {
+        return timeouts.get();
+    }
+
+    /**
+     * Schedules a run of the deadlock detector, unless one is scheduled
+     * already. Each run schedules the next while any request waits.
+     */
+    private void scheduleDetector() {
+        if (detecting.compareAndSet(false, true)) {
+            detector.schedule(new Runnable() {
+                public void run() {
+                    try {
+                        detectDeadlocks();
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    } finally {
+                        detecting.set(false);
+                        if (!waitsFor.isEmpty())
+                            scheduleDetector();
+                    }
+                }
+            }, DETECTION_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Finds the cycles of the waits-for graph, and aborts the youngest
+     * transaction of each.
+     */
+    void detectDeadlocks() {
+        HashMap<TransactionId, Set<TransactionId>> graph = new HashMap<TransactionId, Set<TransactionId>>();
+        for (Map.Entry<Request, Set<TransactionId>> e : waitsFor.entrySet()) {
+            TransactionId tid = e.getKey().tid;
+            Set<TransactionId> out = graph.get(tid);
+            if (out == null) {
+                out = new HashSet<TransactionId>();
+                graph.put(tid, out);
+            }
+            out.addAll(e.getValue());
+        }
+        List<TransactionId> cycle;
+        while ((cycle = findCycle(graph)) != null) {
+            TransactionId victim = Collections.max(cycle, new Comparator<TransactionId>() {
+                public int compare(TransactionId a, TransactionId b) {
+                    return Long.compare(a.getId(), b.getId());
+                }
+            });
+            if (stillWaits(cycle))
+                abort(victim, deadlocks);
+            graph.remove(victim);
+        }
+    }
+
+    /** Returns the transactions of a cycle of the graph, or null if none. */
+    private static List<TransactionId> findCycle(Map<TransactionId, Set<TransactionId>> graph) {
+        Set<TransactionId> done = new HashSet<TransactionId>();
+        for (TransactionId start : graph.keySet()) {
+            LinkedList<TransactionId> path = new LinkedList<TransactionId>();
+            List<TransactionId> cycle = findCycle(graph, start, path, new HashSet<TransactionId>(), done);
+            if (cycle != null)
+                return cycle;
+        }
+        return null;
+    }
+
+    private static List<TransactionId> findCycle(Map<TransactionId, Set<TransactionId>> graph, TransactionId cur,
+            LinkedList<TransactionId> path, Set<TransactionId> onPath, Set<TransactionId> done) {
+        if (onPath.contains(cur))
+            return new ArrayList<TransactionId>(path.subList(path.indexOf(cur), path.size()));
+        Set<TransactionId> out = graph.get(cur);
+        if (out == null || !done.add(cur))
+            return null;
+        path.addLast(cur);
+        onPath.add(cur);
+        for (TransactionId next : out) {
+            List<TransactionId> cycle = findCycle(graph, next, path, onPath, done);
+            if (cycle != null)
+                return cycle;
+        }
+        path.removeLast();
+        onPath.remove(cur);
+        return null;
+    }
+
+    /** Returns true if each transaction of the cycle still waits for the next. */
+    private boolean stillWaits(List<TransactionId> cycle) {
+        for (int i = 0; i < cycle.size(); i++) {
+            TransactionId from = cycle.get(i);
+            TransactionId to = cycle.get((i + 1) % cycle.size());
+            boolean waits = false;
+            for (Map.Entry<Request, Set<TransactionId>> e : waitsFor.entrySet())
+                waits |= e.getKey().tid.equals(from) && e.getValue().contains(to);
+            if (!waits)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Ends the waits of a transaction's requests with an abort. Returns false
+     * if none of them is still waiting.
+     *
+     * @param counter bumped if any wait is ended, before the waiter is woken
+     *        up, or null
+     */
+    private boolean abort(TransactionId victim, AtomicLong counter) {
+        boolean aborted = false;
+        for (Request r : waitsFor.keySet()) {
+            if (!r.tid.equals(victim))
+                continue;
+            Stripe s = stripe(r.item);
+            synchronized (s) {
+                LockQueue q = s.queues.get(r.item);
+                if (r.granted || q == null || !q.waiting.contains(r))
+                    continue;
+                cancel(s, q, r);
+                if (!aborted && counter != null)
+                    counter.incrementAndGet();
+                synchronized (r) {
+                    r.aborted = true;
+                    r.notify();
+                }
+                aborted = true;
+            }
+        }
+        return aborted;
+    }
+}
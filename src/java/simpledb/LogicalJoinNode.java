@@ -23,6 +23,11 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /** Whether the join looks up the tuples of t2 in an index on f2 for each
+     * tuple of t1 (see {@link IndexNestedLoopJoin}); chosen by the
+     * JoinOptimizer. */
+    public boolean indexJoin;
+
     public LogicalJoinNode() {
     }
 
@@ -63,6 +68,14 @@ public class LogicalJoinNode {
         return j2;
     }
     
+    /** Return a new LogicalJoinNode like this one, that is executed as an
+     * index nested-loops join. */
+    public LogicalJoinNode withIndexJoin() {
+        LogicalJoinNode j2 = new LogicalJoinNode(t1Alias,t2Alias,f1PureName,f2PureName,p);
+        j2.indexJoin = true;
+        return j2;
+    }
+
     @Override public boolean equals(Object o) {
         LogicalJoinNode j2 =(LogicalJoinNode)o;
         return (j2.t1Alias.equals(t1Alias)  || j2.t1Alias.equals(t2Alias)) && (j2.t2Alias.equals(t1Alias)  || j2.t2Alias.equals(t2Alias));
@@ -2,9 +2,12 @@ package simpledb;
 import java.util.Map;
 import java.util.Vector;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
@@ -271,6 +274,120 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /**
+     * Returns the qualified names of the fields of the base tables that the
+     * query reads, or null if it reads all of them (SELECT *).
+     */
+    private Set<String> fieldsRead() {
+        Set<String> names = new HashSet<String>();
+        for (LogicalSelectListNode si : selectList)
+            names.add(si.fname);
+        if (hasAgg) {
+            names.add(aggField);
+            names.add(groupByField);
+        }
+        if (hasOrderBy)
+            names.add(oByField);
+        for (LogicalFilterNode lf : filters)
+            names.add(lf.fieldQuantifiedName);
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1QuantifiedName);
+            names.add(lj.f2QuantifiedName);
+        }
+        names.remove(null);
+        for (String name : names)
+            if (name.endsWith("*"))
+                return null;
+        return names;
+    }
+
+    /**
+     * Returns the indexes of the fields of a table that the query reads, or
+     * null if it reads all of them.
+     *
+     * @param tableId the id of the table
+     * @param alias the alias of the table in the query
+     */
+    int[] projection(int tableId, String alias) {
+        Set<String> fieldsRead = fieldsRead();
+        if (fieldsRead == null)
+            return null;
+        TupleDesc td = SeqScan.aliasedTupleDesc(Database.getCatalog().getTupleDesc(tableId), alias);
+        ArrayList<Integer> read = new ArrayList<Integer>();
+        for (int i = 0; i < td.numFields(); i++)
+            if (fieldsRead.contains(td.getFieldName(i)))
+                read.add(i);
+        int[] projection = new int[read.size()];
+        for (int i = 0; i < projection.length; i++)
+            projection[i] = read.get(i);
+        return projection;
+    }
+
+    /** Returns the value of a filter's constant as a field of the given type. */
+    private static Field constant(Type type, String c) {
+        if (type == Type.INT_TYPE)
+            return new IntField(new Integer(c).intValue());
+        return new StringField(c, Type.STRING_LEN);
+    }
+
+    /**
+     * Returns a scan of an index on a table that is cheaper than scanning
+     * the whole table, or null if there is none. Filters comparing an
+     * indexed field with a constant, using a comparison the index supports,
+     * can use an index; the filter is still applied to the tuples the scan
+     * returns. An index that covers all the fields the query reads can also
+     * be scanned in full instead of the table, and never reads the table.
+     *
+     * @param stats the table's statistics, or null if there are none, in
+     *     which case only equality filters use an index
+     * @param projection the fields of the table the query reads, or null
+     *     for all of them
+     */
+    private IndexScan indexScan(TransactionId t, LogicalScanNode table, TableStats stats, int[] projection) {
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+        IndexScan best = null;
+        double bestCost = stats == null ? Double.MAX_VALUE : stats.estimateScanCost();
+        List<IndexFile> indexes = Database.getCatalog().getIndexes(table.t);
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(table.alias))
+                continue;
+            int field;
+            try {
+                field = td.fieldNameToIndex(lf.fieldPureName);
+            } catch (NoSuchElementException e) {
+                continue;
+            }
+            Field value = constant(td.getFieldType(field), lf.c);
+            for (IndexFile index : indexes) {
+                if (index.getKeyField() != field || !index.supports(lf.p))
+                    continue;
+                double cost;
+                if (stats == null)
+                    cost = lf.p == Predicate.Op.EQUALS ? index.estimateProbePages() : Double.MAX_VALUE;
+                else if (index.covers(projection))
+                    cost = stats.estimateIndexOnlyScanCost(index, stats.estimateSelectivity(field, lf.p, value));
+                else
+                    cost = stats.estimateIndexScanCost(index, stats.estimateSelectivity(field, lf.p, value));
+                if (cost < bestCost) {
+                    best = new IndexScan(t, index, table.alias, lf.p, value);
+                    bestCost = cost;
+                }
+            }
+        }
+        if (stats != null) {
+            for (IndexFile index : indexes) {
+                if (!index.covers(projection))
+                    continue;
+                double cost = stats.estimateIndexOnlyScanCost(index, 1.0);
+                if (cost < bestCost) {
+                    best = new IndexScan(t, index, table.alias, null, null);
+                    bestCost = cost;
+                }
+            }
+        }
+        return best;
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link OpIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned OpIterator will run as a part of
@@ -289,6 +406,7 @@ public class LogicalPlan {
         HashMap<String,String> equivMap = new HashMap<String,String>();
         HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String,TableStats> statsMap = new HashMap<String,TableStats>();
+        HashMap<String,SeqScan> scans = new HashMap<String,SeqScan>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
@@ -298,9 +416,20 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
+            // scan only the fields the rest of the plan reads
+            int[] projection = projection(table.t, table.alias);
+            if (projection != null)
+                ss.setProjection(projection);
             
-            subplanMap.put(table.alias,ss);
             String baseTableName = Database.getCatalog().getTableName(table.t);
+            IndexScan is = indexScan(t, table, baseTableStats.get(baseTableName), projection);
+            if (is != null) {
+                is.setProjection(projection);
+                subplanMap.put(table.alias,is);
+            } else {
+                subplanMap.put(table.alias,ss);
+                scans.put(table.alias,ss);
+            }
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
             filterSelectivities.put(table.alias, 1.0);
 
@@ -323,10 +452,7 @@ public class LogicalPlan {
             } catch (java.util.NoSuchElementException e) {
                 throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
             }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c).intValue());
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
+            f = constant(ftyp, lf.c);
 
             Predicate p = null;
             try {
@@ -335,6 +461,9 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
             subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            // let the scan skip pages that cannot match
+            if (scans.containsKey(lf.tableAlias))
+                scans.get(lf.tableAlias).addPredicate(p);
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
@@ -0,0 +1,155 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum). Each page remembers the
+ * times of its last K references; the victim is the clean page whose K-th
+ * most recent reference lies furthest in the past. Pages referenced fewer
+ * than K times have an infinite backward K-distance and go first, oldest
+ * first, so a one-shot scan page never outlives a page that is hit
+ * repeatedly.
+ * <p>
+ * Resident pages are kept in a tree ordered by K-th reference time, so an
+ * access or an eviction costs O(log n) rather than a scan of the pool. The
+ * reference history of recently evicted pages is retained (up to the pool
+ * size) so that a page that is re-read soon after eviction is recognised as
+ * hot.
+ */
+public class LruKPolicy implements ReplacementPolicy {
+
+    /** Default number of references tracked per page (LRU-2). */
+    public static final int DEFAULT_K = 2;
+
+    private static class Entry implements Comparable<Entry> {
+        final PageId pid;
+        final long seq; // breaks ties so distinct pages never compare equal
+        final long[] history; // history[0] is the most recent reference
+        int count;
+
+        Entry(PageId pid, long seq, int k) {
+            this.pid = pid;
+            this.seq = seq;
+            this.history = new long[k];
+            this.count = 0;
+        }
+
+        /** Forgets all but one reference, placed before any real one. */
+        void forget() {
+            Arrays.fill(history, 0);
+            count = 1;
+        }
+
+        void reference(long now) {
+            System.arraycopy(history, 0, history, 1, history.length - 1);
+            history[0] = now;
+            if (count < history.length)
+                count++;
+        }
+
+        /** The K-th most recent reference, or -1 if there are fewer than K. */
+        long kth() {
+            return count < history.length ? -1 : history[history.length - 1];
+        }
+
+        public int compareTo(Entry o) {
+            if (kth() != o.kth())
+                return kth() < o.kth() ? -1 : 1;
+            if (history[0] != o.history[0])
+                return history[0] < o.history[0] ? -1 : 1;
+            return seq < o.seq ? -1 : seq > o.seq ? 1 : 0;
+        }
+    }
+
+    private final int k;
+    private long clock;
+    private long entries;
+    private final HashMap<PageId, Entry> resident;
+    private final TreeSet<Entry> order;
+    private final LinkedHashMap<PageId, Entry> retained;
+
+    /**
+     * Creates an LRU-2 policy for a pool of the given size.
+     *
+     * @param numPages the number of frames in the buffer pool
+     */
+    public LruKPolicy(int numPages) {
+        this(numPages, DEFAULT_K);
+    }
+
+    /**
+     * Creates an LRU-K policy for a pool of the given size.
+     *
+     * @param numPages the number of frames in the buffer pool
+     * @param k the number of references to track per page
+     */
+    public LruKPolicy(final int numPages, int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("K must be at least 1");
+        this.k = k;
+        this.clock = 0;
+        this.entries = 0;
+        this.resident = new HashMap<PageId, Entry>();
+        this.order = new TreeSet<Entry>();
+        this.retained = new LinkedHashMap<PageId, Entry>() {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<PageId, Entry> eldest) {
+                return size() > numPages;
+            }
+        };
+    }
+
+    public synchronized void pageLoaded(PageId pid) {
+        Entry e = resident.get(pid);
+        if (e == null) {
+            e = retained.remove(pid);
+            if (e == null)
+                e = new Entry(pid, entries++, k);
+            resident.put(pid, e);
+        } else {
+            order.remove(e);
+        }
+        e.reference(++clock);
+        order.add(e);
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        Entry e = resident.get(pid);
+        if (e == null)
+            return;
+        order.remove(e);
+        e.reference(++clock);
+        order.add(e);
+    }
+
+    public synchronized void pageDemoted(PageId pid) {
+        Entry e = resident.get(pid);
+        if (e == null)
+            return;
+        order.remove(e);
+        e.forget();
+        order.add(e);
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        Entry e = resident.remove(pid);
+        if (e != null)
+            order.remove(e);
+    }
+
+    public synchronized PageId chooseVictim(Map<PageId, Page> frames) {
+        Iterator<Entry> it = order.iterator();
+        while (it.hasNext()) {
+            Entry e = it.next();
+            Page p = frames.get(e.pid);
+            if (p != null && p.isDirty() != null)
+                continue;
+            it.remove();
+            resident.remove(e.pid);
+            retained.put(e.pid, e);
+            return e.pid;
+        }
+        return null;
+    }
+}
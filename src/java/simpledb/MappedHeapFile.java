@@ -0,0 +1,137 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * MappedHeapFile is a read-only HeapFile whose pages are read straight out
+ * of a memory mapping of the file rather than through read calls. It is
+ * meant for large tables that are only ever scanned: the operating system's
+ * page cache holds the data, and since a page can be rebuilt from the
+ * mapping without any I/O, scans keep very few of its pages in the
+ * BufferPool (see {@link HeapFileIterator}).
+ * <p>
+ * The file is mapped in segments of about a gigabyte, each holding a whole
+ * number of pages, as a single mapping cannot exceed 2GB. Segments are
+ * mapped when first used. Inserting, deleting or writing pages fails.
+ * <p>
+ * A table is loaded as a MappedHeapFile by adding the option
+ * <tt>mapped</tt> after its schema in the catalog file (see
+ * {@link Catalog#loadSchema}).
+ *
+ * @see HeapFile
+ * @see HeapPage#HeapPage(HeapPageId, java.nio.ByteBuffer)
+ */
+public class MappedHeapFile extends HeapFile {
+
+    /** Approximate size of the regions the file is mapped in. */
+    private static final long SEGMENT_BYTES = 1L << 30;
+
+    private final ArrayList<MappedByteBuffer> segments;
+
+    /**
+     * Constructs a read-only heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     */
+    public MappedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+        this.segments = new ArrayList<MappedByteBuffer>();
+    }
+
+    /** Returns the number of pages in each mapped segment. */
+    private static int segmentPages() {
+        return (int) Math.max(1, SEGMENT_BYTES / BufferPool.getPageSize());
+    }
+
+    /**
+     * Returns the segment holding the given page, mapping it first if it is
+     * not mapped yet or was mapped before the file grew to include the page.
+     */
+    private synchronized ByteBuffer segment(int pageNo) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        int seg = pageNo / segmentPages();
+        long start = (long) seg * segmentPages() * pageSize;
+        long end = (long) (pageNo + 1) * pageSize;
+        while (segments.size() <= seg)
+            segments.add(null);
+        MappedByteBuffer buf = segments.get(seg);
+        if (buf == null || start + buf.capacity() < end) {
+            FileHandleCache handles = Database.getFileHandleCache();
+            FileChannel ch = handles.acquire(getFile());
+            try {
+                long size = Math.min((long) segmentPages() * pageSize, ch.size() - start);
+                buf = ch.map(FileChannel.MapMode.READ_ONLY, start, size);
+            } finally {
+                handles.release(getFile());
+            }
+            segments.set(seg, buf);
+        }
+        return buf;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (this.getId() != pid.getTableId()) return null;
+        if (pid.getPageNumber() < 0 || pid.getPageNumber() >= this.numPages()) return null;
+        try {
+            int pageSize = BufferPool.getPageSize();
+            int offset = (pid.getPageNumber() % segmentPages()) * pageSize;
+            ByteBuffer page = segment(pid.getPageNumber()).duplicate();
+            page.position(offset);
+            page.limit(offset + pageSize);
+            return new HeapPage(new HeapPageId(pid.getTableId(), pid.getPageNumber()), page.slice());
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // see HeapFile.java for javadocs
+    public List<Page> readPages(int first, int count) throws IOException {
+        count = Math.min(count, numPages() - first);
+        List<Page> pages = new ArrayList<Page>();
+        for (int i = 0; i < count; i++) {
+            Page p = readPage(new HeapPageId(getId(), first + i));
+            if (p == null) throw new IOException("could not read page " + (first + i));
+            pages.add(p);
+        }
+        return pages;
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        throw new IOException("Table is mapped read-only.");
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t) throws DbException {
+        throw new DbException("Table is mapped read-only.");
+    }
+
+    @Override
+    public int compactPage(TransactionId tid, int pageNo) throws DbException {
+        throw new DbException("Table is mapped read-only.");
+    }
+
+    @Override
+    public int truncateEmptyPages(TransactionId tid) throws DbException {
+        throw new DbException("Table is mapped read-only.");
+    }
+
+    @Override
+    public ArrayList<Page> bulkInsert(TransactionId tid, List<Tuple> tuples) throws DbException {
+        throw new DbException("Table is mapped read-only.");
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException {
+        throw new DbException("Table is mapped read-only.");
+    }
+}
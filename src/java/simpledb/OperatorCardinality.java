@@ -29,6 +29,9 @@ public class OperatorCardinality {
         } else if (o instanceof HashEquiJoin) {
             return updateHashEquiJoinCardinality((HashEquiJoin) o,
                     tableAliasToId, tableStats);
+        } else if (o instanceof IndexNestedLoopJoin) {
+            return updateIndexJoinCardinality((IndexNestedLoopJoin) o,
+                    tableAliasToId, tableStats);
         } else if (o instanceof Aggregate) {
             return updateAggregateCardinality((Aggregate) o, tableAliasToId,
                     tableStats);
@@ -45,6 +48,10 @@ public class OperatorCardinality {
                     childC = tableStats.get(
                             ((SeqScan) children[0]).getTableName())
                             .estimateTableCardinality(1.0);
+                } else if (children[0] instanceof IndexScan) {
+                    childC = tableStats.get(
+                            ((IndexScan) children[0]).getTableName())
+                            .estimateTableCardinality(1.0);
                 }
             }
             o.setEstimatedCardinality(childC);
@@ -82,6 +89,12 @@ public class OperatorCardinality {
                         ((SeqScan) child).getTableName())
                         .estimateTableCardinality(1.0) * selectivity) + 1);
                 return false;
+            } else if (child instanceof IndexScan) {
+                // the scan returns only tuples that may satisfy the filter
+                f.setEstimatedCardinality((int) (tableStats.get(
+                        ((IndexScan) child).getTableName())
+                        .estimateTableCardinality(1.0) * selectivity) + 1);
+                return false;
             }
         }
         f.setEstimatedCardinality(1);
@@ -201,6 +214,61 @@ public class OperatorCardinality {
         return child1HasJoinPK || child2HasJoinPK;
     }
 
+    private static boolean updateIndexJoinCardinality(IndexNestedLoopJoin j,
+            Map<String, Integer> tableAliasToId,
+            Map<String, TableStats> tableStats) {
+
+        OpIterator[] children = j.getChildren();
+        OpIterator child1 = children[0];
+        OpIterator child2 = children[1];
+        int child1Card = 1;
+        int child2Card = 1;
+
+        String[] tmp1 = j.getJoinField1Name().split("[.]");
+        String tableAlias1 = tmp1[0];
+        String pureFieldName1 = tmp1[1];
+        String[] tmp2 = j.getJoinField2Name().split("[.]");
+        String tableAlias2 = tmp2[0];
+        String pureFieldName2 = tmp2[1];
+
+        boolean child1HasJoinPK = Database.getCatalog()
+                .getPrimaryKey(tableAliasToId.get(tableAlias1))
+                .equals(pureFieldName1);
+        boolean child2HasJoinPK = Database.getCatalog()
+                .getPrimaryKey(tableAliasToId.get(tableAlias2))
+                .equals(pureFieldName2);
+
+        if (child1 instanceof Operator) {
+            Operator child1O = (Operator) child1;
+            boolean pk = updateOperatorCardinality(child1O, tableAliasToId,
+                    tableStats);
+            child1HasJoinPK = pk || child1HasJoinPK;
+            child1Card = child1O.getEstimatedCardinality();
+            child1Card = child1Card > 0 ? child1Card : 1;
+        } else if (child1 instanceof SeqScan) {
+            child1Card = tableStats.get(((SeqScan) child1)
+                    .getTableName()).estimateTableCardinality(1.0);
+        }
+
+        if (child2 instanceof Operator) {
+            Operator child2O = (Operator) child2;
+            boolean pk = updateOperatorCardinality(child2O, tableAliasToId,
+                    tableStats);
+            child2HasJoinPK = pk || child2HasJoinPK;
+            child2Card = child2O.getEstimatedCardinality();
+            child2Card = child2Card > 0 ? child2Card : 1;
+        } else if (child2 instanceof IndexScan) {
+            child2Card = tableStats.get(((IndexScan) child2)
+                    .getTableName()).estimateTableCardinality(1.0);
+        }
+
+        j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
+                .getJoinPredicate().getOperator(), tableAlias1, tableAlias2,
+                pureFieldName1, pureFieldName2, child1Card, child2Card,
+                child1HasJoinPK, child2HasJoinPK, tableStats, tableAliasToId));
+        return child1HasJoinPK || child2HasJoinPK;
+    }
+
     private static boolean updateAggregateCardinality(Aggregate a,
             Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
@@ -47,13 +47,20 @@ public interface Page {
     public byte[] getPageData();
 
     /** Provide a representation of this page before any modifications were made
-        to it.  Used by recovery.
+        to it.  Used by recovery.  Returns null if no before image has been
+        captured since the page was last clean.
     */
     public Page getBeforeImage();
 
     /*
-     * a transaction that wrote this page just committed it.
+     * a transaction is about to modify this page.
      * copy current content to the before image.
      */
     public void setBeforeImage();
+
+    /*
+     * the transaction that modified this page has committed or aborted.
+     * drop the before image, which is no longer needed.
+     */
+    public void clearBeforeImage();
 }
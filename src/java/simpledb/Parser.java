@@ -341,6 +341,8 @@ public class Parser {
         Tuple t = new Tuple(td);
         int i = 0;
         OpIterator newTups;
+        // INSERT ... SELECT can produce any number of rows; bulk load them
+        boolean bulkLoad = false;
 
         if (s.getValues() != null) {
             @SuppressWarnings("unchecked")
@@ -388,9 +390,10 @@ public class Parser {
             ZQuery zq = (ZQuery) s.getQuery();
             LogicalPlan lp = parseQueryLogicalPlan(tId, zq);
             newTups = lp.physicalPlan(tId, TableStats.getStatsMap(), explain);
+            bulkLoad = true;
         }
         Query insertQ = new Query(tId);
-        insertQ.setPhysicalPlan(new Insert(tId, newTups, tableId));
+        insertQ.setPhysicalPlan(new Insert(tId, newTups, tableId, bulkLoad));
         return insertQ;
     }
 
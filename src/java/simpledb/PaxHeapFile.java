@@ -0,0 +1,35 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * PaxHeapFile is a HeapFile whose pages are {@link PaxPage}s, which store
+ * each field of the page's tuples together. It suits analytic tables whose
+ * queries read a few fields of many tuples, such as aggregates and filters
+ * over one or two columns of a wide table.
+ * <p>
+ * A table is loaded as a PaxHeapFile by adding the option <tt>pax</tt>
+ * after its schema in the catalog file (see {@link Catalog#loadSchema}).
+ * Its data file must be in the PAX page format, e.g. start empty and be
+ * filled by inserts.
+ *
+ * @see HeapFile
+ */
+public class PaxHeapFile extends HeapFile {
+
+    /**
+     * Constructs a PAX heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     */
+    public PaxHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    @Override
+    protected HeapPage newPage(HeapPageId pid, byte[] data) throws IOException {
+        return new PaxPage(pid, data);
+    }
+}
@@ -0,0 +1,34 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * PaxPage is a HeapPage laid out column by column (PAX, "partition
+ * attributes across"): after the header bitmap, the page holds one
+ * minipage per field, and the minipage of a field holds that field of every
+ * slot, one after the other. A page has as many slots as a HeapPage of the
+ * same table. Scans that read only a few fields of a wide table touch only
+ * those fields' minipages (see {@link HeapPage#iterator(int[])}).
+ *
+ * @see PaxHeapFile
+ */
+public class PaxPage extends HeapPage {
+
+    /**
+     * Create a PaxPage from a set of bytes of data read from disk, in the
+     * format described above.
+     */
+    public PaxPage(HeapPageId id, byte[] data) throws IOException {
+        super(id, data);
+    }
+
+    @Override
+    HeapPage copy(byte[] data) throws IOException {
+        return new PaxPage(pid, data);
+    }
+
+    @Override
+    int fieldOffset(int slot, int field) {
+        return headerSize + numSlots * fieldOffsets[field] + slot * td.getFieldType(field).getLen();
+    }
+}
@@ -0,0 +1,75 @@
+package simpledb;
+
+/**
+ * ReadAhead watches the pages a scan of a HeapFile asks for and, once the
+ * scan is seen to move through the file page after page, asks the
+ * BufferPool to prefetch the pages just ahead of it. Prefetching happens on
+ * a background thread in large contiguous reads (see
+ * {@link BufferPool#prefetch}), so by the time the scan needs a page it is
+ * usually already resident.
+ * <p>
+ * Between half a window and one and a half windows of pages are kept in
+ * flight ahead of the scan; a new window is requested whenever fewer than
+ * half a window remain. A jump to a non-consecutive page stops read-ahead
+ * until the scan is sequential again.
+ *
+ * @see BufferPool#setReadAheadWindow
+ * @see HeapFileIterator
+ */
+public class ReadAhead {
+
+    /** Consecutive page requests needed before read-ahead starts. */
+    private static final int SEQUENTIAL_RUN = 2;
+
+    private final HeapFile file;
+    private final int numPages;
+    private final int window;
+    private final BufferRing ring;
+    private int lastPage;
+    private int run;
+    private int next;
+
+    /**
+     * Creates a read-ahead tracker for one scan.
+     *
+     * @param file the file being scanned
+     * @param numPages the number of pages the scan will read
+     * @param window the number of pages to prefetch at a time; 0 disables
+     *               read-ahead
+     * @param ring the scan's buffer ring, or null if it has none
+     */
+    public ReadAhead(HeapFile file, int numPages, int window, BufferRing ring) {
+        this.file = file;
+        this.numPages = numPages;
+        // prefetched pages must not push each other out of a small ring
+        this.window = ring == null ? window : Math.min(window, Math.max(1, ring.size() / 2));
+        this.ring = ring;
+        this.lastPage = -1;
+        this.run = 0;
+        this.next = 0;
+    }
+
+    /**
+     * Called by the scan just before it fetches a page; issues a prefetch if
+     * the scan is sequential and is about to run out of prefetched pages.
+     *
+     * @param pageNo the page the scan is about to fetch
+     */
+    public void pageRequested(int pageNo) {
+        if (pageNo == lastPage + 1) {
+            run++;
+        } else {
+            run = 1;
+            next = pageNo + 1;
+        }
+        lastPage = pageNo;
+        if (window <= 0 || run < SEQUENTIAL_RUN)
+            return;
+        next = Math.max(next, pageNo + 1);
+        if (next >= numPages || next - pageNo > (window + 1) / 2)
+            return;
+        int count = Math.min(window, numPages - next);
+        Database.getBufferPool().prefetch(file, next, count, ring);
+        next += count;
+    }
+}
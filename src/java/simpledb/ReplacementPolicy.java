@@ -0,0 +1,61 @@
+package simpledb;
+
+import java.util.Map;
+
+/**
+ * ReplacementPolicy decides which page the BufferPool gives up when it needs
+ * a free frame. The BufferPool reports every page it brings in, every hit on
+ * a resident page and every page it drops for other reasons; the policy keeps
+ * whatever bookkeeping it needs to answer {@link #chooseVictim} cheaply.
+ * <p>
+ * Because SimpleDB runs in NO STEAL mode, a victim must never be a dirty page.
+ * Implementations are called from several threads at once and must be
+ * thread safe.
+ *
+ * @see BufferPool
+ * @see ClockPolicy
+ * @see LruKPolicy
+ * @see TwoQueuePolicy
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Called after a page that was not resident has been added to the pool.
+     *
+     * @param pid the page that was loaded
+     */
+    public void pageLoaded(PageId pid);
+
+    /**
+     * Called on every request for a page that is already resident.
+     *
+     * @param pid the page that was hit
+     */
+    public void pageAccessed(PageId pid);
+
+    /**
+     * Marks a resident page as the preferred next victim, e.g. a page read
+     * by a large sequential scan that nobody else is expected to want. A
+     * later {@link #pageAccessed} restores its normal standing.
+     *
+     * @param pid the page to demote
+     */
+    public void pageDemoted(PageId pid);
+
+    /**
+     * Called when a page leaves the pool without having been picked by
+     * {@link #chooseVictim} (e.g. {@link BufferPool#discardPage}).
+     *
+     * @param pid the page that was removed
+     */
+    public void pageRemoved(PageId pid);
+
+    /**
+     * Picks the next page to evict and forgets about it. Only clean pages
+     * (whose {@link Page#isDirty} is null) may be returned.
+     *
+     * @param frames the pages currently resident in the pool
+     * @return the page to evict, or null if every resident page is dirty
+     */
+    public PageId chooseVictim(Map<PageId, Page> frames);
+}
@@ -16,6 +16,8 @@ public class SeqScan implements OpIterator {
     String tableAlias;
     HeapFileIterator it;
     Tuple tup;
+    int[] projection;
+    List<Predicate> predicates = new ArrayList<Predicate>();
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -73,6 +75,37 @@ public class SeqScan implements OpIterator {
         this.tableid = tableid;
         this.tableAlias = tableAlias;
         this.it = (HeapFileIterator) Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+        this.it.setProjection(projection);
+        for (Predicate p : predicates)
+            this.it.addPredicate(p);
+    }
+
+    /**
+     * Tells the scan that only the given fields of its tuples will be read.
+     * The other fields of the tuples it returns are left unset (null), which
+     * saves decoding them, and on a {@link PaxHeapFile} saves touching
+     * their bytes at all.
+     *
+     * @param fields
+     *            the indexes of the fields to read, or null for all fields.
+     */
+    public void setProjection(int[] fields) {
+        this.projection = fields;
+        it.setProjection(fields);
+    }
+
+    /**
+     * Tells the scan that only tuples satisfying p are wanted, so it can skip
+     * pages whose {@link ZoneMap} ranges show they hold no such tuple. This
+     * is only a hint: the scan may still return tuples that do not satisfy
+     * p, so it must be followed by a {@link Filter} on p.
+     *
+     * @param p
+     *            a predicate over the fields of the scanned table.
+     */
+    public void addPredicate(Predicate p) {
+        predicates.add(p);
+        it.addPredicate(p);
     }
 
     public SeqScan(TransactionId tid, int tableId) {
@@ -94,8 +127,14 @@ public class SeqScan implements OpIterator {
      *         prefixed with the tableAlias string from the constructor.
      */
     public TupleDesc getTupleDesc() {
+        return aliasedTupleDesc(Database.getCatalog().getTupleDesc(tableid), tableAlias);
+    }
 
-        TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+    /**
+     * Returns a TupleDesc like td, with each field name prefixed with
+     * tableAlias and a "." character.
+     */
+    static TupleDesc aliasedTupleDesc(TupleDesc td, String tableAlias) {
         int field_count = td.numFields();
 
         Type[] type = new Type[field_count];
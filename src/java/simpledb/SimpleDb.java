@@ -67,6 +67,32 @@ public class SimpleDb {
                it.close();
             }
         }
+        else if (args[0].equals("compress")) {
+            // rewrite a table's data file in compressed form
+            if (args.length != 2) {
+                System.err.println("Unexpected number of arguments to compress");
+                return;
+            }
+            File tableFile = new File(args[1]);
+            long before = tableFile.length();
+            long after = CompressedHeapFile.compress(tableFile);
+            System.out.println("Compressed " + tableFile + " from " + before + " to " + after + " bytes");
+        }
+        else if (args[0].equals("vacuum")) {
+            // compact a table of a catalog, and its indexes
+            if (args.length != 3) {
+                System.err.println("Unexpected number of arguments to vacuum");
+                return;
+            }
+            Database.getCatalog().loadSchema(args[1]);
+            DbFile table = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(args[2]));
+            if (!(table instanceof HeapFile)) {
+                System.err.println("Cannot vacuum " + args[2]);
+                return;
+            }
+            int removed = ((HeapFile) table).vacuum();
+            System.out.println("Removed " + removed + " pages from " + args[2]);
+        }
         else if (args[0].equals("parser")) {
             // Strip the first argument and call the parser
             String[] newargs = new String[args.length-1];
@@ -0,0 +1,42 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * SlottedHeapFile is a HeapFile whose pages are {@link SlottedHeapPage}s,
+ * which store each tuple in only as many bytes as its values need. Tables
+ * of short strings fit many more tuples on a page than in a HeapFile, so
+ * scans of them read far fewer pages.
+ * <p>
+ * A table is loaded as a SlottedHeapFile by adding the option
+ * <tt>slotted</tt> after its schema in the catalog file (see
+ * {@link Catalog#loadSchema}). Its data file must be in the slotted page
+ * format, e.g. start empty and be filled by inserts.
+ *
+ * @see HeapFile
+ */
+public class SlottedHeapFile extends HeapFile {
+
+    /**
+     * Constructs a slotted heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     */
+    public SlottedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    @Override
+    protected HeapPage newPage(HeapPageId pid, byte[] data) throws IOException {
+        return new SlottedHeapPage(pid, data);
+    }
+
+    // a slotted page moves tuples when it is compacted, so the changes of
+    // different transactions cannot be told apart by slot
+    @Override
+    protected boolean rowLocking() {
+        return false;
+    }
+}
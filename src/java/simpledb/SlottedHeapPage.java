@@ -0,0 +1,263 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * SlottedHeapPage is a HeapPage that stores each tuple in only as many bytes
+ * as its values need, so a short string does not take up the
+ * {@link Type#STRING_LEN} bytes of a fixed-size slot and many more tuples fit
+ * on a page. The page is laid out as:
+ * <ul>
+ * <li>2 bytes: the number of entries in the slot directory</li>
+ * <li>2 bytes: the offset of the first byte of the tuple area, or 0 if the
+ * page is empty</li>
+ * <li>4 bytes per slot: the offset and length of the slot's tuple, or 0 and
+ * 0 if the slot is empty</li>
+ * <li>free space</li>
+ * <li>the tuples, packed against the end of the page</li>
+ * </ul>
+ * A tuple is its fields in order, each in the format of
+ * {@link Field#serialize} but without padding: a string is its length in 4
+ * bytes followed by its characters.
+ * <p>
+ * Deleting a tuple leaves a hole in the tuple area, which is reclaimed by
+ * compacting the page when an insert needs the space. Tuples keep their slot
+ * across compactions, so their RecordIds stay valid. An all-zero page is an
+ * empty page, as for HeapPage.
+ * <p>
+ * Tuples are decoded as the page is iterated; changing a tuple read from the
+ * page does not change the page.
+ *
+ * @see SlottedHeapFile
+ */
+public class SlottedHeapPage extends HeapPage {
+
+    private static final int HEADER_SIZE = 4;
+    private static final int ENTRY_SIZE = 4;
+
+    /**
+     * Create a SlottedHeapPage from a set of bytes of data read from disk, in
+     * the format described above.
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        super(id, ByteBuffer.wrap(data), 0);
+        if (BufferPool.getPageSize() > 0xffff)
+            throw new IOException("page size too large for a slotted page");
+    }
+
+    @Override
+    HeapPage copy(byte[] data) throws IOException {
+        return new SlottedHeapPage(pid, data);
+    }
+
+    /** Returns the number of entries in the slot directory. */
+    private int numEntries() {
+        return buf.getShort(0) & 0xffff;
+    }
+
+    /** Returns the offset of the first byte of the tuple area. */
+    private int tupleStart() {
+        int start = buf.getShort(2) & 0xffff;
+        return start == 0 ? BufferPool.getPageSize() : start;
+    }
+
+    private int entryOffset(int slot) {
+        return buf.getShort(HEADER_SIZE + slot * ENTRY_SIZE) & 0xffff;
+    }
+
+    private int entryLength(int slot) {
+        return buf.getShort(HEADER_SIZE + slot * ENTRY_SIZE + 2) & 0xffff;
+    }
+
+    private void setEntry(int slot, int offset, int length) {
+        buf.putShort(HEADER_SIZE + slot * ENTRY_SIZE, (short) offset);
+        buf.putShort(HEADER_SIZE + slot * ENTRY_SIZE + 2, (short) length);
+    }
+
+    /** Returns the number of bytes not used by the header or by tuples. */
+    private int freeBytes() {
+        int n = numEntries();
+        int free = BufferPool.getPageSize() - HEADER_SIZE - n * ENTRY_SIZE;
+        for (int i = 0; i < n; i++)
+            free -= entryLength(i);
+        return free;
+    }
+
+    /**
+     * Returns the number of tuples of the largest possible size that still
+     * fit on this page; smaller tuples may fit even when this is 0.
+     */
+    @Override
+    public int getNumEmptySlots() {
+        // td's fixed size is the size of its largest tuple
+        return freeBytes() / (td.getSize() + ENTRY_SIZE);
+    }
+
+    @Override
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < numEntries() && entryOffset(i) != 0;
+    }
+
+    /** Returns the number of bytes of the field of the given type at offset. */
+    private static int fieldLength(Type type, byte[] bytes, int offset) {
+        if (type == Type.STRING_TYPE)
+            return 4 + Type.readInt(bytes, offset);
+        return type.getLen();
+    }
+
+    /** Encodes a tuple in the unpadded form it is stored in. */
+    private byte[] encode(Tuple t) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < td.numFields(); i++) {
+            Type type = td.getFieldType(i);
+            byte[] field = new byte[type.getLen()];
+            t.getField(i).serialize(ByteBuffer.wrap(field), 0);
+            out.write(field, 0, fieldLength(type, field, 0));
+        }
+        return out.toByteArray();
+    }
+
+    /** Decodes the tuple in a used slot. */
+    private Tuple decode(int slot) {
+        Tuple t = new Tuple(td);
+        int offset = entryOffset(slot);
+        try {
+            for (int i = 0; i < td.numFields(); i++) {
+                Type type = td.getFieldType(i);
+                t.setField(i, type.parse(data, offset));
+                offset += fieldLength(type, data, offset);
+            }
+        } catch (ParseException e) {
+            throw new NoSuchElementException("parsing error!");
+        }
+        t.setRecordId(new RecordId(pid, slot));
+        return t;
+    }
+
+    /**
+     * Moves all tuples to the end of the page, so the free space between the
+     * slot directory and the tuple area is contiguous.
+     */
+    private void compact() {
+        prepareWrite();
+        byte[] old = data.clone();
+        int n = numEntries();
+        int end = BufferPool.getPageSize();
+        Arrays.fill(data, HEADER_SIZE + n * ENTRY_SIZE, end, (byte) 0);
+        for (int i = 0; i < n; i++) {
+            ByteBuffer entry = ByteBuffer.wrap(old, HEADER_SIZE + i * ENTRY_SIZE, ENTRY_SIZE);
+            int offset = entry.getShort() & 0xffff;
+            int length = entry.getShort() & 0xffff;
+            if (offset == 0)
+                continue;
+            end -= length;
+            System.arraycopy(old, offset, data, end, length);
+            setEntry(i, end, length);
+        }
+        buf.putShort(2, (short) end);
+    }
+
+    @Override
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("TupleDesc Mismatch");
+
+        byte[] tuple = encode(t);
+        int n = numEntries();
+        int slot = 0;
+        while (slot < n && entryOffset(slot) != 0)
+            slot++;
+        int needed = tuple.length + (slot == n ? ENTRY_SIZE : 0);
+        if (needed > freeBytes())
+            throw new DbException("No empty slots");
+        if (needed > tupleStart() - (HEADER_SIZE + n * ENTRY_SIZE))
+            compact();
+
+        prepareWrite();
+        int start = tupleStart() - tuple.length;
+        System.arraycopy(tuple, 0, data, start, tuple.length);
+        buf.putShort(2, (short) start);
+        if (slot == n)
+            buf.putShort(0, (short) (n + 1));
+        setEntry(slot, start, tuple.length);
+
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    @Override
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        int slot = rid.getTupleNumber();
+
+        if (!rid.getPageId().equals(pid))
+            throw new DbException("Tuple is not on page");
+
+        if (!isSlotUsed(slot))
+            throw new DbException("Tuple slot is already empty");
+
+        prepareWrite();
+        int offset = entryOffset(slot);
+        Arrays.fill(data, offset, offset + entryLength(slot), (byte) 0);
+        setEntry(slot, 0, 0);
+        // drop empty entries from the end of the directory
+        int n = numEntries();
+        while (n > 0 && entryOffset(n - 1) == 0)
+            n--;
+        buf.putShort(0, (short) n);
+        if (n == 0)
+            buf.putShort(2, (short) 0);
+    }
+
+    @Override
+    public Tuple getTuple(int slot) {
+        return isSlotUsed(slot) ? decode(slot) : null;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on
+     * this iterator throws an UnsupportedOperationException). Each tuple is
+     * decoded when it is returned.
+     */
+    @Override
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            private int next = nextUsedSlot(0);
+
+            public boolean hasNext() {
+                return next < numEntries();
+            }
+
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Tuple t = decode(next);
+                next = nextUsedSlot(next + 1);
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Returns an iterator over all tuples on this page. Tuples are decoded
+     * whole, so the fields that are not asked for are set as well.
+     */
+    @Override
+    public Iterator<Tuple> iterator(int[] fields) {
+        return iterator();
+    }
+
+    /** Returns the first used slot at or after slot, or numEntries() if none. */
+    private int nextUsedSlot(int slot) {
+        int n = numEntries();
+        while (slot < n && entryOffset(slot) == 0)
+            slot++;
+        return slot;
+    }
+}
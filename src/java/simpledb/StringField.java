@@ -66,6 +66,19 @@ public class StringField implements Field {
 			dos.write((byte) 0);
 	}
 
+	public void serialize(java.nio.ByteBuffer buf, int offset) {
+		String s = value;
+		if (s.length() > maxSize)
+			s = s.substring(0, maxSize);
+		buf.putInt(offset, s.length());
+		int pos = offset + 4;
+		// like DataOutputStream.writeBytes, keep the low byte of each char
+		for (int i = 0; i < s.length(); i++)
+			buf.put(pos++, (byte) s.charAt(i));
+		for (int i = s.length(); i < maxSize; i++)
+			buf.put(pos++, (byte) 0);
+	}
+
 	/**
 	 * Compare the specified field to the value of this Field. Return semantics
 	 * are as specified by Field.compare
@@ -160,12 +160,19 @@ public class TableStats {
             }
         }
 
+        // rebuild the table's Bloom filter, sized for the tuples counted
+        BloomFilter bloom = file instanceof HeapFile ? ((HeapFile) file).getBloomFilter() : null;
+        if (bloom != null)
+            bloom.startRebuild(numTuples);
+
         //populate hist (second iteration over table)
         try {
             Tuple curr;
             iter.open();
                 while(iter.hasNext()){
                     curr=iter.next();
+                    if (bloom != null)
+                        bloom.rebuildAdd(curr);
                     for(int i=0; i<td.numFields(); i++){
                         String fieldname = td.getFieldName(i);
                         switch (td.getFieldType(i))
@@ -181,11 +188,19 @@ public class TableStats {
                         }
                         }
                     } iter.close();
+                if (bloom != null)
+                    bloom.finishRebuild();
             } catch (DbException e1) {
                 e1.printStackTrace();
             } catch (TransactionAbortedException e1) {
                 e1.printStackTrace();
             }
+        // release the scan's locks, so the table can be written again
+        try {
+            Database.getBufferPool().transactionComplete(tid);
+        } catch (java.io.IOException e) {
+            e.printStackTrace();
+        }
 
     }
 
@@ -205,6 +220,39 @@ public class TableStats {
         return ((HeapFile)file).numPages() * iocostperpage;
     }
 
+    /**
+     * Estimates the cost of reading the tuples that satisfy a predicate with
+     * the given selectivity through an index (see {@link IndexScan}): the
+     * pages of the index read to find the first match, plus a page for each
+     * tuple, as they may all be on different pages.
+     *
+     * @param index
+     *            The index that is searched
+     * @param selectivityFactor
+     *            The selectivity of the predicate the index is searched with
+     * @return The estimated cost of the index scan
+     */
+    public double estimateIndexScanCost(IndexFile index, double selectivityFactor) {
+        return (index.estimateProbePages() + estimateTableCardinality(selectivityFactor)) * (double) iocostperpage;
+    }
+
+    /**
+     * Estimates the cost of reading the entries that satisfy a predicate with
+     * the given selectivity from an index that covers all the fields the
+     * query reads, so the table's pages are not read (see
+     * {@link IndexScan#isIndexOnly}): the pages of the index read to find the
+     * first match, plus the share of the index's pages holding the matches.
+     *
+     * @param index
+     *            The index that is searched
+     * @param selectivityFactor
+     *            The selectivity of the predicate the index is searched with
+     * @return The estimated cost of the index-only scan
+     */
+    public double estimateIndexOnlyScanCost(IndexFile index, double selectivityFactor) {
+        return (index.estimateProbePages() + selectivityFactor * index.numPages()) * (double) iocostperpage;
+    }
+
     /**
      * This method returns the number of tuples in the relation, given that a
      * predicate with selectivity selectivityFactor is applied.
@@ -0,0 +1,117 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Full 2Q replacement (Johnson and Shasha). A page referenced for the first
+ * time enters the FIFO queue A1in; repeated hits while it is there are
+ * treated as correlated and ignored. When a page falls out of A1in only its
+ * id is remembered in the ghost queue A1out. A page that is requested again
+ * while its id is still in A1out has proven itself and is admitted to the
+ * LRU queue Am. Sequential scans therefore only ever cycle through A1in and
+ * cannot flush the hot pages held in Am.
+ * <p>
+ * Pages demoted by a large scan are parked in a separate queue that is
+ * drained before the others and whose pages are not remembered in A1out.
+ * <p>
+ * All queues are linked hash maps, so every operation is O(1) apart from
+ * skipping over dirty pages when looking for a victim.
+ */
+public class TwoQueuePolicy implements ReplacementPolicy {
+
+    private final int kin;
+    private final int kout;
+    private final LinkedHashMap<PageId, Boolean> a1in;
+    private final LinkedHashMap<PageId, Boolean> a1out;
+    private final LinkedHashMap<PageId, Boolean> am;
+    private final LinkedHashMap<PageId, Boolean> demoted;
+
+    /**
+     * Creates a 2Q policy for a pool of the given size, using the tuning
+     * suggested in the paper: A1in holds a quarter of the pool and A1out
+     * remembers half a pool's worth of page ids.
+     *
+     * @param numPages the number of frames in the buffer pool
+     */
+    public TwoQueuePolicy(int numPages) {
+        this.kin = Math.max(1, numPages / 4);
+        this.kout = Math.max(1, numPages / 2);
+        this.a1in = new LinkedHashMap<PageId, Boolean>();
+        this.a1out = new LinkedHashMap<PageId, Boolean>();
+        this.am = new LinkedHashMap<PageId, Boolean>(16, 0.75f, true);
+        this.demoted = new LinkedHashMap<PageId, Boolean>();
+    }
+
+    public synchronized void pageLoaded(PageId pid) {
+        if (am.containsKey(pid) || a1in.containsKey(pid) || demoted.containsKey(pid))
+            return;
+        if (a1out.remove(pid) != null)
+            am.put(pid, Boolean.TRUE);
+        else
+            a1in.put(pid, Boolean.TRUE);
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        if (demoted.remove(pid) != null) {
+            a1in.put(pid, Boolean.TRUE);
+            return;
+        }
+        // get() moves the page to the MRU end of the access-ordered Am
+        am.get(pid);
+    }
+
+    public synchronized void pageDemoted(PageId pid) {
+        if (a1in.remove(pid) != null || am.remove(pid) != null)
+            demoted.put(pid, Boolean.TRUE);
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        a1in.remove(pid);
+        am.remove(pid);
+        demoted.remove(pid);
+    }
+
+    public synchronized PageId chooseVictim(Map<PageId, Page> frames) {
+        PageId victim = pollClean(demoted, frames);
+        if (victim != null)
+            return victim;
+        if (a1in.size() > kin || am.isEmpty()) {
+            victim = pollClean(a1in, frames);
+            if (victim != null) {
+                remember(victim);
+                return victim;
+            }
+        }
+        victim = pollClean(am, frames);
+        if (victim != null)
+            return victim;
+        victim = pollClean(a1in, frames);
+        if (victim != null)
+            remember(victim);
+        return victim;
+    }
+
+    /** Adds the id of a page evicted from A1in to the ghost queue. */
+    private void remember(PageId pid) {
+        a1out.put(pid, Boolean.TRUE);
+        if (a1out.size() > kout) {
+            Iterator<PageId> it = a1out.keySet().iterator();
+            it.next();
+            it.remove();
+        }
+    }
+
+    /** Removes and returns the oldest clean page of the queue, if any. */
+    private static PageId pollClean(LinkedHashMap<PageId, Boolean> queue, Map<PageId, Page> frames) {
+        Iterator<PageId> it = queue.keySet().iterator();
+        while (it.hasNext()) {
+            PageId pid = it.next();
+            Page p = frames.get(pid);
+            if (p != null && p.isDirty() != null)
+                continue;
+            it.remove();
+            return pid;
+        }
+        return null;
+    }
+}
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -24,6 +25,16 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(byte[] data, int offset) {
+            return new IntField(readInt(data, offset));
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            return new IntField(buf.getInt(offset));
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -42,6 +53,14 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(byte[] data, int offset) throws ParseException {
+            int strLen = readInt(data, offset);
+            if (strLen < 0 || strLen > STRING_LEN)
+                throw new ParseException("couldn't parse", offset);
+            return new StringField(new String(data, offset + 4, strLen), STRING_LEN);
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -60,4 +79,40 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   decoded from the given bytes, which hold a field in the same format as
+   *   {@link Field#serialize} writes.
+   * @param data The bytes to decode from
+   * @param offset The index of the first byte of the field
+   * @throws ParseException if the bytes do not hold a field of the
+   *   appropriate type.
+   */
+    public abstract Field parse(byte[] data, int offset) throws ParseException;
+
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   decoded from the given buffer, as {@link #parse(byte[], int)} does,
+   *   e.g. from a page of a memory-mapped file.
+   * @param buf The buffer to decode from; its position is not changed
+   * @param offset The index in the buffer of the first byte of the field
+   * @throws ParseException if the bytes do not hold a field of the
+   *   appropriate type.
+   */
+    public Field parse(ByteBuffer buf, int offset) throws ParseException {
+        if (buf.hasArray())
+            return parse(buf.array(), buf.arrayOffset() + offset);
+        byte[] field = new byte[getLen()];
+        ByteBuffer src = buf.duplicate();
+        src.position(offset);
+        src.get(field);
+        return parse(field, 0);
+    }
+
+    /** Decodes a big-endian int, as written by DataOutputStream.writeInt. */
+    static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16)
+                | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+    }
+
 }
@@ -0,0 +1,253 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * ZoneMap keeps the smallest and largest value of each int field on each
+ * page of a HeapFile, so that a scan with a selective predicate can skip
+ * pages none of whose tuples can match (see {@link SeqScan#addPredicate}).
+ * It is stored in a small file next to the table's data file, so it
+ * survives restarts.
+ * <p>
+ * A page may have no entry, e.g. if it was written before the map existed;
+ * such a page is never skipped. Pages get an entry when they are written
+ * or, if they are clean, when a scan reads them. The ranges in the map may
+ * be wider than the values on the page, but never narrower: a tuple
+ * inserted into a page widens its ranges at once, and a page's ranges are
+ * only narrowed once the page has been written without the values that
+ * were removed from it.
+ * <p>
+ * The file begins with the {@link FileStamp} of the data file it describes,
+ * followed, for each page, by a byte that is 1 if the page has an entry and
+ * the smallest and largest value of each int field as 4 bytes each. A file
+ * whose stamp is not that of the data file, e.g. one left over from a table
+ * that has since been generated again, is discarded.
+ *
+ * @Threadsafe
+ * @see HeapFile#getZoneMap
+ */
+public class ZoneMap {
+
+    private final File file;
+    private final File dataFile;
+    private final int[] fields;
+    private final int recordSize;
+    // for each page with an entry, the smallest and largest value of each
+    // int field; a page with no tuples has empty ranges (min > max)
+    private final ArrayList<int[]> ranges;
+    // the stamp at the start of the file, or null if the file's records
+    // are not usable and it must be started afresh before it is written
+    private FileStamp stamp;
+
+    /**
+     * Opens the zone map stored in the given file. A missing or unreadable
+     * file, or one stamped for other contents of the data file, gives a map
+     * with no entries.
+     *
+     * @param file the file the map is kept in
+     * @param dataFile the table's data file
+     * @param td the TupleDesc of the table's tuples
+     */
+    public ZoneMap(File file, File dataFile, TupleDesc td) {
+        this.file = file;
+        this.dataFile = dataFile;
+        ArrayList<Integer> ints = new ArrayList<Integer>();
+        for (int i = 0; i < td.numFields(); i++)
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                ints.add(i);
+        this.fields = new int[ints.size()];
+        for (int i = 0; i < fields.length; i++)
+            fields[i] = ints.get(i);
+        this.recordSize = 1 + 8 * fields.length;
+        this.ranges = new ArrayList<int[]>();
+        if (fields.length > 0 && file.exists()) {
+            try {
+                ByteBuffer b = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+                FileStamp stored = FileStamp.read(b);
+                if (stored != null && stored.equals(FileStamp.of(dataFile)))
+                    stamp = stored;
+                while (stamp != null && b.remaining() >= recordSize) {
+                    int[] r = null;
+                    if (b.get() == 1) {
+                        r = new int[2 * fields.length];
+                        for (int i = 0; i < r.length; i++)
+                            r[i] = b.getInt();
+                    } else {
+                        b.position(b.position() + recordSize - 1);
+                    }
+                    ranges.add(r);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Returns false if no tuple on a page can satisfy a predicate. Predicates
+     * over fields that are not ints always may match.
+     *
+     * @param pageNo the page
+     * @param p a predicate over the table's tuples
+     */
+    public synchronized boolean mayMatch(int pageNo, Predicate p) {
+        int[] r = pageNo < ranges.size() ? ranges.get(pageNo) : null;
+        int k = Arrays.binarySearch(fields, p.getField());
+        if (r == null || k < 0 || !(p.getOperand() instanceof IntField))
+            return true;
+        int min = r[2 * k], max = r[2 * k + 1];
+        if (min > max)
+            return false;
+        int v = ((IntField) p.getOperand()).getValue();
+        switch (p.getOp()) {
+        case EQUALS:
+            return min <= v && v <= max;
+        case NOT_EQUALS:
+            return !(min == v && max == v);
+        case GREATER_THAN:
+            return max > v;
+        case GREATER_THAN_OR_EQ:
+            return max >= v;
+        case LESS_THAN:
+            return min < v;
+        case LESS_THAN_OR_EQ:
+            return min <= v;
+        default:
+            return true;
+        }
+    }
+
+    /**
+     * Widens the ranges of a page to include a tuple inserted into it. The
+     * change is not written to the map's file until the page is written.
+     */
+    public synchronized void include(int pageNo, Tuple t) {
+        int[] r = pageNo < ranges.size() ? ranges.get(pageNo) : null;
+        if (r == null)
+            return;
+        for (int k = 0; k < fields.length; k++) {
+            int v = ((IntField) t.getField(fields[k])).getValue();
+            r[2 * k] = Math.min(r[2 * k], v);
+            r[2 * k + 1] = Math.max(r[2 * k + 1], v);
+        }
+    }
+
+    /**
+     * Called before a page is written: widens the page's ranges to include
+     * its new contents as well as its old, so that the map covers the page
+     * on disk whether or not the write completes.
+     */
+    public synchronized void cover(HeapPage page) {
+        int pageNo = page.getId().getPageNumber();
+        int[] r = pageNo < ranges.size() ? ranges.get(pageNo) : null;
+        if (r == null)
+            return;
+        int[] after = rangesOf(page);
+        int[] union = r.clone();
+        for (int k = 0; k < fields.length; k++) {
+            union[2 * k] = Math.min(r[2 * k], after[2 * k]);
+            union[2 * k + 1] = Math.max(r[2 * k + 1], after[2 * k + 1]);
+        }
+        set(pageNo, union);
+    }
+
+    /**
+     * Called after a page is written: sets the page's ranges to those of
+     * its contents.
+     */
+    public synchronized void update(HeapPage page) {
+        set(page.getId().getPageNumber(), rangesOf(page));
+    }
+
+    /**
+     * Gives a page an entry from its contents if it has none. The page must
+     * be the same as the copy on disk, i.e. clean.
+     */
+    public synchronized void learn(HeapPage page) {
+        int pageNo = page.getId().getPageNumber();
+        if (fields.length > 0 && (pageNo >= ranges.size() || ranges.get(pageNo) == null))
+            set(pageNo, rangesOf(page));
+    }
+
+    /**
+     * Called after the data file has been written or truncated: records its
+     * new stamp in the map's file, if the file is in use.
+     */
+    synchronized void stamp(FileStamp now) {
+        if (stamp == null || stamp.equals(now))
+            return;
+        FileHandleCache handles = Database.getFileHandleCache();
+        try {
+            FileChannel ch = handles.acquire(file);
+            try {
+                now.write(ch);
+                stamp = now;
+            } finally {
+                handles.release(file);
+            }
+        } catch (IOException e) {
+            // the file is discarded when the map is next opened
+            e.printStackTrace();
+        }
+    }
+
+    /** Returns the smallest and largest value of each int field on a page. */
+    private int[] rangesOf(HeapPage page) {
+        int[] r = new int[2 * fields.length];
+        for (int k = 0; k < fields.length; k++) {
+            r[2 * k] = Integer.MAX_VALUE;
+            r[2 * k + 1] = Integer.MIN_VALUE;
+        }
+        Iterator<Tuple> it = page.iterator(fields);
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            for (int k = 0; k < fields.length; k++) {
+                int v = ((IntField) t.getField(fields[k])).getValue();
+                r[2 * k] = Math.min(r[2 * k], v);
+                r[2 * k + 1] = Math.max(r[2 * k + 1], v);
+            }
+        }
+        return r;
+    }
+
+    /** Sets a page's entry, and writes it to the file if it changed. */
+    private void set(int pageNo, int[] r) {
+        if (fields.length == 0)
+            return;
+        while (ranges.size() <= pageNo)
+            ranges.add(null);
+        if (Arrays.equals(ranges.get(pageNo), r))
+            return;
+        ranges.set(pageNo, r);
+        ByteBuffer record = ByteBuffer.allocate(recordSize);
+        record.put((byte) 1);
+        for (int v : r)
+            record.putInt(v);
+        record.flip();
+        FileHandleCache handles = Database.getFileHandleCache();
+        try {
+            FileChannel ch = handles.acquire(file);
+            try {
+                if (stamp == null) {
+                    // drop the records of a missing or stale file
+                    ch.truncate(0);
+                    FileStamp now = FileStamp.of(dataFile);
+                    now.write(ch);
+                    stamp = now;
+                }
+                while (record.hasRemaining())
+                    ch.write(record, FileStamp.SIZE + (long) pageNo * recordSize + record.position());
+            } finally {
+                handles.release(file);
+            }
+        } catch (IOException e) {
+            // the in-memory map is still right, and is never narrower
+            // than the file's
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeFileTest extends SimpleDbTestBase {
+    private HeapFile table;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    /**
+     * Use small pages, so the trees in these tests have several levels.
+     */
+    @Before
+    public void smallPages() throws Exception {
+        BufferPool.setPageSize(256);
+        Database.reset();
+        tuples = new ArrayList<ArrayList<Integer>>();
+    }
+
+    @After
+    public void resetPages() {
+        BufferPool.resetPageSize();
+    }
+
+    /** Creates and registers an index on field 0 of the table. */
+    private BTreeFile index() throws Exception {
+        File f = File.createTempFile("index", ".btree");
+        f.deleteOnExit();
+        BTreeFile index = new BTreeFile(f, table, 0);
+        Database.getCatalog().addIndex(index);
+        TransactionId tid = new TransactionId();
+        index.build(tid);
+        Database.getBufferPool().transactionComplete(tid);
+        return index;
+    }
+
+    /** Returns the keys of the index's entries, in the order it returns them. */
+    private static List<Integer> keys(BTreeFile index) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = index.iterator(tid);
+        List<Integer> keys = new ArrayList<Integer>();
+        it.open();
+        while (it.hasNext())
+            keys.add(((IntField) it.next().getField(0)).getValue());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return keys;
+    }
+
+    /** Returns the rows whose first field satisfies op value. */
+    private List<ArrayList<Integer>> matching(Predicate.Op op, int value) {
+        List<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> row : tuples)
+            if (new IntField(row.get(0)).compare(op, new IntField(value)))
+                rows.add(row);
+        return rows;
+    }
+
+    /**
+     * Building an index gives a tree with an entry per tuple, in key order.
+     */
+    @Test
+    public void build() throws Exception {
+        table = SystemTestUtil.createRandomHeapFile(2, 3000, 500, null, tuples);
+        BTreeFile index = index();
+        List<Integer> keys = keys(index);
+        assertEquals(tuples.size(), keys.size());
+        for (int i = 1; i < keys.size(); i++)
+            assertTrue(keys.get(i - 1) <= keys.get(i));
+        // more pages than the leaves alone
+        assertTrue(index.numPages() > 3000 / BTreePage.leafCapacity(index.getTupleDesc()) + 1);
+    }
+
+    /**
+     * An IndexScan returns the tuples satisfying equality and range
+     * predicates.
+     */
+    @Test
+    public void indexScan() throws Exception {
+        table = SystemTestUtil.createRandomHeapFile(2, 3000, 500, null, tuples);
+        BTreeFile index = index();
+        Predicate.Op[] ops = { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+                Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ };
+        for (Predicate.Op op : ops) {
+            for (int value : new int[] { -1, 0, 17, tuples.get(0).get(0), 499, 500 }) {
+                TransactionId tid = new TransactionId();
+                SystemTestUtil.matchTuples(new IndexScan(tid, index, "t", op, new IntField(value)),
+                        matching(op, value));
+                Database.getBufferPool().transactionComplete(tid);
+            }
+        }
+    }
+
+    /**
+     * Inserts and deletes through the BufferPool keep the index up to date,
+     * splitting pages as they fill up.
+     */
+    @Test
+    public void insertAndDelete() throws Exception {
+        table = SystemTestUtil.createRandomHeapFile(2, 0, null, tuples);
+        BTreeFile index = index();
+        Random r = new Random(1);
+        for (int batch = 0; batch < 10; batch++) {
+            TransactionId tid = new TransactionId();
+            for (int i = 0; i < 100; i++) {
+                int key = r.nextInt(50);
+                Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[] { key, i }));
+                tuples.add(new ArrayList<Integer>(Arrays.asList(key, i)));
+            }
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        assertEquals(1000, keys(index).size());
+        assertTrue(index.numPages() > 1000 / BTreePage.leafCapacity(index.getTupleDesc()));
+
+        // delete every tuple with an even key
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        List<Tuple> doomed = new ArrayList<Tuple>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() % 2 == 0)
+                doomed.add(t);
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        // a few transactions, so their dirty pages fit in the pool
+        for (int i = 0; i < doomed.size(); i += 100) {
+            tid = new TransactionId();
+            for (Tuple t : doomed.subList(i, Math.min(doomed.size(), i + 100)))
+                Database.getBufferPool().deleteTuple(tid, t);
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        for (Iterator<ArrayList<Integer>> rows = tuples.iterator(); rows.hasNext(); )
+            if (rows.next().get(0) % 2 == 0)
+                rows.remove();
+
+        assertEquals(tuples.size(), keys(index).size());
+        for (int key = 0; key < 50; key++) {
+            tid = new TransactionId();
+            SystemTestUtil.matchTuples(new IndexScan(tid, index, "t", Predicate.Op.EQUALS, new IntField(key)),
+                    matching(Predicate.Op.EQUALS, key));
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    /**
+     * The index changes of an aborted transaction are undone with its
+     * table changes.
+     */
+    @Test
+    public void abort() throws Exception {
+        table = SystemTestUtil.createRandomHeapFile(2, 500, 500, null, tuples);
+        BTreeFile index = index();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 200; i++)
+            Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[] { i, i }));
+        Database.getBufferPool().transactionComplete(tid, false);
+        assertEquals(500, keys(index).size());
+
+        tid = new TransactionId();
+        SystemTestUtil.matchTuples(new IndexScan(tid, index, "t", Predicate.Op.LESS_THAN, new IntField(100)),
+                matching(Predicate.Op.LESS_THAN, 100));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Writes the table kept in dat with the tuples (base + i, i), i < 100. */
+    private void generate(File dat, int base) throws Exception {
+        tuples.clear();
+        for (int i = 0; i < 100; i++)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(base + i, i)));
+        HeapFileEncoder.convert(tuples, dat, BufferPool.getPageSize(), 2);
+    }
+
+    /** Loads a catalog, and returns the index on field 0 of its table. */
+    private IndexFile load(File catalog) {
+        Database.reset();
+        Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+        table = (HeapFile) Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId("btreetest"));
+        return Database.getCatalog().getIndex(table.getId(), 0);
+    }
+
+    /**
+     * The catalog rebuilds an index left over from a table that has since
+     * been generated again, but keeps one the table has been written with.
+     */
+    @Test
+    public void regenerated() throws Exception {
+        File dir = java.nio.file.Files.createTempDirectory("btree").toFile();
+        dir.deleteOnExit();
+        File catalog = new File(dir, "catalog.txt");
+        File dat = new File(dir, "btreetest.dat");
+        catalog.deleteOnExit();
+        new File(dir, "btreetest.a.btree").deleteOnExit();
+        HeapFile.deleteOnExit(dat);
+        java.io.FileWriter w = new java.io.FileWriter(catalog);
+        w.write("btreetest (a int index, b int)\n");
+        w.close();
+
+        generate(dat, 0);
+        IndexFile index = load(catalog);
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[] { -1, -1 }));
+        Database.getBufferPool().transactionComplete(tid);
+        tuples.add(new ArrayList<Integer>(Arrays.asList(-1, -1)));
+        assertTrue(index.isCurrent());
+        assertTrue(new BTreeFile(index.getFile(), table, 0).isCurrent());
+
+        generate(dat, 100);
+        assertFalse(new BTreeFile(index.getFile(), table, 0).isCurrent());
+        index = load(catalog);
+        assertTrue(index.isCurrent());
+        tid = new TransactionId();
+        SystemTestUtil.matchTuples(new IndexScan(tid, index, "t", Predicate.Op.EQUALS, new IntField(105)),
+                matching(Predicate.Op.EQUALS, 105));
+        SystemTestUtil.matchTuples(new IndexScan(tid, index, "t", Predicate.Op.EQUALS, new IntField(5)),
+                matching(Predicate.Op.EQUALS, 5));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileTest.class);
+    }
+}
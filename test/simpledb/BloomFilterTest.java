@@ -0,0 +1,161 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BloomFilterTest extends SimpleDbTestBase {
+    private File f;
+    private HeapFile hf;
+
+    /**
+     * Set up an empty table with a Bloom filter over its first field.
+     */
+    @Before
+    public void createTable() throws Exception {
+        f = File.createTempFile("bloom", ".dat");
+        HeapFile.deleteOnExit(f);
+        hf = Utility.openHeapFile(2, f);
+        hf.setBloomFilter(new int[] { 0 });
+    }
+
+    /** Inserts a tuple (2i, i) for each i below n, and commits. */
+    private void insert(int n) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < n; i++)
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { 2 * i, i }));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The filter holds every inserted value, and few of the others.
+     */
+    @Test
+    public void mightContain() throws Exception {
+        BloomFilter bloom = hf.getBloomFilter();
+        assertTrue(bloom.isBuilt());
+        assertFalse(bloom.mightContain(0, new IntField(4)));
+        insert(100);
+        int falsePositives = 0;
+        for (int i = 0; i < 100; i++) {
+            assertTrue(bloom.mightContain(0, new IntField(2 * i)));
+            if (bloom.mightContain(0, new IntField(2 * i + 1)))
+                falsePositives++;
+        }
+        assertTrue(falsePositives < 5);
+        // fields the filter does not hold may have any value
+        assertTrue(bloom.mightContain(1, new IntField(-1)));
+    }
+
+    /**
+     * The filter is written with the table, and is not used if the table
+     * has changed without it.
+     */
+    @Test
+    public void persisted() throws Exception {
+        insert(100);
+        BloomFilter reopened = new BloomFilter(new File(f.getPath() + ".bf"), f, new int[] { 0 });
+        assertTrue(reopened.isBuilt());
+        for (int i = 0; i < 100; i++)
+            assertTrue(reopened.mightContain(0, new IntField(2 * i)));
+
+        // a filter over other fields is not used
+        assertFalse(new BloomFilter(new File(f.getPath() + ".bf"), f, new int[] { 1 }).isBuilt());
+
+        // nor is one the table has grown without
+        hf.setBloomFilter(new int[0]);
+        insert(1000);
+        assertFalse(new BloomFilter(new File(f.getPath() + ".bf"), f, new int[] { 0 }).isBuilt());
+    }
+
+    /**
+     * A filter is not used once the table has been generated again with
+     * other values, even if the data file has the same length.
+     */
+    @Test
+    public void regenerated() throws Exception {
+        insert(100);
+        new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE);
+        long length = f.length();
+        File bf = new File(f.getPath() + ".bf");
+        byte[] stale = java.nio.file.Files.readAllBytes(bf.toPath());
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 100; i++)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(2 * i + 1, i)));
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+        assertEquals(length, f.length());
+        java.nio.file.Files.write(bf.toPath(), stale);
+
+        BloomFilter reopened = new BloomFilter(bf, f, new int[] { 0 });
+        assertFalse(reopened.isBuilt());
+        assertTrue(reopened.mightContain(0, new IntField(1)));
+    }
+
+    /**
+     * A filter opened over a table that already holds tuples is not used
+     * until TableStats rebuilds it.
+     */
+    @Test
+    public void rebuiltByTableStats() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 1000, null, tuples);
+        table.setBloomFilter(new int[] { 1 });
+        BloomFilter bloom = table.getBloomFilter();
+        assertFalse(bloom.isBuilt());
+        assertTrue(bloom.mightContain(1, new IntField(-1)));
+
+        new TableStats(table.getId(), TableStats.IOCOSTPERPAGE);
+        assertTrue(bloom.isBuilt());
+        assertFalse(bloom.mightContain(1, new IntField(-1)));
+        for (ArrayList<Integer> t : tuples)
+            assertTrue(bloom.mightContain(1, new IntField(t.get(1))));
+    }
+
+    /**
+     * An equality filter over a scan returns nothing, without reading the
+     * table, if the Bloom filter shows no tuple has the value.
+     */
+    @Test
+    public void filterSkipsScan() throws Exception {
+        insert(1000);
+        // size the filter for the table
+        new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE);
+        int pages = hf.numPages();
+        assertTrue(pages > 1);
+
+        TransactionId tid = new TransactionId();
+        Filter absent = new Filter(new Predicate(0, Predicate.Op.EQUALS, new IntField(-2)),
+                new SeqScan(tid, hf.getId()));
+        SystemTestUtil.matchTuples(absent, new ArrayList<ArrayList<Integer>>());
+        for (int i = 0; i < pages; i++)
+            assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(hf.getId(), i)));
+
+        // the value is found once the transaction inserts it
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { -2, 7 }));
+        absent.open();
+        assertTrue(absent.hasNext());
+        assertEquals(new IntField(7), absent.next().getField(1));
+        absent.close();
+
+        Filter present = new Filter(new Predicate(0, Predicate.Op.EQUALS, new IntField(10)),
+                new SeqScan(tid, hf.getId()));
+        List<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        expected.add(new ArrayList<Integer>(Arrays.asList(10, 5)));
+        SystemTestUtil.matchTuples(present, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BloomFilterTest.class);
+    }
+}
@@ -133,6 +133,36 @@ public class BufferPoolWriteTest extends TestUtil.CreateHeapFile {
     	assertEquals(10, count);
     }
 
+    /**
+     * Unit test that a page's before image is only captured when a
+     * transaction first writes it, and released when it completes
+     */
+    @Test public void beforeImageLifecycle() throws Exception {
+        Tuple t = Utility.getHeapTuple(1, 2);
+        Database.getBufferPool().insertTuple(tid, empty.getId(), t);
+        PageId pid = t.getRecordId().getPageId();
+        Database.getBufferPool().transactionComplete(tid);
+
+        // committed and read: no before image
+        TransactionId reader = new TransactionId();
+        HeapPage p = (HeapPage) Database.getBufferPool().getPage(reader, pid, Permissions.READ_ONLY);
+        assertNull(p.getBeforeImage());
+        Database.getBufferPool().transactionComplete(reader);
+
+        // written: the before image holds the committed contents
+        TransactionId writer = new TransactionId();
+        p = (HeapPage) Database.getBufferPool().getPage(writer, pid, Permissions.READ_WRITE);
+        byte[] committed = p.getPageData();
+        p.insertTuple(Utility.getHeapTuple(2, 2));
+        assertArrayEquals(committed, p.getBeforeImage().getPageData());
+
+        // aborting restores the committed contents
+        Database.getBufferPool().transactionComplete(writer, false);
+        p = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+        assertArrayEquals(committed, p.getPageData());
+        assertNull(p.getBeforeImage());
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,116 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+    private File f;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before
+    public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        f = SystemTestUtil.createRandomHeapFileUnopened(2, 2000, 100, null, tuples);
+        new File(f.getPath() + ".idx").deleteOnExit();
+    }
+
+    /**
+     * Compressing a file keeps its pages and shrinks it.
+     */
+    @Test
+    public void compress() throws Exception {
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        List<byte[]> pages = new ArrayList<byte[]>();
+        for (int i = 0; i < hf.numPages(); i++)
+            pages.add(hf.readPage(new HeapPageId(hf.getId(), i)).getPageData());
+        long size = f.length();
+
+        CompressedHeapFile.compress(f);
+        assertTrue(f.length() < size / 2);
+
+        CompressedHeapFile chf = new CompressedHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(chf, SystemTestUtil.getUUID());
+        assertEquals(pages.size(), chf.numPages());
+        for (int i = 0; i < pages.size(); i++)
+            assertArrayEquals(pages.get(i), chf.readPage(new HeapPageId(chf.getId(), i)).getPageData());
+        SystemTestUtil.matchTuples(chf, tuples);
+    }
+
+    /**
+     * Inserts and deletes are written to the compressed file, and the table
+     * can be compressed again to reclaim the space of old page images.
+     */
+    @Test
+    public void modify() throws Exception {
+        CompressedHeapFile.compress(f);
+        CompressedHeapFile chf = new CompressedHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(chf, SystemTestUtil.getUUID());
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = chf.iterator(tid);
+        it.open();
+        Tuple first = it.next();
+        it.close();
+        Database.getBufferPool().deleteTuple(tid, first);
+        for (int i = 0; i < 600; i++)
+            Database.getBufferPool().insertTuple(tid, chf.getId(), Utility.getHeapTuple(new int[] { i, -i }));
+        Database.getBufferPool().transactionComplete(tid);
+
+        tuples.remove(SystemTestUtil.tupleToList(first));
+        for (int i = 0; i < 600; i++)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, -i)));
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        CompressedHeapFile reopened = new CompressedHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        SystemTestUtil.matchTuples(reopened, tuples);
+
+        long size = f.length();
+        CompressedHeapFile.compress(f);
+        assertTrue(f.length() < size);
+        reopened = new CompressedHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        SystemTestUtil.matchTuples(reopened, tuples);
+    }
+
+    /**
+     * The catalog loads a table marked "compressed" as a CompressedHeapFile.
+     */
+    @Test
+    public void loadSchema() throws Exception {
+        File dat = new File(f.getParentFile(), "compressedtest.dat");
+        assertTrue(f.renameTo(dat));
+        HeapFile.deleteOnExit(dat);
+        new File(dat.getPath() + ".idx").deleteOnExit();
+        CompressedHeapFile.compress(dat);
+        File catalog = File.createTempFile("catalog", ".txt", f.getParentFile());
+        catalog.deleteOnExit();
+        FileWriter w = new FileWriter(catalog);
+        w.write("compressedtest (a int, b int) compressed\n");
+        w.close();
+
+        Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+        int id = Database.getCatalog().getTableId("compressedtest");
+        assertTrue(Database.getCatalog().getDatabaseFile(id) instanceof CompressedHeapFile);
+        SystemTestUtil.matchTuples(Database.getCatalog().getDatabaseFile(id), tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,148 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class CoveringIndexTest extends SimpleDbTestBase {
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile table;
+
+    @Before
+    public void createTable() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        table = SystemTestUtil.createRandomHeapFile(4, 5000, 1000, null, tuples, "c");
+        Database.getCatalog().addTable(table, "t");
+    }
+
+    /**
+     * Creates and registers an index on field 0 of the table that includes
+     * field 1.
+     */
+    private IndexFile index(boolean hash) throws Exception {
+        File f = File.createTempFile("index", hash ? ".hash" : ".btree");
+        f.deleteOnExit();
+        int[] included = new int[] { 1 };
+        IndexFile index = hash ? new HashFile(f, table, 0, included) : new BTreeFile(f, table, 0, included);
+        Database.getCatalog().addIndex(index);
+        TransactionId tid = new TransactionId();
+        index.build(tid);
+        Database.getBufferPool().transactionComplete(tid);
+        return index;
+    }
+
+    /** Returns true if the transaction holds a lock on a page of the table. */
+    private boolean locksTable(TransactionId tid) {
+        for (int i = 0; i < table.numPages(); i++)
+            if (Database.getBufferPool().holdsLock(tid, new HeapPageId(table.getId(), i)))
+                return true;
+        return false;
+    }
+
+    @Test
+    public void covers() throws Exception {
+        IndexFile index = index(false);
+        assertTrue(index.covers(new int[] { 0 }));
+        assertTrue(index.covers(new int[] { 1, 0 }));
+        assertFalse(index.covers(new int[] { 0, 2 }));
+        assertFalse(index.covers(null));
+    }
+
+    /**
+     * A scan of an index that covers the fields read returns the values of
+     * those fields without reading the table.
+     */
+    @Test
+    public void indexOnlyScan() throws Exception {
+        for (boolean hash : new boolean[] { false, true }) {
+            IndexFile index = index(hash);
+            int key = tuples.get(0).get(0);
+            TransactionId tid = new TransactionId();
+            IndexScan scan = new IndexScan(tid, index, "t", Predicate.Op.EQUALS, new IntField(key));
+            scan.setProjection(new int[] { 0, 1 });
+            assertTrue(scan.isIndexOnly());
+
+            List<List<Integer>> expected = new ArrayList<List<Integer>>();
+            for (ArrayList<Integer> row : tuples)
+                if (row.get(0) == key)
+                    expected.add(row.subList(0, 2));
+            List<List<Integer>> actual = new ArrayList<List<Integer>>();
+            scan.open();
+            while (scan.hasNext()) {
+                Tuple t = scan.next();
+                assertNull(t.getField(2));
+                actual.add(Arrays.asList(((IntField) t.getField(0)).getValue(),
+                        ((IntField) t.getField(1)).getValue()));
+            }
+            scan.close();
+            assertEquals(expected.size(), actual.size());
+            assertTrue(actual.containsAll(expected));
+            assertFalse(locksTable(tid));
+
+            // reading a field the index does not hold reads the table
+            scan.setProjection(new int[] { 0, 2 });
+            assertFalse(scan.isIndexOnly());
+            scan.open();
+            assertTrue(scan.hasNext());
+            assertNotNull(scan.next().getField(2));
+            scan.close();
+            assertTrue(locksTable(tid));
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    /** Returns the index scan in a plan, or null if there is none. */
+    private static IndexScan indexScan(OpIterator plan) {
+        if (plan instanceof IndexScan)
+            return (IndexScan) plan;
+        if (plan instanceof Operator)
+            for (OpIterator child : ((Operator) plan).getChildren()) {
+                IndexScan scan = child == null ? null : indexScan(child);
+                if (scan != null)
+                    return scan;
+            }
+        return null;
+    }
+
+    /**
+     * The optimizer answers a range query from an index that covers it, even
+     * though looking up each match in the table would cost more than a scan.
+     */
+    @Test
+    public void optimizerChoosesIndexOnlyScan() throws Exception {
+        index(false);
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("t", new TableStats(table.getId(), TableStats.IOCOSTPERPAGE));
+        TransactionId tid = new TransactionId();
+
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid, "SELECT t.c1 FROM t WHERE t.c0 < 50;");
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        IndexScan scan = indexScan(plan);
+        assertNotNull(scan);
+        assertTrue(scan.isIndexOnly());
+        List<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> row : tuples)
+            if (row.get(0) < 50)
+                expected.add(new ArrayList<Integer>(Arrays.asList(row.get(1))));
+        SystemTestUtil.matchTuples(plan, expected);
+
+        lp = new Parser().generateLogicalPlan(tid, "SELECT t.c2 FROM t WHERE t.c0 < 50;");
+        scan = indexScan(lp.physicalPlan(tid, stats, false));
+        assertTrue(scan == null || !scan.isIndexOnly());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CoveringIndexTest.class);
+    }
+}
@@ -0,0 +1,150 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class DeadlockDetectionTest {
+    /** Longest wait for a lock; deadlocks must be broken well before it. */
+    private static final int TIMEOUT = 5000;
+
+    private LockManager lm;
+    private PageId p0, p1, p2;
+    private TransactionId t1, t2, t3;
+
+    @Before
+    public void createLockManager() {
+        lm = new LockManager();
+        p0 = new HeapPageId(1, 0);
+        p1 = new HeapPageId(1, 1);
+        p2 = new HeapPageId(1, 2);
+        t1 = new TransactionId();
+        t2 = new TransactionId();
+        t3 = new TransactionId();
+    }
+
+    /** A thread asking for one lock, which records how its wait ended. */
+    private class Waiter extends Thread {
+        final TransactionId tid;
+        final PageId pid;
+        final Permissions perm;
+        volatile boolean acquired;
+        volatile boolean aborted;
+
+        Waiter(TransactionId tid, PageId pid, Permissions perm) {
+            this.tid = tid;
+            this.pid = pid;
+            this.perm = perm;
+            start();
+        }
+
+        public void run() {
+            try {
+                acquired = lm.acquireLock(tid, pid, perm, TIMEOUT);
+            } catch (TransactionAbortedException e) {
+                aborted = true;
+                lm.releaseAllLocks(tid);
+            }
+        }
+
+        void finish() throws InterruptedException {
+            join(2 * TIMEOUT);
+        }
+    }
+
+    private void acquire(TransactionId tid, PageId pid, Permissions perm) throws Exception {
+        assertTrue(lm.acquireLock(tid, pid, perm, 0));
+    }
+
+    /**
+     * Two transactions waiting for each other's pages: the younger one is
+     * aborted, long before the timeout, and the older one gets its lock.
+     */
+    @Test
+    public void breaksCycle() throws Exception {
+        acquire(t1, p0, Permissions.READ_WRITE);
+        acquire(t2, p1, Permissions.READ_WRITE);
+        long start = System.currentTimeMillis();
+        Waiter w1 = new Waiter(t1, p1, Permissions.READ_WRITE);
+        Waiter w2 = new Waiter(t2, p0, Permissions.READ_WRITE);
+        w2.finish();
+        w1.finish();
+        assertTrue(System.currentTimeMillis() - start < TIMEOUT / 5);
+        assertTrue(w2.aborted);
+        assertTrue(w1.acquired);
+        assertFalse(w1.aborted);
+        assertEquals(1, lm.getDeadlocks());
+        assertEquals(0, lm.getTimeouts());
+    }
+
+    /**
+     * Three transactions waiting in a ring, one on a shared lock, are broken
+     * up by aborting the youngest.
+     */
+    @Test
+    public void breaksLongerCycle() throws Exception {
+        acquire(t1, p0, Permissions.READ_ONLY);
+        acquire(t2, p1, Permissions.READ_WRITE);
+        acquire(t3, p2, Permissions.READ_WRITE);
+        Waiter w1 = new Waiter(t1, p1, Permissions.READ_ONLY);
+        Waiter w2 = new Waiter(t2, p2, Permissions.READ_WRITE);
+        Waiter w3 = new Waiter(t3, p0, Permissions.READ_WRITE);
+        w3.finish();
+        assertTrue(w3.aborted);
+        w2.finish();
+        assertTrue(w2.acquired);
+        assertFalse(w1.acquired);
+        lm.releaseAllLocks(t2);
+        w1.finish();
+        assertTrue(w1.acquired);
+        assertEquals(1, lm.getDeadlocks());
+    }
+
+    /**
+     * Two readers of a page both asking to upgrade deadlock in the page's
+     * queue; the younger is aborted and the older upgrades.
+     */
+    @Test
+    public void breaksUpgradeDeadlock() throws Exception {
+        acquire(t1, p0, Permissions.READ_ONLY);
+        acquire(t2, p0, Permissions.READ_ONLY);
+        Waiter w1 = new Waiter(t1, p0, Permissions.READ_WRITE);
+        Waiter w2 = new Waiter(t2, p0, Permissions.READ_WRITE);
+        w2.finish();
+        w1.finish();
+        assertTrue(w2.aborted);
+        assertTrue(w1.acquired);
+        assertEquals(1, lm.getDeadlocks());
+    }
+
+    /**
+     * Transactions waiting in a chain without a cycle are left to wait.
+     */
+    @Test
+    public void leavesChains() throws Exception {
+        acquire(t1, p0, Permissions.READ_WRITE);
+        acquire(t2, p1, Permissions.READ_WRITE);
+        Waiter w2 = new Waiter(t2, p0, Permissions.READ_WRITE);
+        Waiter w3 = new Waiter(t3, p1, Permissions.READ_ONLY);
+        Thread.sleep(10 * LockManager.DETECTION_INTERVAL);
+        assertFalse(w2.aborted || w3.aborted);
+        assertFalse(w2.acquired || w3.acquired);
+
+        lm.releaseAllLocks(t1);
+        w2.finish();
+        assertTrue(w2.acquired);
+        lm.releaseAllLocks(t2);
+        w3.finish();
+        assertTrue(w3.acquired);
+        assertEquals(0, lm.getDeadlocks());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DeadlockDetectionTest.class);
+    }
+}
@@ -0,0 +1,229 @@
+package simpledb;
+
+import simpledb.systemtest.SystemTestUtil;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class DeadlockPreventionTest {
+    /** Longest wait for a lock; no test should come near it. */
+    private static final int TIMEOUT = 5000;
+    /** Time to wait before checking that a waiter is still waiting, in ms */
+    private static final int PAUSE = 100;
+
+    private PageId p0, p1;
+    // t1 is older than t2
+    private TransactionId t1, t2;
+
+    @Before
+    public void createTransactions() {
+        p0 = new HeapPageId(1, 0);
+        p1 = new HeapPageId(1, 1);
+        t1 = new TransactionId();
+        t2 = new TransactionId();
+    }
+
+    /** A thread asking for one lock, which records how its wait ended. */
+    private static class Waiter extends Thread {
+        final LockManager lm;
+        final TransactionId tid;
+        final PageId pid;
+        final Permissions perm;
+        volatile boolean acquired;
+        volatile boolean aborted;
+
+        Waiter(LockManager lm, TransactionId tid, PageId pid) {
+            this(lm, tid, pid, Permissions.READ_WRITE);
+        }
+
+        Waiter(LockManager lm, TransactionId tid, PageId pid, Permissions perm) {
+            this.lm = lm;
+            this.tid = tid;
+            this.pid = pid;
+            this.perm = perm;
+            start();
+        }
+
+        public void run() {
+            try {
+                acquired = lm.acquireLock(tid, pid, perm, TIMEOUT);
+            } catch (TransactionAbortedException e) {
+                aborted = true;
+                lm.releaseAllLocks(tid);
+            }
+        }
+
+        void finish() throws InterruptedException {
+            join(2 * TIMEOUT);
+        }
+    }
+
+    private static void acquire(LockManager lm, TransactionId tid, PageId pid) throws Exception {
+        assertTrue(lm.acquireLock(tid, pid, Permissions.READ_WRITE, 0));
+    }
+
+    /** Returns true if asking for the lock aborts the transaction at once. */
+    private static boolean dies(LockManager lm, TransactionId tid, PageId pid) {
+        try {
+            lm.acquireLock(tid, pid, Permissions.READ_WRITE, TIMEOUT);
+            return false;
+        } catch (TransactionAbortedException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Under wait-die an older transaction waits for a younger one, and a
+     * younger one asking for an older one's page dies without waiting.
+     */
+    @Test
+    public void waitDie() throws Exception {
+        LockManager lm = new LockManager(DeadlockPolicy.WAIT_DIE);
+        acquire(lm, t1, p0);
+        acquire(lm, t2, p1);
+        Waiter w1 = new Waiter(lm, t1, p1);
+        Thread.sleep(PAUSE);
+        assertFalse(w1.acquired || w1.aborted);
+
+        long start = System.currentTimeMillis();
+        assertTrue(dies(lm, t2, p0));
+        assertTrue(System.currentTimeMillis() - start < PAUSE);
+        lm.releaseAllLocks(t2);
+        w1.finish();
+        assertTrue(w1.acquired);
+        assertEquals(1, lm.getPreventionAborts());
+        assertEquals(0, lm.getTimeouts());
+    }
+
+    /**
+     * Under wait-die a transaction older than the holder of a page waits for
+     * it even when queued behind an older transaction asking for a lock it
+     * could share, but dies behind an older one asking for a conflicting
+     * lock.
+     */
+    @Test
+    public void waitDieBehindOlderWaiter() throws Exception {
+        LockManager lm = new LockManager(DeadlockPolicy.WAIT_DIE);
+        TransactionId t3 = new TransactionId();
+        acquire(lm, t3, p0);
+        Waiter w1 = new Waiter(lm, t1, p0, Permissions.READ_ONLY);
+        Thread.sleep(PAUSE);
+        Waiter w2 = new Waiter(lm, t2, p0, Permissions.READ_ONLY);
+        Thread.sleep(PAUSE);
+        assertFalse(w1.acquired || w1.aborted);
+        assertFalse(w2.acquired || w2.aborted);
+
+        lm.releaseAllLocks(t3);
+        w1.finish();
+        w2.finish();
+        assertTrue(w1.acquired);
+        assertTrue(w2.acquired);
+        assertEquals(0, lm.getPreventionAborts());
+        lm.releaseAllLocks(t1);
+        lm.releaseAllLocks(t2);
+
+        acquire(lm, t3, p0);
+        w1 = new Waiter(lm, t1, p0, Permissions.READ_WRITE);
+        Thread.sleep(PAUSE);
+        assertTrue(dies(lm, t2, p0));
+        assertEquals(1, lm.getPreventionAborts());
+        lm.releaseAllLocks(t3);
+        w1.finish();
+        assertTrue(w1.acquired);
+    }
+
+    /**
+     * Under wound-wait a younger transaction waits for an older one, and an
+     * older one asking for a waiting younger one's page aborts its wait.
+     */
+    @Test
+    public void woundWaitAbortsWaiter() throws Exception {
+        LockManager lm = new LockManager(DeadlockPolicy.WOUND_WAIT);
+        acquire(lm, t1, p0);
+        acquire(lm, t2, p1);
+        Waiter w2 = new Waiter(lm, t2, p0);
+        Thread.sleep(PAUSE);
+        assertFalse(w2.acquired || w2.aborted);
+
+        Waiter w1 = new Waiter(lm, t1, p1);
+        w2.finish();
+        assertTrue(w2.aborted);
+        w1.finish();
+        assertTrue(w1.acquired);
+        assertEquals(1, lm.getPreventionAborts());
+    }
+
+    /**
+     * Under wound-wait a younger transaction that holds a page an older one
+     * asks for is aborted when it next asks for a lock, and may start over
+     * once it has completed.
+     */
+    @Test
+    public void woundWaitAbortsHolder() throws Exception {
+        LockManager lm = new LockManager(DeadlockPolicy.WOUND_WAIT);
+        acquire(lm, t2, p0);
+        Waiter w1 = new Waiter(lm, t1, p0);
+        Thread.sleep(PAUSE);
+        assertFalse(w1.acquired);
+
+        assertTrue(dies(lm, t2, p1));
+        lm.releaseAllLocks(t2);
+        w1.finish();
+        assertTrue(w1.acquired);
+        acquire(lm, t2, p1);
+    }
+
+    /**
+     * Under wait-die a transaction waiting for a younger one through the
+     * BufferPool waits past the lock timeout without being aborted, since
+     * the policy rules out deadlocks.
+     */
+    @Test
+    public void waitDieHasNoTimeout() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        final PageId pid = new HeapPageId(table.getId(), 0);
+        final BufferPool bp = new BufferPool(10, new ClockPolicy(10), DeadlockPolicy.WAIT_DIE);
+        bp.getPage(t2, pid, Permissions.READ_WRITE);
+        final boolean[] acquired = new boolean[1];
+        Thread waiter = new Thread() {
+            public void run() {
+                try {
+                    bp.getPage(t1, pid, Permissions.READ_WRITE);
+                    acquired[0] = true;
+                } catch (TransactionAbortedException | DbException e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        waiter.start();
+        // longer than the lock timeout of about a second
+        Thread.sleep(1500);
+        assertTrue(waiter.isAlive());
+        bp.transactionComplete(t2);
+        waiter.join(TIMEOUT);
+        assertTrue(acquired[0]);
+        assertEquals(0, bp.getLockTimeouts());
+        bp.transactionComplete(t1);
+    }
+
+    /**
+     * The policy names accepted by the simpledb.DeadlockPolicy property.
+     */
+    @Test
+    public void parse() {
+        assertEquals(DeadlockPolicy.WOUND_WAIT, DeadlockPolicy.parse("wound-wait"));
+        assertEquals(DeadlockPolicy.WAIT_DIE, DeadlockPolicy.parse("WAIT_DIE"));
+        assertEquals(DeadlockPolicy.DETECT, DeadlockPolicy.parse("detect"));
+        assertEquals(DeadlockPolicy.TIMEOUT, DeadlockPolicy.parse("Timeout"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DeadlockPreventionTest.class);
+    }
+}
@@ -0,0 +1,108 @@
+package simpledb;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class FileHandleCacheTest {
+    private File[] files;
+
+    @Before public void setUp() throws Exception {
+        files = new File[3];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = File.createTempFile("handles", ".dat");
+            files[i].deleteOnExit();
+        }
+    }
+
+    /**
+     * A channel stays open between uses, and is shared by every caller.
+     */
+    @Test public void reuse() throws Exception {
+        FileHandleCache cache = new FileHandleCache(2);
+        FileChannel ch = cache.acquire(files[0]);
+        cache.release(files[0]);
+        assertSame(ch, cache.acquire(files[0]));
+        assertSame(ch, cache.acquire(new File(files[0].getPath())));
+        cache.release(files[0]);
+        cache.release(files[0]);
+        assertTrue(ch.isOpen());
+        assertEquals(1, cache.openCount());
+    }
+
+    /**
+     * Opening more files than the limit closes the least recently used one.
+     */
+    @Test public void evictLeastRecentlyUsed() throws Exception {
+        FileHandleCache cache = new FileHandleCache(2);
+        FileChannel ch0 = cache.acquire(files[0]);
+        cache.release(files[0]);
+        FileChannel ch1 = cache.acquire(files[1]);
+        cache.release(files[1]);
+        cache.acquire(files[0]);
+        cache.release(files[0]);
+
+        cache.acquire(files[2]);
+        cache.release(files[2]);
+        assertEquals(2, cache.openCount());
+        assertTrue(ch0.isOpen());
+        assertFalse(ch1.isOpen());
+    }
+
+    /**
+     * A channel in use is never closed, even if that exceeds the limit.
+     */
+    @Test public void pinnedNotEvicted() throws Exception {
+        FileHandleCache cache = new FileHandleCache(1);
+        FileChannel ch0 = cache.acquire(files[0]);
+        FileChannel ch1 = cache.acquire(files[1]);
+        assertTrue(ch0.isOpen());
+        assertEquals(2, cache.openCount());
+
+        cache.release(files[0]);
+        assertFalse(ch0.isOpen());
+        assertTrue(ch1.isOpen());
+        cache.release(files[1]);
+        assertEquals(1, cache.openCount());
+    }
+
+    /**
+     * Data written through a channel survives it being closed and reopened.
+     */
+    @Test public void reopen() throws Exception {
+        FileHandleCache cache = new FileHandleCache(1);
+        FileChannel ch = cache.acquire(files[0]);
+        ch.write(ByteBuffer.wrap(new byte[] { 1, 2, 3 }), 8);
+        cache.release(files[0]);
+        cache.acquire(files[1]);
+        cache.release(files[1]);
+        assertFalse(ch.isOpen());
+
+        ByteBuffer buf = ByteBuffer.allocate(3);
+        ch = cache.acquire(files[0]);
+        ch.read(buf, 8);
+        cache.release(files[0]);
+        assertArrayEquals(new byte[] { 1, 2, 3 }, buf.array());
+    }
+
+    /**
+     * Releasing a file that was not acquired is an error.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void unbalancedRelease() throws Exception {
+        new FileHandleCache(1).release(files[0]);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FileHandleCacheTest.class);
+    }
+}
@@ -0,0 +1,104 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class FreeSpaceMapTest {
+    private File file;
+    private File data;
+
+    @Before public void setUp() throws Exception {
+        data = File.createTempFile("free", ".dat");
+        data.deleteOnExit();
+        file = new File(data.getPath() + ".fsm");
+        file.deleteOnExit();
+    }
+
+    /**
+     * Unit test for FreeSpaceMap.nextFree() on a new map
+     */
+    @Test public void emptyMap() {
+        FreeSpaceMap fsm = new FreeSpaceMap(file, data);
+        assertEquals(0, fsm.nextFree(0));
+        assertEquals(7, fsm.nextFree(7));
+        assertFalse(file.exists());
+    }
+
+    /**
+     * Unit test for FreeSpaceMap.update()
+     */
+    @Test public void update() {
+        FreeSpaceMap fsm = new FreeSpaceMap(file, data);
+        fsm.update(0, false);
+        fsm.update(1, false);
+        fsm.update(3, false);
+        assertEquals(2, fsm.nextFree(0));
+        assertEquals(4, fsm.nextFree(3));
+
+        fsm.update(1, true);
+        assertEquals(1, fsm.nextFree(0));
+    }
+
+    /**
+     * The map is read back from its file.
+     */
+    @Test public void persistent() {
+        FreeSpaceMap fsm = new FreeSpaceMap(file, data);
+        for (int i = 0; i < 20; i++)
+            fsm.update(i, false);
+        fsm.update(9, true);
+
+        FreeSpaceMap reopened = new FreeSpaceMap(file, data);
+        assertEquals(9, reopened.nextFree(0));
+        assertEquals(20, reopened.nextFree(10));
+    }
+
+    /**
+     * A map left over from other contents of the data file is not used, and
+     * is started afresh when it is next written.
+     */
+    @Test public void stale() throws Exception {
+        FreeSpaceMap fsm = new FreeSpaceMap(file, data);
+        for (int i = 0; i < 20; i++)
+            fsm.update(i, false);
+        FileOutputStream out = new FileOutputStream(data);
+        out.write(new byte[BufferPool.getPageSize()]);
+        out.close();
+
+        FreeSpaceMap reopened = new FreeSpaceMap(file, data);
+        assertEquals(0, reopened.nextFree(0));
+        reopened.update(1, false);
+        reopened = new FreeSpaceMap(file, data);
+        assertEquals(0, reopened.nextFree(0));
+        assertEquals(2, reopened.nextFree(1));
+    }
+
+    /**
+     * A page filled by an insert that aborts has room again.
+     */
+    @Test public void abortedInsert() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapFile hf = Utility.openHeapFile(2, data);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < HeapPage.numSlots(hf.getTupleDesc()); i++)
+            bp.insertTuple(tid, hf.getId(), Utility.getHeapTuple(i, 2));
+        assertEquals(1, hf.numPages());
+        assertEquals(1, hf.getFreeSpaceMap().nextFree(0));
+
+        bp.transactionComplete(tid, false);
+        assertEquals(0, hf.getFreeSpaceMap().nextFree(0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
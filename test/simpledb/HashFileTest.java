@@ -0,0 +1,192 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HashFileTest extends SimpleDbTestBase {
+    private HeapFile table;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    /**
+     * Use small pages, so the indexes in these tests have many buckets.
+     */
+    @Before
+    public void smallPages() throws Exception {
+        BufferPool.setPageSize(256);
+        Database.reset();
+        tuples = new ArrayList<ArrayList<Integer>>();
+    }
+
+    @After
+    public void resetPages() {
+        BufferPool.resetPageSize();
+    }
+
+    /** Creates and registers an index on field 0 of the table. */
+    private HashFile index() throws Exception {
+        File f = File.createTempFile("index", ".hash");
+        f.deleteOnExit();
+        HashFile index = new HashFile(f, table, 0);
+        Database.getCatalog().addIndex(index);
+        TransactionId tid = new TransactionId();
+        index.build(tid);
+        Database.getBufferPool().transactionComplete(tid);
+        return index;
+    }
+
+    /** Returns the keys of the index's entries, sorted. */
+    private static List<Integer> keys(HashFile index) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = index.iterator(tid);
+        List<Integer> keys = new ArrayList<Integer>();
+        it.open();
+        while (it.hasNext())
+            keys.add(((IntField) it.next().getField(0)).getValue());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        Collections.sort(keys);
+        return keys;
+    }
+
+    /** Returns the sorted keys of the table's tuples. */
+    private List<Integer> tableKeys() {
+        List<Integer> keys = new ArrayList<Integer>();
+        for (ArrayList<Integer> row : tuples)
+            keys.add(row.get(0));
+        Collections.sort(keys);
+        return keys;
+    }
+
+    /** Returns the rows whose first field satisfies op value. */
+    private List<ArrayList<Integer>> matching(Predicate.Op op, int value) {
+        List<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> row : tuples)
+            if (new IntField(row.get(0)).compare(op, new IntField(value)))
+                rows.add(row);
+        return rows;
+    }
+
+    /**
+     * Building an index gives an entry per tuple, spread over enough buckets
+     * that a lookup reads about one bucket page.
+     */
+    @Test
+    public void build() throws Exception {
+        table = SystemTestUtil.createRandomHeapFile(2, 600, 5000, null, tuples);
+        HashFile index = index();
+        assertEquals(tableKeys(), keys(index));
+        assertTrue(index.numPages() > 600 / HashPage.capacity(index.getTupleDesc()));
+        assertTrue(index.estimateProbePages() < 3);
+    }
+
+    /**
+     * An IndexScan on a hash index returns the tuples with a key, and
+     * compares every key for other predicates.
+     */
+    @Test
+    public void lookup() throws Exception {
+        table = SystemTestUtil.createRandomHeapFile(2, 3000, 500, null, tuples);
+        HashFile index = index();
+        assertTrue(index.supports(Predicate.Op.EQUALS));
+        assertFalse(index.supports(Predicate.Op.LESS_THAN));
+        for (int value : new int[] { -1, 0, 17, tuples.get(0).get(0), 499, 500 }) {
+            TransactionId tid = new TransactionId();
+            SystemTestUtil.matchTuples(new IndexScan(tid, index, "t", Predicate.Op.EQUALS, new IntField(value)),
+                    matching(Predicate.Op.EQUALS, value));
+            SystemTestUtil.matchTuples(new IndexScan(tid, index, "t", Predicate.Op.GREATER_THAN, new IntField(value)),
+                    matching(Predicate.Op.GREATER_THAN, value));
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    /**
+     * Inserts and deletes through the BufferPool keep the index up to date,
+     * splitting buckets as they overflow.
+     */
+    @Test
+    public void insertAndDelete() throws Exception {
+        table = SystemTestUtil.createRandomHeapFile(2, 0, null, tuples);
+        HashFile index = index();
+        int initialPages = index.numPages();
+        Random r = new Random(1);
+        for (int batch = 0; batch < 10; batch++) {
+            TransactionId tid = new TransactionId();
+            for (int i = 0; i < 100; i++) {
+                int key = r.nextInt(500) - 100;
+                Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[] { key, i }));
+                tuples.add(new ArrayList<Integer>(Arrays.asList(key, i)));
+            }
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        assertEquals(tableKeys(), keys(index));
+        assertTrue(index.numPages() > initialPages);
+
+        // delete every tuple with an even key
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        List<Tuple> doomed = new ArrayList<Tuple>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() % 2 == 0)
+                doomed.add(t);
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        for (int i = 0; i < doomed.size(); i += 100) {
+            tid = new TransactionId();
+            for (Tuple t : doomed.subList(i, Math.min(doomed.size(), i + 100)))
+                Database.getBufferPool().deleteTuple(tid, t);
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        for (Iterator<ArrayList<Integer>> rows = tuples.iterator(); rows.hasNext(); )
+            if (rows.next().get(0) % 2 == 0)
+                rows.remove();
+
+        assertEquals(tableKeys(), keys(index));
+        for (int key = -100; key < 400; key += 7) {
+            tid = new TransactionId();
+            SystemTestUtil.matchTuples(new IndexScan(tid, index, "t", Predicate.Op.EQUALS, new IntField(key)),
+                    matching(Predicate.Op.EQUALS, key));
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    /**
+     * The index changes of an aborted transaction, including bucket splits,
+     * are undone with its table changes.
+     */
+    @Test
+    public void abort() throws Exception {
+        table = SystemTestUtil.createRandomHeapFile(2, 500, 500, null, tuples);
+        HashFile index = index();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 200; i++)
+            Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[] { i, i }));
+        Database.getBufferPool().transactionComplete(tid, false);
+        assertEquals(tableKeys(), keys(index));
+
+        for (int key : new int[] { 0, 1, 100, tuples.get(0).get(0) }) {
+            tid = new TransactionId();
+            SystemTestUtil.matchTuples(new IndexScan(tid, index, "t", Predicate.Op.EQUALS, new IntField(key)),
+                    matching(Predicate.Op.EQUALS, key));
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashFileTest.class);
+    }
+}
@@ -43,6 +43,22 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test that HeapFile.insertTuple() skips pages it has found full
+     */
+    @Test public void skipFullPages() throws Exception {
+        for (int i = 0; i < 504 * 2; ++i)
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(0, 2);
+        empty.insertTuple(tid, t);
+        assertEquals(2, t.getRecordId().getPageId().getPageNumber());
+        assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(empty.getId(), 0)));
+        assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(empty.getId(), 1)));
+    }
+
     /**
      * JUnit suite target
      */
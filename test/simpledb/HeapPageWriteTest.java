@@ -126,6 +126,50 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getPageData() after tuples read from a page are
+     * changed or copied to another page
+     */
+    @Test public void serializeTuplesFromPage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Tuple changed = page.iterator().next();
+        changed.setField(1, new IntField(-7));
+
+        HeapPage reread = new HeapPage(pid, page.getPageData());
+        Tuple t = reread.iterator().next();
+        assertEquals(new IntField(-7), t.getField(1));
+        assertEquals(changed.getField(0), t.getField(0));
+
+        // a tuple read from one page keeps its contents on another
+        HeapPage empty = new HeapPage(pid, HeapPage.createEmptyPageData());
+        Iterator<Tuple> it = reread.iterator();
+        it.next();
+        Tuple moved = it.next();
+        empty.insertTuple(moved);
+        Tuple copy = new HeapPage(pid, empty.getPageData()).iterator().next();
+        assertTrue(TestUtil.compareTuples(moved, copy));
+    }
+
+    /**
+     * Unit test that tuples read from a page keep their values when their
+     * slot is deleted and reused
+     */
+    @Test public void reuseSlotOfReadTuple() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Tuple old = page.iterator().next();
+        int[] values = { ((IntField) old.getField(0)).getValue(), ((IntField) old.getField(1)).getValue() };
+
+        page.deleteTuple(old);
+        Tuple addition = Utility.getHeapTuple(new int[] { values[0] + 1, values[1] + 1 });
+        page.insertTuple(addition);
+        assertEquals(old.getRecordId(), addition.getRecordId());
+
+        assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(values), old));
+        assertTrue(TestUtil.compareTuples(addition, page.iterator().next()));
+        assertTrue(TestUtil.compareTuples(addition,
+                new HeapPage(pid, page.getPageData()).iterator().next()));
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,132 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+    private ArrayList<ArrayList<Integer>> outerTuples;
+    private ArrayList<ArrayList<Integer>> innerTuples;
+    private HeapFile outer;
+    private HeapFile inner;
+
+    /**
+     * Creates a small outer table, and a large inner table keyed on its
+     * first field.
+     */
+    @Before
+    public void createTables() throws Exception {
+        outerTuples = new ArrayList<ArrayList<Integer>>();
+        outer = SystemTestUtil.createRandomHeapFile(2, 20, 6000, null, outerTuples, "c");
+        Database.getCatalog().addTable(outer, "o");
+        innerTuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 5000; i++)
+            innerTuples.add(new ArrayList<Integer>(Arrays.asList(i, i % 7)));
+        inner = JoinOptimizerTest.createDuplicateHeapFile(innerTuples, 2, "c");
+        Database.getCatalog().addTable(inner, "i", "c0");
+    }
+
+    /** Creates and registers an index on field 0 of the inner table. */
+    private IndexFile index(boolean hash) throws Exception {
+        File f = File.createTempFile("index", hash ? ".hash" : ".btree");
+        f.deleteOnExit();
+        IndexFile index = hash ? new HashFile(f, inner, 0) : new BTreeFile(f, inner, 0);
+        Database.getCatalog().addIndex(index);
+        TransactionId tid = new TransactionId();
+        index.build(tid);
+        Database.getBufferPool().transactionComplete(tid);
+        return index;
+    }
+
+    /** Returns the rows of the equality join of the tables on field 0 whose
+     * inner field 1 is not 3. */
+    private List<ArrayList<Integer>> expected() {
+        List<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> o : outerTuples) {
+            for (ArrayList<Integer> i : innerTuples) {
+                if (o.get(0).equals(i.get(0)) && i.get(1) != 3) {
+                    ArrayList<Integer> row = new ArrayList<Integer>(o);
+                    row.addAll(i);
+                    rows.add(row);
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * The join returns the matching tuples the index finds for each outer
+     * tuple, after the filters over the inner table.
+     */
+    @Test
+    public void join() throws Exception {
+        for (boolean hash : new boolean[] { false, true }) {
+            IndexFile index = index(hash);
+            TransactionId tid = new TransactionId();
+            IndexScan probe = new IndexScan(tid, index, "i", Predicate.Op.EQUALS, null);
+            Filter filter = new Filter(new Predicate(1, Predicate.Op.NOT_EQUALS, new IntField(3)), probe);
+            OpIterator join = new IndexNestedLoopJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                    new SeqScan(tid, outer.getId(), "o"), filter, probe);
+            SystemTestUtil.matchTuples(join, expected());
+            // a rewound join returns the same tuples again
+            join.open();
+            join.rewind();
+            int n = 0;
+            while (join.hasNext()) {
+                join.next();
+                n++;
+            }
+            join.close();
+            assertEquals(expected().size(), n);
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    /** Returns true if the plan contains an IndexNestedLoopJoin. */
+    private static boolean hasIndexJoin(OpIterator plan) {
+        if (plan instanceof IndexNestedLoopJoin)
+            return true;
+        if (plan instanceof Operator)
+            for (OpIterator child : ((Operator) plan).getChildren())
+                if (child != null && hasIndexJoin(child))
+                    return true;
+        return false;
+    }
+
+    /**
+     * The optimizer looks up a large indexed table for each tuple of a small
+     * one, instead of scanning it for each.
+     */
+    @Test
+    public void optimizerChoosesIndexJoin() throws Exception {
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("o", new TableStats(outer.getId(), TableStats.IOCOSTPERPAGE));
+        stats.put("i", new TableStats(inner.getId(), TableStats.IOCOSTPERPAGE));
+        TransactionId tid = new TransactionId();
+        String query = "SELECT * FROM o, i WHERE o.c0 = i.c0 AND i.c1 <> 3;";
+
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid, query);
+        assertFalse(hasIndexJoin(lp.physicalPlan(tid, stats, false)));
+
+        index(false);
+        lp = new Parser().generateLogicalPlan(tid, query);
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(hasIndexJoin(plan));
+        SystemTestUtil.matchTuples(plan, expected());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+    }
+}
@@ -0,0 +1,210 @@
+package simpledb;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class LockQueueTest {
+    /** Time to wait before checking whether a waiter has its lock, in ms */
+    private static final int TIMEOUT = 100;
+
+    private LockManager lm;
+    private PageId p0;
+    private TransactionId t1, t2, t3;
+
+    @Before
+    public void createLockManager() {
+        lm = new LockManager();
+        p0 = new HeapPageId(1, 0);
+        t1 = new TransactionId();
+        t2 = new TransactionId();
+        t3 = new TransactionId();
+    }
+
+    /** A thread asking for one lock, waiting as long as it takes. */
+    private class Waiter extends Thread {
+        final TransactionId tid;
+        final Permissions perm;
+        volatile boolean acquired;
+
+        Waiter(TransactionId tid, Permissions perm) {
+            this.tid = tid;
+            this.perm = perm;
+            start();
+        }
+
+        public void run() {
+            try {
+                acquired = lm.acquireLock(tid, p0, perm, 60000);
+            } catch (TransactionAbortedException e) {
+                e.printStackTrace();
+            }
+        }
+
+        /** Waits for the thread to end, and returns true if it got the lock. */
+        boolean finish() throws InterruptedException {
+            join(10000);
+            return acquired;
+        }
+    }
+
+    private boolean acquire(TransactionId tid, Permissions perm) throws Exception {
+        return lm.acquireLock(tid, p0, perm, 0);
+    }
+
+    /**
+     * Waiters are granted the lock in the order they asked for it, and a
+     * reader does not overtake a waiting writer.
+     */
+    @Test
+    public void fifoGrantOrder() throws Exception {
+        assertTrue(acquire(t1, Permissions.READ_ONLY));
+        Waiter writer = new Waiter(t2, Permissions.READ_WRITE);
+        Thread.sleep(TIMEOUT);
+        assertFalse(acquire(t3, Permissions.READ_ONLY));
+        Waiter reader = new Waiter(t3, Permissions.READ_ONLY);
+        Thread.sleep(TIMEOUT);
+        assertFalse(writer.acquired);
+        assertFalse(reader.acquired);
+
+        lm.releaseAllLocks(t1);
+        assertTrue(writer.finish());
+        Thread.sleep(TIMEOUT);
+        assertFalse(reader.acquired);
+        lm.releaseAllLocks(t2);
+        assertTrue(reader.finish());
+        assertTrue(lm.holdsLock(t3, p0));
+        assertFalse(lm.holdsLock(t2, p0));
+    }
+
+    /**
+     * A reader asking for a write lock is granted it before the transactions
+     * queued behind the other readers.
+     */
+    @Test
+    public void upgradeJumpsQueue() throws Exception {
+        assertTrue(acquire(t1, Permissions.READ_ONLY));
+        assertTrue(acquire(t2, Permissions.READ_ONLY));
+        Waiter writer = new Waiter(t3, Permissions.READ_WRITE);
+        Thread.sleep(TIMEOUT);
+        Waiter upgrade = new Waiter(t1, Permissions.READ_WRITE);
+        Thread.sleep(TIMEOUT);
+        assertFalse(upgrade.acquired);
+
+        lm.releaseAllLocks(t2);
+        assertTrue(upgrade.finish());
+        assertFalse(writer.acquired);
+        lm.releaseAllLocks(t1);
+        assertTrue(writer.finish());
+    }
+
+    /**
+     * A waiter that gives up leaves the queue, and does not hold up the
+     * waiters behind it.
+     */
+    @Test
+    public void timeoutLeavesQueue() throws Exception {
+        assertTrue(acquire(t1, Permissions.READ_ONLY));
+        long start = System.currentTimeMillis();
+        // t2 gives up while t3 waits behind it
+        Thread writer = new Thread() {
+            public void run() {
+                try {
+                    assertFalse(lm.acquireLock(t2, p0, Permissions.READ_WRITE, 2 * TIMEOUT));
+                } catch (TransactionAbortedException e) {
+                    fail();
+                }
+            }
+        };
+        writer.start();
+        Thread.sleep(TIMEOUT / 2);
+        Waiter reader = new Waiter(t3, Permissions.READ_ONLY);
+        writer.join();
+        assertTrue(System.currentTimeMillis() - start >= 2 * TIMEOUT);
+        assertTrue(reader.finish());
+        assertFalse(lm.holdsLock(t2, p0));
+        assertTrue(lm.holdsLock(t1, p0));
+    }
+
+    /**
+     * Handing a lock from one transaction to the next wakes the waiter at
+     * once, rather than when it next polls.
+     */
+    @Test
+    public void fastHandOff() throws Exception {
+        int handOffs = 100;
+        TransactionId holder = new TransactionId();
+        assertTrue(acquire(holder, Permissions.READ_WRITE));
+        long start = System.nanoTime();
+        for (int i = 0; i < handOffs; i++) {
+            Waiter next = new Waiter(new TransactionId(), Permissions.READ_WRITE);
+            while (next.getState() != Thread.State.WAITING && next.getState() != Thread.State.TIMED_WAITING)
+                Thread.yield();
+            lm.releaseAllLocks(holder);
+            assertTrue(next.finish());
+            holder = next.tid;
+        }
+        // polling every 10ms would take a second
+        assertTrue((System.nanoTime() - start) / 1000000 < 500);
+    }
+
+    /**
+     * Threads locking pages spread over the lock table's stripes never hold
+     * conflicting locks on the same page at once.
+     */
+    @Test
+    public void concurrentStripes() throws Exception {
+        final int pages = 4 * LockManager.STRIPES;
+        final int[] writers = new int[pages];
+        final int[] readers = new int[pages];
+        final AtomicInteger conflicts = new AtomicInteger();
+        Thread[] threads = new Thread[16];
+        for (int i = 0; i < threads.length; i++) {
+            final Random rand = new Random(i);
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int n = 0; n < 2000; n++) {
+                        TransactionId tid = new TransactionId();
+                        int page = rand.nextInt(pages);
+                        PageId pid = new HeapPageId(1, page);
+                        boolean write = rand.nextInt(4) == 0;
+                        try {
+                            if (!lm.acquireLock(tid, pid, write ? Permissions.READ_WRITE : Permissions.READ_ONLY, 60000))
+                                conflicts.incrementAndGet();
+                        } catch (TransactionAbortedException e) {
+                            conflicts.incrementAndGet();
+                        }
+                        synchronized (writers) {
+                            if (writers[page] > 0 || (write && readers[page] > 0))
+                                conflicts.incrementAndGet();
+                            if (write) writers[page]++; else readers[page]++;
+                        }
+                        Thread.yield();
+                        synchronized (writers) {
+                            if (write) writers[page]--; else readers[page]--;
+                        }
+                        lm.releaseAllLocks(tid);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        assertEquals(0, conflicts.get());
+        // every lock was released
+        for (int i = 0; i < pages; i++)
+            assertTrue(lm.acquireLock(t1, new HeapPageId(1, i), Permissions.READ_WRITE, 0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockQueueTest.class);
+    }
+}
@@ -0,0 +1,110 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class MappedHeapFileTest extends SimpleDbTestBase {
+    private File f;
+    private MappedHeapFile mhf;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before
+    public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        f = SystemTestUtil.createRandomHeapFileUnopened(2, 1200, 1000, null, tuples);
+        mhf = new MappedHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(mhf, SystemTestUtil.getUUID());
+    }
+
+    /**
+     * Pages read from the mapping match those read from the file.
+     */
+    @Test
+    public void readPage() throws Exception {
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2));
+        assertEquals(3, mhf.numPages());
+        for (int i = 0; i < mhf.numPages(); i++) {
+            HeapPageId pid = new HeapPageId(mhf.getId(), i);
+            assertArrayEquals(hf.readPage(pid).getPageData(), mhf.readPage(pid).getPageData());
+        }
+        assertNull(mhf.readPage(new HeapPageId(mhf.getId(), 3)));
+    }
+
+    /**
+     * A page read from the mapping reads the mapped bytes in place until it
+     * is changed, and changing it does not change the mapping.
+     */
+    @Test
+    public void copyOnWrite() throws Exception {
+        HeapPageId pid = new HeapPageId(mhf.getId(), 0);
+        HeapPage page = (HeapPage) mhf.readPage(pid);
+        assertNull(page.data);
+        Tuple first = page.iterator().next();
+        int empty = page.getNumEmptySlots();
+
+        page.deleteTuple(first);
+        assertNotNull(page.data);
+        assertEquals(empty + 1, page.getNumEmptySlots());
+        assertEquals(empty, ((HeapPage) mhf.readPage(pid)).getNumEmptySlots());
+        // the deleted tuple's view still reads the mapped bytes
+        assertEquals(tuples.get(0).get(0).intValue(), ((IntField) first.getField(0)).getValue());
+    }
+
+    /**
+     * A scan returns every tuple in the file.
+     */
+    @Test
+    public void scan() throws Exception {
+        SystemTestUtil.matchTuples(mhf, tuples);
+    }
+
+    /**
+     * The table cannot be modified.
+     */
+    @Test(expected = DbException.class)
+    public void readOnly() throws Exception {
+        Tuple t = new Tuple(Utility.getTupleDesc(2));
+        t.setField(0, new IntField(1));
+        t.setField(1, new IntField(2));
+        mhf.insertTuple(new TransactionId(), t);
+    }
+
+    /**
+     * The catalog loads a table marked "mapped" as a MappedHeapFile.
+     */
+    @Test
+    public void loadSchema() throws Exception {
+        File dat = new File(f.getParentFile(), "mappedtest.dat");
+        assertTrue(f.renameTo(dat));
+        HeapFile.deleteOnExit(dat);
+        File catalog = File.createTempFile("catalog", ".txt", f.getParentFile());
+        catalog.deleteOnExit();
+        FileWriter w = new FileWriter(catalog);
+        w.write("mappedtest (a int, b int) mapped\n");
+        w.close();
+
+        Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+        int id = Database.getCatalog().getTableId("mappedtest");
+        assertTrue(Database.getCatalog().getDatabaseFile(id) instanceof MappedHeapFile);
+        SystemTestUtil.matchTuples(Database.getCatalog().getDatabaseFile(id), tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MappedHeapFileTest.class);
+    }
+}
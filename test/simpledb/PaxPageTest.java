@@ -0,0 +1,120 @@
+package simpledb;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PaxPageTest extends SimpleDbTestBase {
+    private HeapPageId pid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before
+    public void addTable() throws Exception {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(3)), SystemTestUtil.getUUID());
+    }
+
+    /**
+     * Each field of the page's tuples is stored together.
+     */
+    @Test
+    public void columnLayout() throws Exception {
+        PaxPage page = new PaxPage(pid, HeapPage.createEmptyPageData());
+        page.insertTuple(Utility.getHeapTuple(new int[] { 1, 2, 3 }));
+        page.insertTuple(Utility.getHeapTuple(new int[] { 4, 5, 6 }));
+
+        int slots = HeapPage.numSlots(Utility.getTupleDesc(3));
+        int header = (slots + 7) / 8;
+        java.nio.ByteBuffer data = java.nio.ByteBuffer.wrap(page.getPageData());
+        for (int field = 0; field < 3; field++) {
+            int minipage = header + field * slots * 4;
+            assertEquals(field + 1, data.getInt(minipage));
+            assertEquals(field + 4, data.getInt(minipage + 4));
+        }
+
+        Iterator<Tuple> it = new PaxPage(pid, page.getPageData()).iterator();
+        assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(new int[] { 1, 2, 3 }), it.next()));
+        assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(new int[] { 4, 5, 6 }), it.next()));
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Deleting a tuple clears all its fields.
+     */
+    @Test
+    public void deleteTuple() throws Exception {
+        PaxPage page = new PaxPage(pid, HeapPage.createEmptyPageData());
+        Tuple t = Utility.getHeapTuple(new int[] { 1, 2, 3 });
+        page.insertTuple(t);
+        page.deleteTuple(t);
+        assertArrayEquals(HeapPage.createEmptyPageData(), page.getPageData());
+    }
+
+    /**
+     * A projected iterator decodes only the fields asked for.
+     */
+    @Test
+    public void projectedIterator() throws Exception {
+        PaxPage page = new PaxPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; i < 10; i++)
+            page.insertTuple(Utility.getHeapTuple(new int[] { i, 10 * i, 100 * i }));
+
+        Iterator<Tuple> it = page.iterator(new int[] { 2 });
+        for (int i = 0; i < 10; i++) {
+            Tuple t = it.next();
+            assertNull(t.getField(0));
+            assertNull(t.getField(1));
+            assertEquals(new IntField(100 * i), t.getField(2));
+            assertEquals(new RecordId(pid, i), t.getRecordId());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * An aggregate over a projected scan of a PAX table.
+     */
+    @Test
+    public void aggregateScan() throws Exception {
+        File f = File.createTempFile("pax", ".dat");
+        HeapFile.deleteOnExit(f);
+        PaxHeapFile pax = new PaxHeapFile(f, Utility.getTupleDesc(3));
+        Database.getCatalog().addTable(pax, SystemTestUtil.getUUID());
+
+        TransactionId tid = new TransactionId();
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        int sum = 0;
+        for (int i = 0; i < 2000; i++) {
+            tuples.add(Utility.getHeapTuple(new int[] { i, i % 7, -i }));
+            sum += i % 7;
+        }
+        Insert insert = new Insert(tid, new TupleIterator(Utility.getTupleDesc(3), tuples), pax.getId());
+        insert.open();
+        insert.next();
+        insert.close();
+
+        SeqScan scan = new SeqScan(tid, pax.getId());
+        scan.setProjection(new int[] { 1 });
+        Aggregate agg = new Aggregate(scan, 1, Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+        agg.open();
+        assertEquals(new IntField(sum), agg.next().getField(0));
+        agg.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxPageTest.class);
+    }
+}
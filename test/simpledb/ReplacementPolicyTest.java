@@ -0,0 +1,117 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private HashMap<PageId, Page> frames;
+
+    @Before public void addTable() throws Exception {
+        Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+        frames = new HashMap<PageId, Page>();
+    }
+
+    private HeapPageId load(ReplacementPolicy policy, int pgNo) throws Exception {
+        HeapPageId pid = new HeapPageId(-1, pgNo);
+        frames.put(pid, new HeapPage(pid, HeapPage.createEmptyPageData()));
+        policy.pageLoaded(pid);
+        return pid;
+    }
+
+    private PageId evict(ReplacementPolicy policy) {
+        PageId vic = policy.chooseVictim(frames);
+        if (vic != null)
+            frames.remove(vic);
+        return vic;
+    }
+
+    /**
+     * CLOCK gives a second chance to pages referenced since the hand last
+     * passed them.
+     */
+    @Test public void clockSecondChance() throws Exception {
+        ClockPolicy policy = new ClockPolicy(3);
+        HeapPageId p0 = load(policy, 0);
+        HeapPageId p1 = load(policy, 1);
+        HeapPageId p2 = load(policy, 2);
+
+        // first sweep clears every bit, so the first page loaded goes
+        assertEquals(p0, evict(policy));
+        load(policy, 3);
+        policy.pageAccessed(p1);
+        assertEquals(p2, evict(policy));
+    }
+
+    /**
+     * LRU-2 evicts pages seen only once before pages that were hit twice,
+     * however recently the single-use page was read.
+     */
+    @Test public void lruKPrefersSingleUsePages() throws Exception {
+        LruKPolicy policy = new LruKPolicy(3);
+        HeapPageId hot = load(policy, 0);
+        policy.pageAccessed(hot);
+        HeapPageId warm = load(policy, 1);
+        policy.pageAccessed(warm);
+        HeapPageId scan = load(policy, 2);
+
+        assertEquals(scan, evict(policy));
+        assertEquals(hot, evict(policy));
+        assertEquals(warm, evict(policy));
+        assertNull(evict(policy));
+    }
+
+    /**
+     * 2Q only promotes a page to the main queue when it is re-read after
+     * falling out of the FIFO, so a scan cannot flush it afterwards.
+     */
+    @Test public void twoQueueScanResistance() throws Exception {
+        TwoQueuePolicy policy = new TwoQueuePolicy(4);
+        HeapPageId hot = load(policy, 0);
+        assertEquals(hot, evict(policy));
+        // re-read while still remembered in A1out: goes straight to Am
+        load(policy, 0);
+        for (int i = 1; i < 20; i++) {
+            if (frames.size() == 4)
+                assertFalse(hot.equals(evict(policy)));
+            load(policy, i);
+        }
+        assertTrue(frames.containsKey(hot));
+    }
+
+    /**
+     * No policy may pick a dirty page.
+     */
+    @Test public void skipDirtyPages() throws Exception {
+        ReplacementPolicy[] policies = new ReplacementPolicy[] {
+            new ClockPolicy(2), new LruKPolicy(2), new TwoQueuePolicy(2)
+        };
+        for (ReplacementPolicy policy : policies) {
+            frames.clear();
+            HeapPageId p0 = load(policy, 0);
+            HeapPageId p1 = load(policy, 1);
+            frames.get(p0).markDirty(true, new TransactionId());
+            assertEquals(p1, evict(policy));
+            assertNull(evict(policy));
+            frames.get(p0).markDirty(false, null);
+            assertEquals(p0, evict(policy));
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
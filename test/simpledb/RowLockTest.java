@@ -0,0 +1,333 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class RowLockTest extends SimpleDbTestBase {
+    /** Time to wait before checking that a waiter is still waiting, in ms */
+    private static final int PAUSE = 100;
+
+    private BufferPool bp;
+    private HeapFile hf;
+    private HeapPageId p0;
+    private List<Tuple> rows;
+    private ArrayList<ArrayList<Integer>> expected;
+    private TransactionId t1, t2;
+
+    /**
+     * Set up a table with ten committed tuples (i, i), all on its first page.
+     */
+    @Before
+    public void createTable() throws Exception {
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        File f = File.createTempFile("rowlock", ".dat");
+        HeapFile.deleteOnExit(f);
+        fill(Utility.openHeapFile(2, f));
+        t1 = new TransactionId();
+        t2 = new TransactionId();
+    }
+
+    /** Makes hf the given empty table, and adds ten tuples (i, i) to it. */
+    private void fill(HeapFile table) throws Exception {
+        hf = table;
+        p0 = new HeapPageId(hf.getId(), 0);
+
+        rows = new ArrayList<Tuple>();
+        expected = new ArrayList<ArrayList<Integer>>();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 10; i++) {
+            Tuple t = Utility.getHeapTuple(i, 2);
+            bp.insertTuple(tid, hf.getId(), t);
+            rows.add(t);
+            expected.add(new ArrayList<Integer>(Arrays.asList(i, i)));
+        }
+        bp.transactionComplete(tid);
+    }
+
+    /** Checks the tuples a new transaction reads, and those on disk. */
+    private void assertTuples() throws Exception {
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(hf, tid, expected);
+        bp.transactionComplete(tid);
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(hf, expected);
+    }
+
+    private Tuple insert(TransactionId tid, int v) throws Exception {
+        Tuple t = Utility.getHeapTuple(v, 2);
+        bp.insertTuple(tid, hf.getId(), t);
+        return t;
+    }
+
+    /**
+     * Two transactions insert into the same page without waiting for each
+     * other; the first commits just its tuple while the second goes on, and
+     * the second's abort leaves the first's tuple.
+     */
+    @Test
+    public void insertsShareAPage() throws Exception {
+        Tuple a = insert(t1, 100);
+        Tuple b = insert(t2, 200);
+        assertEquals(p0, a.getRecordId().getPageId());
+        assertEquals(p0, b.getRecordId().getPageId());
+        assertFalse(a.getRecordId().equals(b.getRecordId()));
+
+        bp.transactionComplete(t1);
+        expected.add(new ArrayList<Integer>(Arrays.asList(100, 100)));
+        // t1's tuple is on disk, and t2's is not yet
+        HeapPage disk = (HeapPage) hf.readPage(p0);
+        assertTrue(disk.isSlotUsed(a.getRecordId().getTupleNumber()));
+        assertFalse(disk.isSlotUsed(b.getRecordId().getTupleNumber()));
+        bp.transactionComplete(t2, false);
+        assertTuples();
+    }
+
+    /**
+     * The first of two transactions deleting from the same page aborts,
+     * putting back just its tuple, and the second commits.
+     */
+    @Test
+    public void deletesShareAPage() throws Exception {
+        bp.deleteTuple(t1, rows.get(0));
+        bp.deleteTuple(t2, rows.get(1));
+        bp.transactionComplete(t1, false);
+        bp.transactionComplete(t2);
+        expected.remove(1);
+        assertTuples();
+    }
+
+    /**
+     * PAX tables lock records too, although their pages store each field of
+     * the slots together: two transactions change the same page, and one's
+     * changes are committed and the other's rolled back.
+     */
+    @Test
+    public void paxSharesAPage() throws Exception {
+        File f = File.createTempFile("rowlock", ".dat");
+        HeapFile.deleteOnExit(f);
+        HeapFile pax = new PaxHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(pax, SystemTestUtil.getUUID());
+        fill(pax);
+
+        Tuple a = insert(t1, 100);
+        bp.deleteTuple(t1, rows.get(0));
+        Tuple b = insert(t2, 200);
+        bp.deleteTuple(t2, rows.get(1));
+        assertEquals(p0, a.getRecordId().getPageId());
+        assertEquals(p0, b.getRecordId().getPageId());
+
+        bp.transactionComplete(t1);
+        expected.remove(0);
+        expected.add(new ArrayList<Integer>(Arrays.asList(100, 100)));
+        bp.transactionComplete(t2, false);
+        assertTuples();
+    }
+
+    /**
+     * Flushing a transaction's pages writes just its records, and it can
+     * still roll them back, from disk too, when it aborts.
+     */
+    @Test
+    public void flushThenAbort() throws Exception {
+        Tuple a = insert(t1, 100);
+        bp.deleteTuple(t1, rows.get(0));
+        Tuple b = insert(t2, 200);
+        bp.flushPages(t1);
+        HeapPage disk = (HeapPage) hf.readPage(p0);
+        assertTrue(disk.isSlotUsed(a.getRecordId().getTupleNumber()));
+        assertFalse(disk.isSlotUsed(b.getRecordId().getTupleNumber()));
+        assertFalse(disk.isSlotUsed(rows.get(0).getRecordId().getTupleNumber()));
+
+        bp.transactionComplete(t1, false);
+        disk = (HeapPage) hf.readPage(p0);
+        assertFalse(disk.isSlotUsed(a.getRecordId().getTupleNumber()));
+        assertTrue(disk.isSlotUsed(rows.get(0).getRecordId().getTupleNumber()));
+        bp.transactionComplete(t2, false);
+        assertTuples();
+    }
+
+    /**
+     * Flushing the pages of the only transaction changing them keeps its
+     * changes from being committed by the flush.
+     */
+    @Test
+    public void flushThenAbortAlone() throws Exception {
+        insert(t1, 100);
+        bp.deleteTuple(t1, rows.get(0));
+        bp.flushPages(t1);
+        bp.transactionComplete(t1, false);
+        assertTuples();
+    }
+
+    /**
+     * An insert locks only the page it adds its tuple to, and not a full
+     * page the free space map sent it to first.
+     */
+    @Test
+    public void insertLocksOnlyItsPage() throws Exception {
+        TransactionId tid = new TransactionId();
+        int free = ((HeapPage) bp.getPage(tid, p0, Permissions.READ_ONLY)).getNumEmptySlots();
+        for (int i = 0; i < free; i++)
+            insert(tid, 1000 + i);
+        bp.transactionComplete(tid);
+        hf.getFreeSpaceMap().update(0, true);
+
+        Tuple a = insert(t1, 100);
+        assertEquals(1, a.getRecordId().getPageId().getPageNumber());
+        assertFalse(bp.holdsLock(t1, p0));
+        bp.transactionComplete(t1);
+    }
+
+    /**
+     * An insert passing over a page whose only empty slot another
+     * transaction holds leaves the page as that transaction's to write.
+     */
+    @Test
+    public void insertSkipsLockedSlots() throws Exception {
+        TransactionId tid = new TransactionId();
+        int free = ((HeapPage) bp.getPage(tid, p0, Permissions.READ_ONLY)).getNumEmptySlots();
+        for (int i = 0; i < free; i++)
+            insert(tid, 1000 + i);
+        bp.transactionComplete(tid);
+        bp.deleteTuple(t1, rows.get(0));
+
+        Tuple b = insert(t2, 200);
+        assertEquals(1, b.getRecordId().getPageId().getPageNumber());
+        assertEquals(t1, bp.getPageForRows(t1, p0, Permissions.READ_ONLY).isDirty());
+        bp.transactionComplete(t1, false);
+        bp.transactionComplete(t2);
+        for (int i = 0; i < free; i++)
+            expected.add(new ArrayList<Integer>(Arrays.asList(1000 + i, 1000 + i)));
+        expected.add(new ArrayList<Integer>(Arrays.asList(200, 200)));
+        assertTuples();
+    }
+
+    /**
+     * A transaction waits for a record another has changed, and an insert
+     * does not reuse the slot of a tuple deleted by a transaction that has
+     * not completed.
+     */
+    @Test
+    public void sameRecordWaits() throws Exception {
+        final RecordId rid = rows.get(0).getRecordId();
+        bp.deleteTuple(t1, rows.get(0));
+        Tuple b = insert(t2, 200);
+        assertFalse(rid.equals(b.getRecordId()));
+
+        final boolean[] acquired = new boolean[1];
+        Thread reader = new Thread() {
+            public void run() {
+                try {
+                    bp.lockRecord(t2, rid, Permissions.READ_ONLY);
+                    acquired[0] = true;
+                } catch (TransactionAbortedException e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        reader.start();
+        Thread.sleep(PAUSE);
+        assertTrue(reader.isAlive());
+        bp.transactionComplete(t1);
+        reader.join();
+        assertTrue(acquired[0]);
+        assertNull(hf.readTuple(t2, rid, Permissions.READ_ONLY));
+        bp.transactionComplete(t2);
+    }
+
+    /**
+     * A transaction holding more than ROW_LOCK_ESCALATION record locks on a
+     * page has them replaced with a lock on the page.
+     */
+    @Test
+    public void escalatesToPage() throws Exception {
+        HeapPage page = (HeapPage) bp.getPage(t1, p0, Permissions.READ_ONLY);
+        int free = page.getNumEmptySlots();
+        bp.releasePage(t1, p0);
+        for (int i = 0; i <= BufferPool.ROW_LOCK_ESCALATION && i < free; i++)
+            insert(t1, 1000 + i);
+        assertEquals(1, bp.getLockEscalations());
+        // the page lock covers records t1 has not touched
+        assertTrue(bp.holdsLock(t1, rows.get(5).getRecordId()));
+        assertFalse(bp.tryLockRecord(t2, rows.get(5).getRecordId()));
+        bp.transactionComplete(t1, false);
+        assertTuples();
+    }
+
+    /**
+     * A transaction reading more than PAGE_LOCK_ESCALATION pages of a table
+     * has its page locks replaced with a lock on the table.
+     */
+    @Test
+    public void scanEscalatesToTable() throws Exception {
+        HeapFile big = scanWholeTable(t1);
+        assertEquals(1, bp.getLockEscalations());
+        // the first page's lock was given up for the table's
+        assertTrue(bp.holdsLock(t1, new HeapPageId(big.getId(), 0)));
+        bp.releasePage(t1, new HeapPageId(big.getId(), 0));
+        assertTrue(bp.holdsLock(t1, new HeapPageId(big.getId(), 0)));
+        bp.transactionComplete(t1);
+    }
+
+    /**
+     * Creates a table of more than PAGE_LOCK_ESCALATION empty pages and has
+     * tid read every page, so that it ends up with a lock on the table.
+     */
+    private HeapFile scanWholeTable(TransactionId tid) throws Exception {
+        File f = File.createTempFile("rowlock", ".dat");
+        HeapFile.deleteOnExit(f);
+        int pages = BufferPool.PAGE_LOCK_ESCALATION + 2;
+        FileOutputStream out = new FileOutputStream(f);
+        out.write(new byte[pages * BufferPool.getPageSize()]);
+        out.close();
+        HeapFile big = Utility.openHeapFile(2, f);
+        for (int i = 0; i < pages; i++)
+            bp.getPage(tid, new HeapPageId(big.getId(), i), Permissions.READ_ONLY);
+        return big;
+    }
+
+    /**
+     * A bulk insert into a table another transaction's scan holds a lock
+     * on waits for the scan to complete, rather than aborting.
+     */
+    @Test
+    public void bulkInsertWaitsForScan() throws Exception {
+        final HeapFile big = scanWholeTable(t1);
+        final List<Tuple> batch = new ArrayList<Tuple>();
+        batch.add(Utility.getHeapTuple(7, 2));
+        final boolean[] inserted = new boolean[1];
+        Thread loader = new Thread() {
+            public void run() {
+                try {
+                    big.bulkInsert(t2, batch);
+                    inserted[0] = true;
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        loader.start();
+        Thread.sleep(PAUSE);
+        assertTrue(loader.isAlive());
+        bp.transactionComplete(t1);
+        loader.join();
+        assertTrue(inserted[0]);
+        bp.transactionComplete(t2);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RowLockTest.class);
+    }
+}
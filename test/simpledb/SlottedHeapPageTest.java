@@ -0,0 +1,173 @@
+package simpledb;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+    private HeapPageId pid;
+    private TupleDesc td;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before
+    public void addTable() throws Exception {
+        this.pid = new HeapPageId(-1, -1);
+        this.td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        Database.getCatalog().addTable(new SkeletonFile(-1, td), SystemTestUtil.getUUID());
+    }
+
+    private Tuple tuple(int i, String s) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    /** Returns "i:s" for each tuple on the page, in slot order. */
+    private List<String> contents(HeapPage page) {
+        List<String> l = new ArrayList<String>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            l.add(((IntField) t.getField(0)).getValue() + ":" + t.getField(1));
+        }
+        return l;
+    }
+
+    /**
+     * Short strings take only the space they need.
+     */
+    @Test
+    public void packsShortStrings() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        List<String> expected = new ArrayList<String>();
+        int n = 0;
+        while (page.getNumEmptySlots() > 0) {
+            page.insertTuple(tuple(n, "c" + n));
+            expected.add(n + ":c" + n);
+            n++;
+        }
+        // HeapPage fits 30 of these
+        assertTrue(n > 5 * HeapPage.numSlots(td));
+        assertEquals(expected, contents(page));
+        assertEquals(expected, contents(new SlottedHeapPage(pid, page.getPageData())));
+    }
+
+    /**
+     * Deleted space is reused, and the remaining tuples keep their values and
+     * RecordIds.
+     */
+    @Test
+    public void reuseDeletedSpace() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        while (page.getNumEmptySlots() > 0) {
+            Tuple t = tuple(tuples.size(), "short");
+            page.insertTuple(t);
+            tuples.add(t);
+        }
+        for (int i = 0; i < tuples.size(); i += 2)
+            page.deleteTuple(tuples.get(i));
+
+        // longer tuples only fit once the holes are compacted
+        char[] chars = new char[100];
+        Arrays.fill(chars, 'x');
+        String longer = new String(chars);
+        Tuple added = tuple(-1, longer);
+        page.insertTuple(added);
+        assertEquals(0, added.getRecordId().getTupleNumber());
+
+        HeapPage reread = new SlottedHeapPage(pid, page.getPageData());
+        Iterator<Tuple> it = reread.iterator();
+        assertTrue(TestUtil.compareTuples(added, it.next()));
+        for (int i = 1; i < tuples.size(); i += 2) {
+            Tuple t = it.next();
+            assertTrue(TestUtil.compareTuples(tuples.get(i), t));
+            assertEquals(tuples.get(i).getRecordId(), t.getRecordId());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * A page with all its tuples deleted is an empty page again.
+     */
+    @Test
+    public void deleteAll() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 10; i++) {
+            tuples.add(tuple(i, "value " + i));
+            page.insertTuple(tuples.get(i));
+        }
+        for (Tuple t : tuples)
+            page.deleteTuple(t);
+        assertFalse(page.iterator().hasNext());
+        assertArrayEquals(HeapPage.createEmptyPageData(), page.getPageData());
+    }
+
+    /**
+     * The catalog loads a table marked "slotted" as a SlottedHeapFile, which
+     * can be inserted into and scanned.
+     */
+    @Test
+    public void slottedTable() throws Exception {
+        File catalog = File.createTempFile("catalog", ".txt");
+        catalog.deleteOnExit();
+        File dat = new File(catalog.getParentFile(), "slottedtest.dat");
+        dat.delete();
+        dat.createNewFile();
+        HeapFile.deleteOnExit(dat);
+        java.io.FileWriter w = new java.io.FileWriter(catalog);
+        w.write("slottedtest (a int, b string) slotted\n");
+        w.close();
+
+        Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+        int id = Database.getCatalog().getTableId("slottedtest");
+        DbFile f = Database.getCatalog().getDatabaseFile(id);
+        assertTrue(f instanceof SlottedHeapFile);
+
+        TransactionId tid = new TransactionId();
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 1000; i++)
+            tuples.add(tuple(i, "s" + i));
+        Insert insert = new Insert(tid, new TupleIterator(td, tuples), id);
+        insert.open();
+        assertEquals(1000, ((IntField) insert.next().getField(0)).getValue());
+        insert.close();
+        Database.getBufferPool().transactionComplete(tid);
+        // HeapFile would need 34 pages
+        assertTrue(((HeapFile) f).numPages() <= 5);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int i = ((IntField) t.getField(0)).getValue();
+            assertEquals("s" + i, t.getField(1).toString());
+            count++;
+        }
+        it.close();
+        assertEquals(1000, count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
@@ -0,0 +1,201 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class VacuumTest extends SimpleDbTestBase {
+    private HeapFile table;
+    private List<ArrayList<Integer>> kept;
+
+    /**
+     * Set up a table of (i, i) for i below 3000, then delete three tuples
+     * out of four, leaving most pages mostly empty.
+     */
+    @Before
+    public void createTable() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 3000; i++)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, i)));
+        table = JoinOptimizerTest.createDuplicateHeapFile(tuples, 2, "c");
+        Database.getCatalog().addTable(table, "t");
+
+        kept = new ArrayList<ArrayList<Integer>>();
+        TransactionId tid = new TransactionId();
+        List<Tuple> deleted = new ArrayList<Tuple>();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int v = ((IntField) t.getField(0)).getValue();
+            if (v % 4 == 0)
+                kept.add(new ArrayList<Integer>(Arrays.asList(v, v)));
+            else
+                deleted.add(t);
+        }
+        it.close();
+        for (Tuple t : deleted)
+            Database.getBufferPool().deleteTuple(tid, t);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Checks that a new transaction reads just the kept tuples. */
+    private void assertTuples() throws Exception {
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(new SeqScan(tid, table.getId()), kept);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Vacuum repacks the tuples into as few pages as hold them, and removes
+     * the rest from the file.
+     */
+    @Test
+    public void shrinksFile() throws Exception {
+        int before = table.numPages();
+        int perPage = HeapPage.numSlots(table.getTupleDesc());
+        int needed = (kept.size() + perPage - 1) / perPage;
+        assertTrue(before > needed + 1);
+
+        int removed = table.vacuum();
+        assertEquals(before - needed, removed);
+        assertEquals(needed, table.numPages());
+        assertTuples();
+
+        // nothing left to do
+        assertEquals(0, table.vacuum());
+    }
+
+    /**
+     * The table's indexes point at the tuples' new slots.
+     */
+    @Test
+    public void indexesFollow() throws Exception {
+        File f = File.createTempFile("index", ".btree");
+        f.deleteOnExit();
+        IndexFile index = new BTreeFile(f, table, 0);
+        Database.getCatalog().addIndex(index);
+        TransactionId tid = new TransactionId();
+        index.build(tid);
+        Database.getBufferPool().transactionComplete(tid);
+
+        assertTrue(table.vacuum() > 0);
+        tid = new TransactionId();
+        for (ArrayList<Integer> row : kept) {
+            IndexScan scan = new IndexScan(tid, index, "t", Predicate.Op.EQUALS, new IntField(row.get(0)));
+            List<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+            expected.add(row);
+            SystemTestUtil.matchTuples(scan, expected);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Vacuum waits for the pages other transactions are reading, giving up
+     * on those it cannot lock, and scans that started before the file
+     * shrank still read it correctly.
+     */
+    @Test
+    public void concurrentReaders() throws Exception {
+        int before = table.numPages();
+        TransactionId reader = new TransactionId();
+        Database.getBufferPool().getPage(reader, new HeapPageId(table.getId(), before - 1), Permissions.READ_ONLY);
+        assertEquals(0, table.vacuum());
+        assertEquals(before, table.numPages());
+        Database.getBufferPool().transactionComplete(reader);
+        assertTuples();
+
+        reader = new TransactionId();
+        SeqScan scan = new SeqScan(reader, table.getId());
+        assertTrue(table.vacuum() > 0);
+        assertTrue(table.numPages() < before);
+        SystemTestUtil.matchTuples(scan, kept);
+        Database.getBufferPool().transactionComplete(reader);
+    }
+
+    /**
+     * Vacuum that cannot lock a page it would move tuples into stops there,
+     * but still removes the pages it emptied before.
+     */
+    @Test
+    public void stopsPartway() throws Exception {
+        int before = table.numPages();
+        int perPage = HeapPage.numSlots(table.getTupleDesc());
+        int needed = (kept.size() + perPage - 1) / perPage;
+        // the first page takes the tuples of the last few, then the second
+        // page is needed, and its lock cannot be had
+        TransactionId reader = new TransactionId();
+        Database.getBufferPool().getPage(reader, new HeapPageId(table.getId(), 1), Permissions.READ_ONLY);
+        int removed = table.vacuum();
+        Database.getBufferPool().transactionComplete(reader);
+        assertTrue(removed > 0);
+        assertEquals(before - removed, table.numPages());
+        assertTrue(table.numPages() > needed);
+        assertTuples();
+    }
+
+    /**
+     * Fills a table with (i, i) for i below 2000 through the buffer pool,
+     * deletes three tuples out of four, vacuums it, and checks that the kept
+     * tuples are all still there.
+     */
+    private void vacuumKeepsTuples(HeapFile f) throws Exception {
+        table = f;
+        Database.getCatalog().addTable(table, "t");
+        kept.clear();
+        TransactionId tid = new TransactionId();
+        List<Tuple> deleted = new ArrayList<Tuple>();
+        for (int i = 0; i < 2000; i++) {
+            Tuple t = Utility.getHeapTuple(i, 2);
+            Database.getBufferPool().insertTuple(tid, table.getId(), t);
+            if (i % 4 == 0)
+                kept.add(new ArrayList<Integer>(Arrays.asList(i, i)));
+            else
+                deleted.add(t);
+        }
+        for (Tuple t : deleted)
+            Database.getBufferPool().deleteTuple(tid, t);
+        Database.getBufferPool().transactionComplete(tid);
+
+        int before = table.numPages();
+        int removed = table.vacuum();
+        assertTrue(removed > 0);
+        assertEquals(before - removed, table.numPages());
+        assertTrue(table.numPages() > 0);
+        assertTuples();
+    }
+
+    /**
+     * Vacuum keeps the pages of a slotted table that still hold tuples.
+     */
+    @Test
+    public void slottedTable() throws Exception {
+        File f = File.createTempFile("vacuum", ".dat");
+        HeapFile.deleteOnExit(f);
+        vacuumKeepsTuples(new SlottedHeapFile(f, Utility.getTupleDesc(2)));
+    }
+
+    /**
+     * Vacuum keeps the pages of a PAX table that still hold tuples.
+     */
+    @Test
+    public void paxTable() throws Exception {
+        File f = File.createTempFile("vacuum", ".dat");
+        HeapFile.deleteOnExit(f);
+        vacuumKeepsTuples(new PaxHeapFile(f, Utility.getTupleDesc(2)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(VacuumTest.class);
+    }
+}
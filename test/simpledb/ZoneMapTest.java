@@ -0,0 +1,203 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+    private File f;
+    private HeapFile hf;
+    private int pages;
+
+    /**
+     * Set up a table whose first field increases with the page number.
+     */
+    @Before
+    public void setUp() throws Exception {
+        f = File.createTempFile("zones", ".dat");
+        HeapFile.deleteOnExit(f);
+        generate(0);
+        pages = hf.numPages();
+        assertTrue(pages > 3);
+    }
+
+    /**
+     * (Re)writes the table with tuples (base + i, i % 10), and opens it
+     * afresh.
+     */
+    private void generate(int base) throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 2000; i++)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(base + i, i % 10)));
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf = Utility.openHeapFile(2, f);
+    }
+
+    /** Returns the number of tuples a scan finds whose first field is v. */
+    private int count(int v) throws Exception {
+        Predicate p = pred(0, Predicate.Op.EQUALS, v);
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId());
+        scan.addPredicate(p);
+        Filter filter = new Filter(p, scan);
+        int n = 0;
+        filter.open();
+        while (filter.hasNext()) {
+            filter.next();
+            n++;
+        }
+        filter.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+
+    private static Predicate pred(int field, Predicate.Op op, int value) {
+        return new Predicate(field, op, new IntField(value));
+    }
+
+    /**
+     * Pages are never skipped before they have an entry, and are skipped by
+     * range once they do.
+     */
+    @Test
+    public void mayMatch() throws Exception {
+        ZoneMap zones = hf.getZoneMap();
+        assertTrue(zones.mayMatch(0, pred(0, Predicate.Op.GREATER_THAN, 5000)));
+
+        zones.learn((HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0)));
+        assertFalse(zones.mayMatch(0, pred(0, Predicate.Op.GREATER_THAN, 5000)));
+        assertFalse(zones.mayMatch(0, pred(0, Predicate.Op.LESS_THAN, 0)));
+        assertTrue(zones.mayMatch(0, pred(0, Predicate.Op.LESS_THAN_OR_EQ, 0)));
+        assertTrue(zones.mayMatch(0, pred(0, Predicate.Op.EQUALS, 3)));
+        assertFalse(zones.mayMatch(0, pred(1, Predicate.Op.EQUALS, 10)));
+        assertTrue(zones.mayMatch(0, pred(1, Predicate.Op.NOT_EQUALS, 9)));
+        // other pages still have no entry
+        assertTrue(zones.mayMatch(1, pred(0, Predicate.Op.LESS_THAN, 0)));
+
+        // the entry is persisted
+        ZoneMap reopened = new ZoneMap(new File(f.getPath() + ".zm"), f, hf.getTupleDesc());
+        assertFalse(reopened.mayMatch(0, pred(0, Predicate.Op.GREATER_THAN, 5000)));
+        assertTrue(reopened.mayMatch(1, pred(0, Predicate.Op.GREATER_THAN, 5000)));
+    }
+
+    /**
+     * A scan with a predicate reads only the pages whose ranges may match,
+     * once the zone map knows them.
+     */
+    @Test
+    public void scanSkipsPages() throws Exception {
+        List<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 10; i++)
+            expected.add(new ArrayList<Integer>(Arrays.asList(i, i)));
+        Predicate p = pred(0, Predicate.Op.LESS_THAN, 10);
+
+        // the first scan reads every page, and learns their ranges
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId());
+        scan.addPredicate(p);
+        SystemTestUtil.matchTuples(new Filter(p, scan), expected);
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        scan = new SeqScan(tid, hf.getId());
+        scan.addPredicate(p);
+        SystemTestUtil.matchTuples(new Filter(p, scan), expected);
+        assertTrue(Database.getBufferPool().holdsLock(tid, new HeapPageId(hf.getId(), 0)));
+        for (int i = 1; i < pages; i++)
+            assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(hf.getId(), i)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Inserts widen a page's ranges, and deletes narrow them once the page
+     * is written.
+     */
+    @Test
+    public void modify() throws Exception {
+        ZoneMap zones = hf.getZoneMap();
+        for (int i = 0; i < pages; i++)
+            zones.learn((HeapPage) hf.readPage(new HeapPageId(hf.getId(), i)));
+        assertFalse(zones.mayMatch(pages - 1, pred(0, Predicate.Op.LESS_THAN, 0)));
+
+        // the last page has room for the new tuple
+        TransactionId tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(new int[] { -1, 0 });
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        assertEquals(pages - 1, t.getRecordId().getPageId().getPageNumber());
+        assertTrue(zones.mayMatch(pages - 1, pred(0, Predicate.Op.LESS_THAN, 0)));
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(zones.mayMatch(pages - 1, pred(0, Predicate.Op.LESS_THAN, 0)));
+
+        tid = new TransactionId();
+        Database.getBufferPool().deleteTuple(tid, t);
+        Database.getBufferPool().transactionComplete(tid);
+        assertFalse(zones.mayMatch(pages - 1, pred(0, Predicate.Op.LESS_THAN, 0)));
+
+        // the map is still used once the table has been written
+        ZoneMap reopened = new ZoneMap(new File(f.getPath() + ".zm"), f, hf.getTupleDesc());
+        assertFalse(reopened.mayMatch(pages - 1, pred(0, Predicate.Op.LESS_THAN, 0)));
+        assertFalse(reopened.mayMatch(0, pred(0, Predicate.Op.GREATER_THAN, 5000)));
+    }
+
+    /**
+     * Writing a page leaves the map's stamp to be brought up to date at the
+     * end of the batch of writes, after which the map is used again.
+     */
+    @Test
+    public void stampedPerBatch() throws Exception {
+        ZoneMap zones = hf.getZoneMap();
+        for (int i = 0; i < pages; i++)
+            zones.learn((HeapPage) hf.readPage(new HeapPageId(hf.getId(), i)));
+        File zm = new File(f.getPath() + ".zm");
+
+        hf.writePage(new HeapPage(new HeapPageId(hf.getId(), pages), HeapPage.createEmptyPageData()));
+        assertTrue(new ZoneMap(zm, f, hf.getTupleDesc()).mayMatch(0, pred(0, Predicate.Op.GREATER_THAN, 5000)));
+        Database.getBufferPool().flushAllPages();
+        assertFalse(new ZoneMap(zm, f, hf.getTupleDesc()).mayMatch(0, pred(0, Predicate.Op.GREATER_THAN, 5000)));
+    }
+
+    /**
+     * A table generated again with other values is scanned by them, not by
+     * the ranges of the table it replaced.
+     */
+    @Test
+    public void regenerated() throws Exception {
+        assertEquals(1, count(5));
+        assertEquals(1, count(5));
+        generate(100);
+        assertEquals(1, count(105));
+        assertEquals(0, count(5));
+    }
+
+    /**
+     * A map left over from a data file that was replaced some other way is
+     * not used.
+     */
+    @Test
+    public void replacedByHand() throws Exception {
+        assertEquals(1, count(5));
+        File zm = new File(f.getPath() + ".zm");
+        byte[] stale = Files.readAllBytes(zm.toPath());
+        generate(100);
+        Files.write(zm.toPath(), stale);
+        hf = Utility.openHeapFile(2, f);
+        assertEquals(1, count(105));
+        assertEquals(1, count(105));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
@@ -68,6 +68,30 @@ public class InsertTest extends SimpleDbTestBase {
         validateInsert(1, 1, 1);
     }
 
+    @Test public void testBulkLoad()
+            throws IOException, DbException, TransactionAbortedException {
+        // several batches of pages, the last partly filled
+        validateInsert(2, 504 * (Insert.BULK_BATCH_PAGES + 2) + 17, 10);
+    }
+
+    /** Aborting a bulk load removes the appended tuples. */
+    @Test public void testAbortBulkLoad()
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> destinationTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile source = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, null);
+        HeapFile destination = SystemTestUtil.createRandomHeapFile(2, 10, null, destinationTuples);
+
+        TransactionId tid = new TransactionId();
+        Insert insOp = new Insert(tid, new SeqScan(tid, source.getId(), ""), destination.getId());
+        insOp.open();
+        assertEquals(504 * 3, ((IntField) insOp.next().getField(0)).getValue());
+        insOp.close();
+        assertEquals(4, destination.numPages());
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        SystemTestUtil.matchTuples(destination, destinationTuples);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(InsertTest.class);
@@ -22,6 +22,21 @@ import simpledb.*;
 public class ScanTest extends SimpleDbTestBase {
     private final static Random r = new Random();
 
+    /** Counts the number of readPage operations. */
+    private static class InstrumentedHeapFile extends HeapFile {
+        public InstrumentedHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) throws NoSuchElementException {
+            readCount += 1;
+            return super.readPage(pid);
+        }
+
+        public int readCount = 0;
+    }
+
     /** Tests the scan operator for a table with the specified dimensions. */
     private void validateScan(int[] columnSizes, int[] rowSizes)
             throws IOException, DbException, TransactionAbortedException {
@@ -71,21 +86,6 @@ public class ScanTest extends SimpleDbTestBase {
      * @throws TransactionAbortedException
      * @throws DbException */
     @Test public void testCache() throws IOException, DbException, TransactionAbortedException {
-        /** Counts the number of readPage operations. */
-        class InstrumentedHeapFile extends HeapFile {
-            public InstrumentedHeapFile(File f, TupleDesc td) {
-                super(f, td);
-            }
-
-            @Override
-            public Page readPage(PageId pid) throws NoSuchElementException {
-                readCount += 1;
-                return super.readPage(pid);
-            }
-
-            public int readCount = 0;
-        }
-
         // Create the table
         final int PAGES = 30;
         ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
@@ -103,6 +103,82 @@ public class ScanTest extends SimpleDbTestBase {
         assertEquals(0, table.readCount);
     }
 
+    /** Verifies that a large scan does not take back the frame of a page of
+     * its ring that another transaction has read since the scan did. */
+    @Test public void testLargeScanKeepsSharedPage() throws Exception {
+        final int POOL_PAGES = 20;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 992*60, 1000, null, tuples);
+        InstrumentedHeapFile large = new InstrumentedHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(large, SystemTestUtil.getUUID());
+        Database.resetBufferPool(POOL_PAGES);
+
+        TransactionId scanner = new TransactionId();
+        DbFileIterator it = large.iterator(scanner);
+        it.open();
+        it.next();
+        // another transaction reads the page the scan is on
+        TransactionId reader = new TransactionId();
+        HeapPageId first = new HeapPageId(large.getId(), 0);
+        Database.getBufferPool().getPage(reader, first, Permissions.READ_ONLY);
+        while (it.hasNext())
+            it.next();
+        it.close();
+        Database.getBufferPool().transactionComplete(scanner);
+
+        large.readCount = 0;
+        Database.getBufferPool().getPage(reader, first, Permissions.READ_ONLY);
+        assertEquals(0, large.readCount);
+        Database.getBufferPool().transactionComplete(reader);
+    }
+
+    /** Verifies that scanning a table much larger than the buffer pool does
+     * not push out the pages of a small table that is already cached. */
+    @Test public void testLargeScanKeepsCache() throws IOException, DbException, TransactionAbortedException {
+        final int POOL_PAGES = 20;
+        ArrayList<ArrayList<Integer>> smallTuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 992*4, 1000, null, smallTuples);
+        InstrumentedHeapFile small = new InstrumentedHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(small, SystemTestUtil.getUUID());
+
+        ArrayList<ArrayList<Integer>> largeTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile large = SystemTestUtil.createRandomHeapFile(1, 992*60, null, largeTuples);
+
+        Database.resetBufferPool(POOL_PAGES);
+        SystemTestUtil.matchTuples(small, smallTuples);
+        SystemTestUtil.matchTuples(large, largeTuples);
+
+        // the large scan only cycled through its own ring of frames
+        small.readCount = 0;
+        SystemTestUtil.matchTuples(small, smallTuples);
+        assertEquals(0, small.readCount);
+    }
+
+    /** Verifies that a sequential scan prefetches the pages ahead of it, and
+     * that every prefetched page is accounted for as a hit or a miss. */
+    @Test public void testReadAhead() throws IOException, DbException, TransactionAbortedException {
+        final int PAGES = 30;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 992*PAGES, 1000, null, tuples);
+        InstrumentedHeapFile table = new InstrumentedHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.setReadAheadWindow(8);
+        SystemTestUtil.matchTuples(table, tuples);
+
+        // read-ahead starts once pages 0 and 1 have been read in order
+        assertEquals(PAGES - 2, bp.getReadAheadHits() + bp.getReadAheadMisses());
+        assertEquals(PAGES - bp.getReadAheadHits(), table.readCount);
+
+        // nothing is prefetched once the table is cached
+        table.readCount = 0;
+        long hits = bp.getReadAheadHits();
+        SystemTestUtil.matchTuples(table, tuples);
+        assertEquals(0, table.readCount);
+        assertEquals(hits, bp.getReadAheadHits());
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(ScanTest.class);